@@ -0,0 +1,105 @@
+package sqlite.database;
+
+import org.openjdk.jmh.annotations.*;
+import sqlite.query.PreparedStatement;
+import sqlite.query.QueryEngine;
+import sqlite.query.Row;
+import sqlite.query.Value;
+import sqlite.storage.BackingFile;
+import sqlite.storage.Generator;
+import sqlite.storage.StorageEngine;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Measures how fast results can be written out, in rows per second, both
+// for rows that are already in memory and for a whole query streamed from
+// the table. Output goes to a stream that discards it.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OutputBenchmark {
+  private static final int ROWS = 10000;
+
+  private Path path;
+  private BackingFile file;
+  private PreparedStatement selectAll;
+  private List<Row> rows;
+  private final OutputStream sink = OutputStream.nullOutputStream();
+
+  @Setup
+  public void setUp() throws IOException {
+    path = Files.createTempFile("output-benchmark", ".db");
+    Generator.generate(path, new Generator.Options(ROWS));
+    file = new BackingFile(Files.newByteChannel(path));
+    var engine = new QueryEngine(new StorageEngine(file));
+    selectAll = engine.prepare(
+        "SELECT id, name, category, quantity, price FROM items");
+    rows = selectAll.execute();
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    file.close();
+    Files.delete(path);
+  }
+
+  private void write(ResultWriter.Mode mode) throws IOException {
+    var writer = ResultWriter.of(sink, mode, selectAll.columnNames());
+    rows.forEach(writer);
+    writer.finish();
+  }
+
+  // How rows were written before RowWriter, for comparison.
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void println() {
+    var out = new PrintStream(sink);
+    for (var row : rows) {
+      var values = row.columns().stream().map(Value::display).toList();
+      out.println(String.join("|", values));
+    }
+    out.flush();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void list() throws IOException {
+    write(ResultWriter.Mode.LIST);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void csv() throws IOException {
+    write(ResultWriter.Mode.CSV);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void json() throws IOException {
+    write(ResultWriter.Mode.JSON);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void arrow() throws IOException {
+    write(ResultWriter.Mode.ARROW);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void streamQuery() throws IOException {
+    var writer = new RowWriter(sink, ResultWriter.Mode.LIST,
+                               selectAll.columnNames());
+    selectAll.execute(writer);
+    writer.finish();
+  }
+}
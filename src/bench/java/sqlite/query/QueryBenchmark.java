@@ -0,0 +1,83 @@
+package sqlite.query;
+
+import org.openjdk.jmh.annotations.*;
+import sqlite.storage.BackingFile;
+import sqlite.storage.Generator;
+import sqlite.storage.StorageEngine;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBenchmark {
+  @Param({"10000"})
+  public long rows;
+
+  private Path path;
+  private BackingFile file;
+  private QueryEngine engine;
+  private PreparedStatement byCategory;
+  private int next = 0;
+
+  @Setup
+  public void setUp() throws IOException {
+    path = Files.createTempFile("query-benchmark", ".db");
+    Generator.generate(path, new Generator.Options(rows));
+    file = new BackingFile(Files.newByteChannel(path));
+    engine = new QueryEngine(new StorageEngine(file));
+    byCategory = engine.prepare(
+        "SELECT id, name FROM items WHERE category = ?");
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    file.close();
+    Files.delete(path);
+  }
+
+  private String nextCategory() {
+    next = (next + 1) % 100;
+    return Generator.category(next);
+  }
+
+  @Benchmark
+  public List<Row> count() throws IOException {
+    return engine.evaluate("SELECT count(*) FROM items");
+  }
+
+  @Benchmark
+  public List<Row> aggregate() throws IOException {
+    return engine.evaluate(
+        "SELECT sum(price), avg(quantity), max(price) FROM items");
+  }
+
+  @Benchmark
+  public List<Row> selectAll() throws IOException {
+    return engine.evaluate("SELECT id, name, category FROM items");
+  }
+
+  @Benchmark
+  public List<Row> scanFilter() throws IOException {
+    return engine.evaluate("SELECT id FROM items WHERE name = 'nosuchname'");
+  }
+
+  @Benchmark
+  public List<Row> indexFilter() throws IOException {
+    return engine.evaluate(
+        "SELECT id, name FROM items WHERE category = '%s'".formatted(
+            nextCategory()));
+  }
+
+  @Benchmark
+  public List<Row> preparedIndexFilter() throws IOException {
+    return byCategory.bind(1, new Value.StringValue(nextCategory())).execute();
+  }
+}
@@ -0,0 +1,67 @@
+package sqlite.query;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Sorts arrays of values so that the comparisons dominate.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValueBenchmark {
+  private static final int VALUES = 4096;
+
+  private Value[] ints;
+  private Value[] strings;
+  private Value[] mixed;
+
+  @Setup
+  public void setUp() {
+    var random = new Random(0);
+    ints = new Value[VALUES];
+    strings = new Value[VALUES];
+    mixed = new Value[VALUES];
+    for (int i = 0; i < VALUES; i++) {
+      ints[i] = new Value.IntValue(random.nextLong());
+      strings[i] = new Value.StringValue("category%d".formatted(
+          random.nextInt(1000)));
+      mixed[i] = switch (i % 4) {
+        case 0 -> ints[i];
+        case 1 -> strings[i];
+        case 2 -> new Value.RealValue(random.nextDouble());
+        default -> new Value.NullValue();
+      };
+    }
+  }
+
+  private static Value[] sort(Value[] values, Collation collation) {
+    var sorted = values.clone();
+    Arrays.sort(sorted, (a, b) -> Value.compare(a, b, collation));
+    return sorted;
+  }
+
+  @Benchmark
+  public Value[] sortInts() {
+    return sort(ints, Collation.BINARY);
+  }
+
+  @Benchmark
+  public Value[] sortStrings() {
+    return sort(strings, Collation.BINARY);
+  }
+
+  @Benchmark
+  public Value[] sortStringsNoCase() {
+    return sort(strings, Collation.NOCASE);
+  }
+
+  @Benchmark
+  public Value[] sortMixed() {
+    return sort(mixed, Collation.BINARY);
+  }
+}
@@ -0,0 +1,119 @@
+package sqlite.storage;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import sqlite.query.Value;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StorageBenchmark {
+  private static final int VARINTS = 1024;
+  // the generator writes the first table leaf right after the schema
+  private static final int FIRST_LEAF_PAGE = 2;
+  private static final List<String> COLUMNS =
+      List.of("id", "name", "category", "quantity", "price");
+
+  @Param({"10000"})
+  public long rows;
+
+  private Path path;
+  private BackingFile file;
+  private StorageEngine storage;
+  private Table table;
+  private Index index;
+  private ByteBuffer varInts;
+  private byte[] payload;
+  private long next = 0;
+
+  @Setup
+  public void setUp() throws IOException {
+    path = Files.createTempFile("storage-benchmark", ".db");
+    Generator.generate(path, new Generator.Options(rows));
+    file = new BackingFile(Files.newByteChannel(path));
+    storage = new StorageEngine(file);
+    table = storage.getTables().getFirst();
+    index = storage.getIndices().getFirst();
+    varInts = ByteBuffer.allocate(VARINTS * 9);
+    for (int i = 0; i < VARINTS; i++) VarInt.writeTo(varInts, 1L << (i % 40));
+    payload = Generator.record(null, "abcdefghijklmnop", "category7", 123L);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    file.close();
+    Files.delete(path);
+  }
+
+  // cycles through the rows in a scattered order
+  private long nextRowId() {
+    next = (next + 7919) % rows;
+    return next + 1;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(VARINTS)
+  public long varIntParseFrom() {
+    var buf = varInts.position(0);
+    long sum = 0;
+    for (int i = 0; i < VARINTS; i++) sum += VarInt.parseFrom(buf).value();
+    return sum;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(VARINTS)
+  public long varIntGet() {
+    long sum = 0;
+    for (int i = 0, offset = 0; i < VARINTS; i++) {
+      sum += VarInt.get(varInts, offset);
+      offset = VarInt.skip(varInts, offset);
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public Record recordParse() {
+    return Record.parse(payload, StandardCharsets.UTF_8);
+  }
+
+  @Benchmark
+  public void pageRecords(Blackhole bh) {
+    try (var page = storage.getPage(FIRST_LEAF_PAGE)) {
+      page.records().forEach(bh::consume);
+    }
+  }
+
+  @Benchmark
+  public List<Table.Row> tableRows() {
+    return table.rows();
+  }
+
+  @Benchmark
+  public void tableScan(Blackhole bh) {
+    table.scan(COLUMNS, bh::consume);
+  }
+
+  @Benchmark
+  public Optional<Table.Row> tableGet() {
+    return table.get(nextRowId());
+  }
+
+  @Benchmark
+  public List<Long> indexFindMatchingRecordIds() {
+    var category = Generator.category(nextRowId() % 100);
+    return index.findMatchingRecordIds("category",
+                                       new Value.StringValue(category));
+  }
+}
@@ -0,0 +1,349 @@
+package sqlite.database;
+
+import sqlite.query.Row;
+import sqlite.query.Value;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Writes result rows as an Arrow IPC stream, see "Serialization and
+// Interprocess Communication (IPC)" in the Arrow columnar format docs: a
+// schema message, a record batch message for every BATCH_ROWS rows, and an
+// end-of-stream marker.
+//
+// SQLite values are dynamically typed, so each column's Arrow type is chosen
+// from its values in the first batch: Int64 if they're all integers, Float64
+// if they're all numbers, Binary if they're all blobs, and Utf8 otherwise.
+// Values in later batches that don't match are converted as CAST would
+// convert them. Every column is nullable.
+public final class ArrowWriter implements ResultWriter {
+  static final int BATCH_ROWS = 64 << 10;
+  // a batch is cut short when a column's text or blobs reach this size
+  private static final int BATCH_BYTES = 64 << 20;
+  private static final int CONTINUATION = 0xffffffff;
+  private static final short METADATA_V5 = 4;
+  private static final byte SCHEMA = 1;
+  private static final byte RECORD_BATCH = 3;
+
+  enum Type {
+    INT64(2), FLOAT64(3), BINARY(4), UTF8(5);
+
+    // the type's tag in the Type union
+    final byte tag;
+
+    Type(int tag) {
+      this.tag = (byte) tag;
+    }
+
+    private FlatBuffer.Table metadata() {
+      var table = new FlatBuffer.Table();
+      return switch (this) {
+        // bitWidth, is_signed
+        case INT64 -> table.addInt(0, 64).addBool(1, true);
+        // precision: DOUBLE
+        case FLOAT64 -> table.addShort(0, 2);
+        case BINARY, UTF8 -> table;
+      };
+    }
+  }
+
+  // The values of a column in the current batch, laid out as Arrow buffers:
+  // a validity bitmap, then values for fixed-width types or offsets and data
+  // for variable-width ones.
+  private static final class Vector {
+    private final Type type;
+    private byte[] validity = new byte[128];
+    private int nullCount = 0;
+    private long[] longs;
+    private double[] doubles;
+    private int[] offsets;
+    private byte[] data;
+    private int dataSize = 0;
+
+    Vector(Type type) {
+      this.type = type;
+      switch (type) {
+        case INT64 -> longs = new long[1024];
+        case FLOAT64 -> doubles = new double[1024];
+        case BINARY, UTF8 -> {
+          offsets = new int[1025];
+          data = new byte[8192];
+        }
+      }
+    }
+
+    void clear() {
+      Arrays.fill(validity, (byte) 0);
+      nullCount = 0;
+      dataSize = 0;
+    }
+
+    private void grow(int rows) {
+      if (rows / 8 >= validity.length) {
+        validity = Arrays.copyOf(validity, validity.length * 2);
+      }
+      switch (type) {
+        case INT64 -> {
+          if (rows >= longs.length) longs = Arrays.copyOf(longs, rows * 2);
+        }
+        case FLOAT64 -> {
+          if (rows >= doubles.length) {
+            doubles = Arrays.copyOf(doubles, rows * 2);
+          }
+        }
+        case BINARY, UTF8 -> {
+          if (rows + 1 >= offsets.length) {
+            offsets = Arrays.copyOf(offsets, rows * 2 + 1);
+          }
+        }
+      }
+    }
+
+    private void reserveData(int n) {
+      if (dataSize + n <= data.length) return;
+      data = Arrays.copyOf(data, Math.max(data.length * 2, dataSize + n));
+    }
+
+    private void putBytes(byte[] bytes) {
+      reserveData(bytes.length);
+      System.arraycopy(bytes, 0, data, dataSize, bytes.length);
+      dataSize += bytes.length;
+    }
+
+    private void putText(String s) {
+      reserveData(s.length());
+      int n = dataSize;
+      for (int i = 0; i < s.length(); i++) {
+        char c = s.charAt(i);
+        if (c >= 0x80) {
+          putBytes(s.getBytes(StandardCharsets.UTF_8));
+          return;
+        }
+        data[n + i] = (byte) c;
+      }
+      dataSize += s.length();
+    }
+
+    void add(int row, Value value) {
+      grow(row);
+      if (value instanceof Value.NullValue) {
+        nullCount++;
+        switch (type) {
+          case INT64 -> longs[row] = 0;
+          case FLOAT64 -> doubles[row] = 0;
+          case BINARY, UTF8 -> offsets[row + 1] = dataSize;
+        }
+        return;
+      }
+      validity[row / 8] |= (byte) (1 << (row % 8));
+      switch (type) {
+        case INT64 -> longs[row] = switch (value) {
+          case Value.IntValue(var x) -> x;
+          case Value.RealValue(var x) -> (long) x;
+          default -> (long) Value.toReal(value);
+        };
+        case FLOAT64 -> doubles[row] = Value.toReal(value);
+        case BINARY, UTF8 -> {
+          switch (value) {
+            case Value.StringValue(var x) -> putText(x);
+            case Value.BlobValue(var x) when type == Type.BINARY ->
+                putBytes(x);
+            case Value.BlobValue(var x) ->
+                putText(new String(x, StandardCharsets.UTF_8));
+            default -> putText(value.display());
+          }
+          offsets[row + 1] = dataSize;
+        }
+      }
+    }
+  }
+
+  private final OutputStream out;
+  private final List<String> columns;
+  // the first batch's rows, until the column types are known
+  private List<Row> pending = new ArrayList<>();
+  private Vector[] vectors;
+  private int rows = 0;
+  // the current batch's message body, reused between batches
+  private ByteBuffer body =
+      ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+
+  public ArrowWriter(OutputStream out, List<String> columns) {
+    this.out = out;
+    this.columns = List.copyOf(columns);
+  }
+
+  static Type infer(List<Row> rows, int column) {
+    boolean ints = false, reals = false, texts = false, blobs = false;
+    for (var row : rows) {
+      switch (row.columns().get(column)) {
+        case Value.IntValue ignored -> ints = true;
+        case Value.RealValue ignored -> reals = true;
+        case Value.StringValue ignored -> texts = true;
+        case Value.BlobValue ignored -> blobs = true;
+        case Value.NullValue ignored -> {}
+      }
+    }
+    if (texts || blobs == (ints || reals)) return Type.UTF8;
+    if (blobs) return Type.BINARY;
+    return reals ? Type.FLOAT64 : Type.INT64;
+  }
+
+  @Override
+  public void accept(Row row) {
+    try {
+      if (vectors != null) {
+        append(row);
+        return;
+      }
+      pending.add(row);
+      if (pending.size() == BATCH_ROWS) start();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // Fixes the column types, writes the schema, and moves the pending rows
+  // into batches.
+  private void start() throws IOException {
+    vectors = new Vector[columns.size()];
+    var fields = new ArrayList<FlatBuffer.Table>();
+    for (int i = 0; i < columns.size(); i++) {
+      var type = infer(pending, i);
+      vectors[i] = new Vector(type);
+      fields.add(new FlatBuffer.Table()
+                     .add(0, new FlatBuffer.Str(columns.get(i)))
+                     .addBool(1, true)
+                     .addByte(2, type.tag)
+                     .add(3, type.metadata())
+                     // readers expect children even when there are none
+                     .add(5, new FlatBuffer.Tables(List.of())));
+    }
+    // endianness: Little
+    var schema = new FlatBuffer.Table()
+        .addShort(0, 0)
+        .add(1, new FlatBuffer.Tables(fields));
+    writeMessage(SCHEMA, schema, 0);
+    var rows = pending;
+    pending = null;
+    for (var row : rows) append(row);
+  }
+
+  private void append(Row row) throws IOException {
+    var values = row.columns();
+    boolean full = rows + 1 == BATCH_ROWS;
+    for (int i = 0; i < vectors.length; i++) {
+      vectors[i].add(rows, values.get(i));
+      full |= vectors[i].dataSize >= BATCH_BYTES;
+    }
+    rows++;
+    if (full) writeBatch();
+  }
+
+  private static int padded(int n) {
+    return (n + 7) & ~7;
+  }
+
+  private void reserve(int n) {
+    if (body.remaining() >= n) return;
+    int size = Math.max(body.capacity() * 2, body.position() + n);
+    body = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN)
+                     .put(body.flip());
+  }
+
+  // Ends a buffer in the body, padding it with zeros to a multiple of 8
+  // bytes, and records its offset and unpadded length.
+  private void endBuffer(int start, long[] buffers, int index) {
+    buffers[2 * index] = start;
+    buffers[2 * index + 1] = body.position() - start;
+    reserve(8);
+    while (body.position() % 8 != 0) body.put((byte) 0);
+  }
+
+  private void writeBatch() throws IOException {
+    int bufferCount = 0;
+    for (var vector : vectors) bufferCount += vector.offsets == null ? 2 : 3;
+    var nodes = new long[2 * vectors.length];
+    var buffers = new long[2 * bufferCount];
+    body.clear();
+    int buffer = 0;
+    for (int i = 0; i < vectors.length; i++) {
+      var vector = vectors[i];
+      nodes[2 * i] = rows;
+      nodes[2 * i + 1] = vector.nullCount;
+      int start = body.position();
+      // the bitmap can be left out when nothing is NULL
+      if (vector.nullCount > 0) {
+        reserve((rows + 7) / 8);
+        body.put(vector.validity, 0, (rows + 7) / 8);
+      }
+      endBuffer(start, buffers, buffer++);
+      start = body.position();
+      switch (vector.type) {
+        case INT64 -> {
+          reserve(8 * rows);
+          body.asLongBuffer().put(vector.longs, 0, rows);
+          body.position(start + 8 * rows);
+        }
+        case FLOAT64 -> {
+          reserve(8 * rows);
+          body.asDoubleBuffer().put(vector.doubles, 0, rows);
+          body.position(start + 8 * rows);
+        }
+        case BINARY, UTF8 -> {
+          reserve(4 * (rows + 1));
+          body.asIntBuffer().put(vector.offsets, 0, rows + 1);
+          body.position(start + 4 * (rows + 1));
+          endBuffer(start, buffers, buffer++);
+          start = body.position();
+          reserve(vector.dataSize);
+          body.put(vector.data, 0, vector.dataSize);
+        }
+      }
+      endBuffer(start, buffers, buffer++);
+    }
+    var batch = new FlatBuffer.Table()
+        .addLong(0, rows)
+        .add(1, new FlatBuffer.Structs(nodes, vectors.length))
+        .add(2, new FlatBuffer.Structs(buffers, bufferCount));
+    writeMessage(RECORD_BATCH, batch, body.position());
+    out.write(body.array(), 0, body.position());
+    rows = 0;
+    for (var vector : vectors) vector.clear();
+  }
+
+  // Writes a message's metadata with its prefix: a continuation marker and
+  // the length of the metadata, which is padded so the body is 8-aligned.
+  private void writeMessage(byte header, FlatBuffer.Table table,
+                            long bodyLength)
+  throws IOException {
+    var message = new FlatBuffer.Table()
+        .addShort(0, METADATA_V5)
+        .addByte(1, header)
+        .add(2, table)
+        .addLong(3, bodyLength);
+    var encoded = FlatBuffer.encode(message);
+    int length = padded(encoded.remaining());
+    var buf = ByteBuffer.allocate(8 + length).order(ByteOrder.LITTLE_ENDIAN);
+    buf.putInt(CONTINUATION).putInt(length).put(encoded);
+    out.write(buf.array());
+  }
+
+  @Override
+  public void finish() throws IOException {
+    if (vectors == null) start();
+    if (rows > 0) writeBatch();
+    // end of stream: a continuation marker and a zero length
+    var eos = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+    eos.putInt(CONTINUATION).putInt(0);
+    out.write(eos.array());
+    out.flush();
+  }
+}
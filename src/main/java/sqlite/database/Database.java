@@ -1,105 +1,265 @@
 package sqlite.database;
 
 import sqlite.query.QueryEngine;
-import sqlite.query.Value;
+import sqlite.query.Row;
+import sqlite.query.ShardedQueryEngine;
 import sqlite.sql.SQLException;
-import sqlite.storage.BackingFile;
+import sqlite.storage.Metrics;
+import sqlite.storage.PageCache;
 import sqlite.storage.StorageEngine;
 import sqlite.storage.StorageException;
 import sqlite.storage.Table;
 
 import java.io.IOException;
-import java.nio.channels.SeekableByteChannel;
-import java.nio.file.Files;
+import java.io.PrintStream;
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
 
 public class Database implements AutoCloseable {
-  private static final System.Logger log = System.getLogger(
-      Database.class.getCanonicalName());
+  // for the rows of recent statements, once turned on by ".cache on"
+  static final long RESULT_CACHE_BYTES = 16 << 20;
 
-  private final BackingFile f;
+  private final StorageEngine storage;
+  private final QueryEngine query;
 
-  private Database(SeekableByteChannel f) {
-    this.f = new BackingFile(f);
+  private Database(StorageEngine storage) {
+    this.storage = storage;
+    this.query = new QueryEngine(storage);
+  }
+
+  public static Database open(Path path, PageCache cache) throws IOException {
+    return new Database(StorageEngine.open(path, cache));
   }
 
   private static void die(Exception e) {
+    // the logger is only looked up here to keep it out of startup
+    var log = System.getLogger(Database.class.getCanonicalName());
     log.log(System.Logger.Level.ERROR, "sqlite: fatal error", e);
     System.exit(1);
   }
 
   public void close() {
-    f.close();
+    storage.close();
   }
 
-  private void dbinfo() {
-    var storage = new StorageEngine(f);
-    storage.getInfo().forEach(
-        (field, val) -> System.out.printf("%s: %s\n", field, val));
+  private void dbinfo(PrintStream out) {
+    storage.getInfo().forEach((field, val) -> out.println(field + ": " + val));
   }
 
-  private void tables() {
-    var storage = new StorageEngine(f);
+  private void tables(PrintStream out) {
     var names = storage.getTables().stream().map(Table::name)
                        .filter(name -> !name.startsWith("sqlite_"))
                        .toList();
-    System.out.println(String.join(" ", names));
+    out.println(String.join(" ", names));
   }
 
-  private void schema() {
-    var storage = new StorageEngine(f);
+  private void schema(PrintStream out) {
     for (var object : storage.getObjects()) {
       for (var entry : object.entrySet()) {
-        System.out.printf(
-            "%s: '%s'\n".formatted(entry.getKey(), entry.getValue()));
+        out.printf("%s: '%s'\n".formatted(entry.getKey(), entry.getValue()));
       }
-      System.out.println();
+      out.println();
     }
   }
 
-  private void indices() {
-    var storage = new StorageEngine(f);
+  private void indices(PrintStream out) {
     for (var index : storage.getIndices()) {
-      System.out.printf("index: %s\n".formatted(index.name()));
-      System.out.printf("table: %s\n".formatted(index.table().name()));
-      System.out.printf(
-          "fields: %s\n".formatted(index.definition().column()));
+      out.printf("index: %s\n".formatted(index.name()));
+      out.printf("table: %s\n".formatted(index.table().name()));
+      out.printf("fields: %s\n".formatted(index.definition().column()));
     }
   }
 
-  private void query(String command)
+  private void query(String command, ResultWriter.Mode mode, PrintStream out)
   throws SQLException, IOException, StorageException {
-    var storage = new StorageEngine(f);
-    var query = new QueryEngine(storage);
-    var results = query.evaluate(command);
-    for (var row : results) {
-      var values = row.columns().stream().map(Value::display).toList();
-      System.out.println(String.join("|", values));
+    var statement = query.prepare(command);
+    var writer = ResultWriter.of(out, mode, statement.columnNames());
+    statement.execute(writer);
+    writer.finish();
+  }
+
+  public void setFetchConcurrency(int fetchConcurrency) {
+    query.setFetchConcurrency(fetchConcurrency);
+  }
+
+  public void useLeafHints(Path path) throws IOException {
+    storage.useLeafHints(path);
+  }
+
+  public void useBloomFilters(long maxBytes) {
+    storage.useBloomFilters(maxBytes);
+  }
+
+  public void setPrefetch(boolean prefetch) {
+    storage.setPrefetch(prefetch);
+  }
+
+  public void setHashIndexBudget(long bytes) {
+    query.setHashIndexBudget(bytes);
+  }
+
+  public void setResultCacheBytes(long bytes) {
+    query.setResultCacheBytes(bytes);
+  }
+
+  private static void printStats(Metrics metrics, PrintStream out) {
+    for (var counter : Metrics.Counter.values()) {
+      out.printf("%s: %d\n", counter.label(), metrics.get(counter));
+    }
+    for (var op : Metrics.Operator.values()) {
+      out.printf("%s time: %.3f ms\n", op.label(), metrics.nanos(op) / 1e6);
     }
   }
 
-  private static void run(String path, String command) {
-    try (var f = Files.newByteChannel(Path.of(path))) {
-      var db = new Database(f);
+  // The options a client sets for itself with dot-commands, which apply to
+  // its commands against any database. A server keeps one per session, so
+  // that one client's options don't change what another one sees.
+  public record Session(boolean stats, ResultWriter.Mode mode) {
+    public static final Session DEFAULT =
+        new Session(false, ResultWriter.Mode.LIST);
+
+    // The session after the command, if it's one that changes the session.
+    public Optional<Session> apply(String command) {
+      return switch (command) {
+        case ".stats on" -> Optional.of(new Session(true, mode));
+        case ".stats off" -> Optional.of(new Session(false, mode));
+        case String c when c.startsWith(".mode ") -> Optional.of(
+            new Session(stats, ResultWriter.Mode.of(c.substring(6).trim())));
+        default -> Optional.empty();
+      };
+    }
+  }
+
+  // Runs a command with the session's options. Commands that change the
+  // session are left to whoever keeps it.
+  public void execute(String command, Session session, PrintStream out)
+  throws SQLException, IOException, StorageException {
+    if (session.apply(command).isPresent()) return;
+    var metrics = Metrics.start();
+    try (metrics) {
+      storage.refresh();
       switch (command) {
-        case ".dbinfo" -> db.dbinfo();
-        case ".tables" -> db.tables();
-        case ".indices" -> db.indices();
-        case ".schema" -> db.schema();
-        default -> db.query(command);
+        case ".dbinfo" -> dbinfo(out);
+        case ".tables" -> tables(out);
+        case ".indices" -> indices(out);
+        case ".schema" -> schema(out);
+        case ".cache on" -> setResultCacheBytes(RESULT_CACHE_BYTES);
+        case ".cache off" -> setResultCacheBytes(0);
+        default -> query(command, session.mode(), out);
       }
+    }
+    if (session.stats()) printStats(metrics, out);
+  }
+
+  private static void run(String path, String command, boolean stats,
+                          ResultWriter.Mode mode, int fetchConcurrency,
+                          String leafHints, boolean bloomFilters,
+                          boolean prefetch) {
+    try (var db = open(Path.of(path), new PageCache())) {
+      db.setFetchConcurrency(fetchConcurrency);
+      if (leafHints != null) db.useLeafHints(Path.of(leafHints));
+      if (bloomFilters) {
+        db.useBloomFilters(StorageEngine.DEFAULT_BLOOM_FILTER_BYTES);
+      }
+      db.setPrefetch(prefetch);
+      db.execute(command, new Session(stats, mode), System.out);
     } catch (Exception e) {
       die(e);
     }
   }
 
+  // Runs a query over shards with the same schema as if they were one
+  // database, sharing one page cache between them.
+  private static void shards(String command, List<String> paths,
+                             boolean stats, ResultWriter.Mode mode) {
+    var cache = new PageCache(Server.CACHE_CAPACITY);
+    int parallelism = Runtime.getRuntime().availableProcessors();
+    try (var shards = ShardedQueryEngine.open(
+        paths.stream().map(Path::of).toList(), cache, parallelism)) {
+      var metrics = Metrics.start();
+      List<Row> results;
+      try (metrics) {
+        results = shards.evaluate(command);
+      }
+      var writer = ResultWriter.of(System.out, mode,
+                                   shards.columnNames(command));
+      results.forEach(writer);
+      writer.finish();
+      if (stats) printStats(metrics, System.out);
+    } catch (Exception e) {
+      die(e);
+    }
+  }
+
+  private static void serve(String socket) {
+    try (var server = new Server(new PageCache(Server.CACHE_CAPACITY))) {
+      if (socket.equals("-")) server.serve(System.in, System.out);
+      else server.listen(Path.of(socket));
+    } catch (Exception e) {
+      die(e);
+    }
+  }
+
+  private static void usage() {
+    var options = "[--stats] [--mode list|csv|json|arrow]";
+    System.err.printf("usage: sqlite3 %s [--fetch-concurrency <n>] " +
+                      "[--leaf-hints <hints-path>] [--bloom-filters] " +
+                      "[--no-prefetch] <path> <command>\n", options);
+    System.err.printf("       sqlite3 %s --shards <command> <path>...\n",
+                      options);
+    System.err.println("       sqlite3 --serve <socket-path | ->");
+    System.exit(1);
+  }
+
   public static void main(String[] args) {
-    if (args.length < 2) {
-      System.err.println("usage: sqlite3 <path> <command>");
-      System.exit(1);
+    if (args.length == 2 && args[0].equals("--serve")) {
+      serve(args[1]);
+      return;
+    }
+    boolean stats = false;
+    var mode = ResultWriter.Mode.LIST;
+    int fetchConcurrency = 1;
+    String leafHints = null;
+    boolean bloomFilters = false;
+    boolean prefetch = true;
+    int first = 0;
+    for (; first < args.length; first++) {
+      if (args[first].equals("--stats")) {
+        stats = true;
+      } else if (args[first].equals("--mode") && first + 1 < args.length) {
+        try {
+          mode = ResultWriter.Mode.of(args[++first]);
+        } catch (IllegalArgumentException e) {
+          usage();
+        }
+      } else if (args[first].equals("--fetch-concurrency") &&
+                 first + 1 < args.length) {
+        try {
+          fetchConcurrency = Integer.parseInt(args[++first]);
+        } catch (NumberFormatException e) {
+          usage();
+        }
+        if (fetchConcurrency < 1) usage();
+      } else if (args[first].equals("--leaf-hints") &&
+                 first + 1 < args.length) {
+        leafHints = args[++first];
+      } else if (args[first].equals("--bloom-filters")) {
+        bloomFilters = true;
+      } else if (args[first].equals("--no-prefetch")) {
+        prefetch = false;
+      } else {
+        break;
+      }
+    }
+    if (args.length >= first + 3 && args[first].equals("--shards")) {
+      var paths = Arrays.asList(args).subList(first + 2, args.length);
+      shards(args[first + 1], paths, stats, mode);
+      return;
     }
-    String path = args[0];
-    String command = args[1];
-    run(path, command);
+    if (args.length < first + 2) usage();
+    run(args[first], args[first + 1], stats, mode, fetchConcurrency, leafHints,
+        bloomFilters, prefetch);
   }
 }
@@ -0,0 +1,193 @@
+package sqlite.database;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Encodes the few kinds of FlatBuffers objects that Arrow's IPC metadata
+// needs: tables of scalars and offsets, strings, vectors of tables, and
+// vectors of structs of longs. See "FlatBuffers Binary Format" in the
+// FlatBuffers documentation.
+//
+// Objects are laid out front to back, each table followed by the objects it
+// refers to, since offsets to objects must point forward. Every vtable is
+// written just before its table; nothing is shared.
+final class FlatBuffer {
+  sealed interface Node permits Table, Str, Tables, Structs {}
+
+  private record Scalar(int size, long value) {}
+
+  // A table's fields, indexed by their slot in the schema.
+  static final class Table implements Node {
+    private final List<Object> fields = new ArrayList<>();
+
+    private Table set(int slot, Object value) {
+      while (fields.size() <= slot) fields.add(null);
+      fields.set(slot, value);
+      return this;
+    }
+
+    Table addByte(int slot, int value) {
+      return set(slot, new Scalar(1, value));
+    }
+
+    Table addShort(int slot, int value) {
+      return set(slot, new Scalar(2, value));
+    }
+
+    Table addInt(int slot, int value) {
+      return set(slot, new Scalar(4, value));
+    }
+
+    Table addLong(int slot, long value) {
+      return set(slot, new Scalar(8, value));
+    }
+
+    Table addBool(int slot, boolean value) {
+      return addByte(slot, value ? 1 : 0);
+    }
+
+    Table add(int slot, Node node) {return set(slot, node);}
+  }
+
+  record Str(String s) implements Node {}
+
+  record Tables(List<Table> tables) implements Node {}
+
+  // A vector of count structs whose fields are all longs.
+  record Structs(long[] longs, int count) implements Node {}
+
+  private ByteBuffer buf =
+      ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+
+  private FlatBuffer() {}
+
+  // Returns the encoded root table.
+  static ByteBuffer encode(Table root) {
+    var fb = new FlatBuffer();
+    fb.reserve(4);
+    fb.buf.position(4);
+    int table = fb.table(root);
+    fb.buf.putInt(0, table);
+    return fb.buf.flip();
+  }
+
+  private void reserve(int n) {
+    if (buf.remaining() >= n) return;
+    int size = Math.max(buf.capacity() * 2, buf.position() + n);
+    var grown = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    buf = grown.put(buf.flip());
+  }
+
+  // Pads with zeros to a multiple of n from the start of the buffer, which
+  // readers require of every scalar's position.
+  private void align(int n) {
+    while (buf.position() % n != 0) {
+      reserve(1);
+      buf.put((byte) 0);
+    }
+  }
+
+  private static int size(Object field) {
+    return field instanceof Scalar(var size, var ignored) ? size : 4;
+  }
+
+  private int table(Table table) {
+    var fields = table.fields;
+    var offsets = new int[fields.size()];
+    // place the widest fields first, right after the vtable offset, so that
+    // none needs padding
+    boolean hasLongs = false;
+    int inline = 4;
+    for (int size = 8; size >= 1; size /= 2) {
+      for (int slot = 0; slot < fields.size(); slot++) {
+        var field = fields.get(slot);
+        if (field == null || size(field) != size) continue;
+        hasLongs |= size == 8;
+        offsets[slot] = inline;
+        inline += size;
+      }
+    }
+    inline = (inline + 3) / 4 * 4;
+
+    align(2);
+    int vtable = buf.position();
+    reserve(4 + 2 * fields.size());
+    buf.putShort((short) (4 + 2 * fields.size())).putShort((short) inline);
+    for (int offset : offsets) buf.putShort((short) offset);
+    align(4);
+    // longs start 4 bytes into the table, so it starts 4 bytes past a
+    // multiple of 8
+    if (hasLongs && buf.position() % 8 == 0) {
+      reserve(4);
+      buf.putInt(0);
+    }
+    int start = buf.position();
+    reserve(inline);
+    for (int i = 0; i < inline; i++) buf.put((byte) 0);
+    // the vtable is found by subtracting this from the table's position
+    buf.putInt(start, start - vtable);
+    for (int slot = 0; slot < fields.size(); slot++) {
+      if (fields.get(slot) instanceof Scalar(var size, var value)) {
+        int at = start + offsets[slot];
+        switch (size) {
+          case 1 -> buf.put(at, (byte) value);
+          case 2 -> buf.putShort(at, (short) value);
+          case 4 -> buf.putInt(at, (int) value);
+          default -> buf.putLong(at, value);
+        }
+      }
+    }
+    for (int slot = 0; slot < fields.size(); slot++) {
+      if (fields.get(slot) instanceof Node node) {
+        int at = start + offsets[slot];
+        // writing the node may grow buf, so take the offset before buf
+        int child = node(node);
+        buf.putInt(at, child - at);
+      }
+    }
+    return start;
+  }
+
+  private int node(Node node) {
+    return switch (node) {
+      case Table table -> table(table);
+      case Str(var s) -> {
+        var bytes = s.getBytes(StandardCharsets.UTF_8);
+        align(4);
+        int start = buf.position();
+        reserve(4 + bytes.length + 1);
+        buf.putInt(bytes.length).put(bytes).put((byte) 0);
+        yield start;
+      }
+      case Tables(var tables) -> {
+        align(4);
+        int start = buf.position();
+        reserve(4 + 4 * tables.size());
+        buf.putInt(tables.size());
+        buf.position(start + 4 + 4 * tables.size());
+        for (int i = 0; i < tables.size(); i++) {
+          int at = start + 4 + 4 * i;
+          int child = table(tables.get(i));
+          buf.putInt(at, child - at);
+        }
+        yield start;
+      }
+      case Structs(var longs, var count) -> {
+        // the elements, rather than the length before them, are 8-aligned
+        align(4);
+        if (buf.position() % 8 == 0) {
+          reserve(4);
+          buf.putInt(0);
+        }
+        int start = buf.position();
+        reserve(4 + 8 * longs.length);
+        buf.putInt(count);
+        for (long x : longs) buf.putLong(x);
+        yield start;
+      }
+    };
+  }
+}
@@ -0,0 +1,41 @@
+package sqlite.database;
+
+import sqlite.query.Row;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Writes result rows to a stream as they're produced.
+public interface ResultWriter extends Consumer<Row> {
+  enum Mode {
+    // Values separated by "|", with NULL shown as "NULL" and blobs elided.
+    LIST,
+    // RFC 4180 fields, quoted when needed, with NULL as an empty field and
+    // blobs in hex.
+    CSV,
+    // A JSON array with an object per row keyed by column name, with blobs
+    // as hex strings.
+    JSON,
+    // An Arrow IPC stream of record batches.
+    ARROW;
+
+    public static Mode of(String name) {
+      for (var mode : values()) {
+        if (mode.name().equalsIgnoreCase(name)) return mode;
+      }
+      throw new IllegalArgumentException("unknown mode: %s".formatted(name));
+    }
+  }
+
+  static ResultWriter of(OutputStream out, Mode mode, List<String> columns) {
+    return mode == Mode.ARROW
+        ? new ArrowWriter(out, columns)
+        : new RowWriter(out, mode, columns);
+  }
+
+  // Ends the results and writes out everything buffered. The stream is left
+  // open.
+  void finish() throws IOException;
+}
@@ -0,0 +1,318 @@
+package sqlite.database;
+
+import sqlite.query.Row;
+import sqlite.query.Value;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+// Writes result rows as text in one of the output modes of the sqlite3
+// shell.
+//
+// Values are encoded straight into a large buffer, integers digit by digit
+// and text as UTF-8, rather than building a string for each value and row,
+// and the buffer goes to the stream only when it fills up or the results
+// are finished.
+public final class RowWriter implements ResultWriter {
+  static final int BUFFER_SIZE = 64 << 10;
+  private static final byte[] HEX = "0123456789abcdef".getBytes();
+  private static final byte[] NULL = "NULL".getBytes();
+  private static final byte[] JSON_NULL = "null".getBytes();
+  private static final byte[] BLOB = "[blob]".getBytes();
+  // the longest long, -9223372036854775808, is 20 bytes
+  private static final int MAX_LONG_SIZE = 20;
+
+  private final OutputStream out;
+  private final Mode mode;
+  private final List<String> columns;
+  private final byte[] buf = new byte[BUFFER_SIZE];
+  private int pos = 0;
+  private long rows = 0;
+
+  public RowWriter(OutputStream out, Mode mode, List<String> columns) {
+    if (mode == Mode.ARROW) throw new IllegalArgumentException("not text");
+    this.out = out;
+    this.mode = mode;
+    this.columns = List.copyOf(columns);
+  }
+
+  @Override
+  public void accept(Row row) {
+    var values = row.columns();
+    switch (mode) {
+      case LIST -> {
+        for (int i = 0; i < values.size(); i++) {
+          if (i > 0) put('|');
+          putList(values.get(i));
+        }
+        put('\n');
+      }
+      case CSV -> {
+        for (int i = 0; i < values.size(); i++) {
+          if (i > 0) put(',');
+          putCsv(values.get(i));
+        }
+        put('\r');
+        put('\n');
+      }
+      case JSON -> {
+        if (rows > 0) {
+          put(',');
+          put('\n');
+        } else {
+          put('[');
+        }
+        put('{');
+        for (int i = 0; i < values.size(); i++) {
+          if (i > 0) put(',');
+          putJsonString(columns.get(i));
+          put(':');
+          putJson(values.get(i));
+        }
+        put('}');
+      }
+    }
+    rows++;
+  }
+
+  @Override
+  public void finish() throws IOException {
+    if (mode == Mode.JSON && rows > 0) {
+      put(']');
+      put('\n');
+    }
+    drain();
+    out.flush();
+  }
+
+  private void drain() throws IOException {
+    out.write(buf, 0, pos);
+    pos = 0;
+  }
+
+  // Makes room for n more bytes, n <= BUFFER_SIZE.
+  private void reserve(int n) {
+    if (pos + n <= buf.length) return;
+    try {
+      drain();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void put(char c) {
+    reserve(1);
+    buf[pos++] = (byte) c;
+  }
+
+  private void put(byte[] bytes) {
+    for (int i = 0; i < bytes.length; ) {
+      reserve(1);
+      int n = Math.min(bytes.length - i, buf.length - pos);
+      System.arraycopy(bytes, i, buf, pos, n);
+      pos += n;
+      i += n;
+    }
+  }
+
+  private void putAscii(String s) {
+    for (int i = 0; i < s.length(); i++) put(s.charAt(i));
+  }
+
+  private void putLong(long x) {
+    reserve(MAX_LONG_SIZE);
+    if (x == Long.MIN_VALUE) {
+      putAscii("-9223372036854775808");
+      return;
+    }
+    if (x < 0) {
+      buf[pos++] = '-';
+      x = -x;
+    }
+    int end = pos + digits(x);
+    for (int i = end - 1; i >= pos; i--) {
+      buf[i] = (byte) ('0' + x % 10);
+      x /= 10;
+    }
+    pos = end;
+  }
+
+  private static int digits(long x) {
+    int n = 1;
+    for (long limit = 10; n < 19 && x >= limit; limit *= 10) n++;
+    return n;
+  }
+
+  // Writes a REAL as Value.display would. A double that is the nearest one
+  // to a decimal with at most 4 places and 15 digits reads back as that
+  // decimal when rounded to 15 digits, so prices, measurements and whole
+  // numbers are written from their digits without that rounding.
+  private void putReal(double x) {
+    long scale = 1;
+    for (int places = 0; places <= 4; places++, scale *= 10) {
+      double scaled = x * scale;
+      if (Math.abs(scaled) >= 1e15) break;
+      long n = Math.round(scaled);
+      if (n != 0 && n / (double) scale == x) {
+        putDecimal(n, places);
+        return;
+      }
+    }
+    putAscii(new Value.RealValue(x).display());
+  }
+
+  // Writes n / 10^places with at least one digit on each side of the point.
+  private void putDecimal(long n, int places) {
+    if (places == 0) {
+      putLong(n);
+      put('.');
+      put('0');
+      return;
+    }
+    reserve(MAX_LONG_SIZE + 3);
+    if (n < 0) {
+      buf[pos++] = '-';
+      n = -n;
+    }
+    int end = pos + Math.max(digits(n), places + 1) + 1;
+    for (int i = end - 1, digit = 0; i >= pos; digit++) {
+      if (digit == places) buf[i--] = '.';
+      buf[i--] = (byte) ('0' + n % 10);
+      n /= 10;
+    }
+    pos = end;
+  }
+
+  private void putHex(byte[] blob) {
+    for (byte b : blob) {
+      reserve(2);
+      buf[pos++] = HEX[(b >> 4) & 0xf];
+      buf[pos++] = HEX[b & 0xf];
+    }
+  }
+
+  // Encodes the char at i, and the one after it if they're a surrogate
+  // pair, as UTF-8. Returns the index of the next char. A lone surrogate
+  // becomes "?" as it would with String.getBytes.
+  private int putChar(String s, int i) {
+    char c = s.charAt(i);
+    reserve(4);
+    if (c < 0x80) {
+      buf[pos++] = (byte) c;
+    } else if (c < 0x800) {
+      buf[pos++] = (byte) (0xc0 | (c >> 6));
+      buf[pos++] = (byte) (0x80 | (c & 0x3f));
+    } else if (!Character.isSurrogate(c)) {
+      buf[pos++] = (byte) (0xe0 | (c >> 12));
+      buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+      buf[pos++] = (byte) (0x80 | (c & 0x3f));
+    } else if (Character.isHighSurrogate(c) && i + 1 < s.length() &&
+               Character.isLowSurrogate(s.charAt(i + 1))) {
+      int cp = Character.toCodePoint(c, s.charAt(i + 1));
+      buf[pos++] = (byte) (0xf0 | (cp >> 18));
+      buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+      buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+      buf[pos++] = (byte) (0x80 | (cp & 0x3f));
+      return i + 2;
+    } else {
+      buf[pos++] = '?';
+    }
+    return i + 1;
+  }
+
+  private void putText(String s) {
+    for (int i = 0; i < s.length(); ) i = putChar(s, i);
+  }
+
+  private static boolean needsQuotes(String s) {
+    for (int i = 0; i < s.length(); i++) {
+      switch (s.charAt(i)) {
+        case ',', '"', '\r', '\n' -> {
+          return true;
+        }
+        default -> {}
+      }
+    }
+    return false;
+  }
+
+  private void putCsvString(String s) {
+    if (!needsQuotes(s)) {
+      putText(s);
+      return;
+    }
+    put('"');
+    for (int i = 0; i < s.length(); ) {
+      if (s.charAt(i) == '"') put('"');
+      i = putChar(s, i);
+    }
+    put('"');
+  }
+
+  private void putJsonString(String s) {
+    put('"');
+    for (int i = 0; i < s.length(); ) {
+      char c = s.charAt(i);
+      if (c >= 0x80 || (c >= 0x20 && c != '"' && c != '\\')) {
+        i = putChar(s, i);
+        continue;
+      }
+      switch (c) {
+        case '"' -> putAscii("\\\"");
+        case '\\' -> putAscii("\\\\");
+        case '\n' -> putAscii("\\n");
+        case '\r' -> putAscii("\\r");
+        case '\t' -> putAscii("\\t");
+        case '\b' -> putAscii("\\b");
+        case '\f' -> putAscii("\\f");
+        default -> {
+          putAscii("\\u00");
+          put((char) HEX[c >> 4]);
+          put((char) HEX[c & 0xf]);
+        }
+      }
+      i++;
+    }
+    put('"');
+  }
+
+  private void putList(Value value) {
+    switch (value) {
+      case Value.IntValue(var x) -> putLong(x);
+      case Value.RealValue(var x) -> putReal(x);
+      case Value.StringValue(var x) -> putText(x);
+      case Value.NullValue() -> put(NULL);
+      case Value.BlobValue(var ignored) -> put(BLOB);
+    }
+  }
+
+  private void putCsv(Value value) {
+    switch (value) {
+      case Value.IntValue(var x) -> putLong(x);
+      case Value.RealValue(var x) -> putReal(x);
+      case Value.StringValue(var x) -> putCsvString(x);
+      case Value.NullValue() -> {}
+      case Value.BlobValue(var x) -> putHex(x);
+    }
+  }
+
+  private void putJson(Value value) {
+    switch (value) {
+      case Value.IntValue(var x) -> putLong(x);
+      // JSON has no infinity, so write a number too large for a double as
+      // SQLite's JSON functions do
+      case Value.RealValue(var x) when Double.isInfinite(x) ->
+          putAscii(x > 0 ? "9.0e+999" : "-9.0e+999");
+      case Value.RealValue(var x) -> putReal(x);
+      case Value.StringValue(var x) -> putJsonString(x);
+      case Value.NullValue() -> put(JSON_NULL);
+      case Value.BlobValue(var x) -> {
+        put('"');
+        putHex(x);
+        put('"');
+      }
+    }
+  }
+}
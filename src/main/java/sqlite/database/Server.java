@@ -0,0 +1,191 @@
+package sqlite.database;
+
+import sqlite.storage.Metrics;
+import sqlite.storage.PageCache;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+// Serves commands against databases that stay open for the lifetime of the
+// server, so that the page cache, schema catalog and statement cache are
+// shared by all requests.
+//
+// Each request is a single line of the form "<path>\t<command>". Each
+// response is either "ok <n>" followed by n lines of output, or
+// "error <message>". Requests are executed concurrently on virtual threads,
+// but responses are written in the order the requests were received.
+public class Server implements AutoCloseable {
+  static final long CACHE_CAPACITY = 64 << 20;
+  // for each database's hash indices over unindexed columns
+  static final long HASH_INDEX_BUDGET = 64 << 20;
+  private static final int MAX_PIPELINED_REQUESTS = 64;
+
+  private final PageCache cache;
+  private final Map<String, Database> databases = new ConcurrentHashMap<>();
+  private final ExecutorService executor =
+      Executors.newVirtualThreadPerTaskExecutor();
+
+  public Server(PageCache cache) throws JMException {
+    this.cache = cache;
+    Metrics.register();
+  }
+
+  private Database database(String path) {
+    return databases.computeIfAbsent(path, p -> {
+      try {
+        var db = Database.open(Path.of(p), cache);
+        db.setHashIndexBudget(HASH_INDEX_BUDGET);
+        return db;
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+  }
+
+  private static String error(Exception e) {
+    var message = e.getMessage() != null ? e.getMessage() : e.toString();
+    return "error %s\n".formatted(message.replace('\n', ' '));
+  }
+
+  private String handle(String request, Database.Session session) {
+    int tab = request.indexOf('\t');
+    if (tab < 0) return "error malformed request: want <path>\\t<command>\n";
+    var command = request.substring(tab + 1);
+    var out = new ByteArrayOutputStream();
+    try (var printer = new PrintStream(out, false, UTF_8)) {
+      var db = database(request.substring(0, tab));
+      db.execute(command, session, printer);
+    } catch (Exception e) {
+      return error(e);
+    }
+    var body = out.toString(UTF_8);
+    long lines = body.chars().filter(c -> c == '\n').count();
+    return "ok %d\n%s".formatted(lines, body);
+  }
+
+  private static Void respond(BlockingQueue<Future<String>> responses,
+                              OutputStream out)
+  throws IOException, InterruptedException, ExecutionException {
+    var writer = new BufferedWriter(new OutputStreamWriter(out, UTF_8));
+    String response;
+    while ((response = responses.take().get()) != null) {
+      writer.write(response);
+      if (responses.isEmpty()) writer.flush();
+    }
+    writer.flush();
+    return null;
+  }
+
+  // Queues a response for the writer. If the writer has failed, nothing more
+  // can be sent, so its failure is thrown rather than waiting for room.
+  private static void enqueue(BlockingQueue<Future<String>> responses,
+                              Future<Void> writer, Future<String> response)
+  throws InterruptedException, ExecutionException {
+    while (!responses.offer(response, 100, TimeUnit.MILLISECONDS)) {
+      if (writer.isDone()) {
+        writer.get();
+        return;
+      }
+    }
+  }
+
+  // Serves a single session until the input is exhausted. Commands that
+  // change the session's options are applied here, in order, so that each
+  // request runs with the options set by the ones before it even though
+  // requests run concurrently.
+  public void serve(InputStream in, OutputStream out)
+  throws IOException, InterruptedException, ExecutionException {
+    BlockingQueue<Future<String>> responses =
+        new ArrayBlockingQueue<>(MAX_PIPELINED_REQUESTS);
+    var writer = executor.submit(() -> respond(responses, out));
+    var reader = new BufferedReader(new InputStreamReader(in, UTF_8));
+    var session = Database.Session.DEFAULT;
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.isBlank()) continue;
+        int tab = line.indexOf('\t');
+        Optional<Database.Session> next;
+        try {
+          next = tab >= 0
+              ? session.apply(line.substring(tab + 1))
+              : Optional.empty();
+        } catch (IllegalArgumentException e) {
+          enqueue(responses, writer,
+                  CompletableFuture.completedFuture(error(e)));
+          continue;
+        }
+        if (next.isPresent()) {
+          // binary output can't be framed as lines
+          if (next.get().mode() == ResultWriter.Mode.ARROW) {
+            enqueue(responses, writer, CompletableFuture.completedFuture(
+                "error arrow output is not supported by the server\n"));
+          } else {
+            session = next.get();
+            enqueue(responses, writer,
+                    CompletableFuture.completedFuture("ok 0\n"));
+          }
+          continue;
+        }
+        var request = line;
+        var options = session;
+        enqueue(responses, writer,
+                executor.submit(() -> handle(request, options)));
+      }
+    } finally {
+      enqueue(responses, writer, CompletableFuture.completedFuture(null));
+    }
+    writer.get();
+  }
+
+  // Accepts sessions on a unix domain socket, each on its own virtual thread.
+  public void listen(Path socket) throws IOException {
+    Files.deleteIfExists(socket);
+    try (var server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+      server.bind(UnixDomainSocketAddress.of(socket));
+      while (server.isOpen()) {
+        var client = server.accept();
+        executor.submit(() -> {
+          try (client) {
+            serve(Channels.newInputStream(client),
+                  Channels.newOutputStream(client));
+          }
+          return null;
+        });
+      }
+    }
+  }
+
+  public void close() {
+    executor.close();
+    databases.values().forEach(Database::close);
+  }
+}
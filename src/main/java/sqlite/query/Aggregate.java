@@ -0,0 +1,191 @@
+package sqlite.query;
+
+import sqlite.sql.SQLException;
+import sqlite.storage.Batch;
+
+// The running state of one result column of an aggregate query. States built
+// over different sets of rows, such as the shards of a database, can be
+// merged into the state for all of them.
+sealed interface Aggregate {
+  void add(Value value);
+
+  default void add(Value value, int times) {
+    for (int i = 0; i < times; i++) add(value);
+  }
+
+  // Adds the selected values of a batch's column.
+  default void add(Batch.Vector column, Selection selection) {
+    for (int i = 0; i < selection.size(); i++) {
+      add(column.value(selection.row(i)));
+    }
+  }
+
+  void merge(Aggregate other);
+
+  Value result() throws SQLException;
+
+  static Aggregate of(String fn, Collation collation) throws SQLException {
+    return switch (fn) {
+      case "count" -> new Count();
+      case "sum", "total", "avg" -> new Summary(fn);
+      case "min" -> new Extreme(-1, collation);
+      case "max" -> new Extreme(1, collation);
+      default -> throw new SQLException("no such function: %s".formatted(fn));
+    };
+  }
+
+  // The number of values that aren't NULL.
+  final class Count implements Aggregate {
+    private long count = 0;
+
+    @Override
+    public void add(Value value) {
+      if (!(value instanceof Value.NullValue)) count++;
+    }
+
+    @Override
+    public void add(Value value, int times) {
+      if (!(value instanceof Value.NullValue)) count += times;
+    }
+
+    @Override
+    public void add(Batch.Vector column, Selection selection) {
+      for (int i = 0; i < selection.size(); i++) {
+        if (column.type(selection.row(i)) != Batch.NULL) count++;
+      }
+    }
+
+    @Override
+    public void merge(Aggregate other) {
+      count += ((Count) other).count;
+    }
+
+    @Override
+    public Value result() {
+      return new Value.IntValue(count);
+    }
+  }
+
+  final class Summary implements Aggregate {
+    private final String fn;
+    private final Sum sum = new Sum();
+
+    Summary(String fn) {
+      this.fn = fn;
+    }
+
+    @Override
+    public void add(Value value) {
+      sum.add(value);
+    }
+
+    @Override
+    public void add(Batch.Vector column, Selection selection) {
+      for (int i = 0; i < selection.size(); i++) {
+        int row = selection.row(i);
+        switch (column.type(row)) {
+          case Batch.NULL -> {}
+          case Batch.INTEGER -> sum.add(column.getLong(row));
+          case Batch.REAL -> sum.add(column.getDouble(row));
+          default -> sum.add(column.value(row));
+        }
+      }
+    }
+
+    @Override
+    public void merge(Aggregate other) {
+      sum.merge(((Summary) other).sum);
+    }
+
+    @Override
+    public Value result() throws SQLException {
+      return switch (fn) {
+        case "sum" -> sum.sum();
+        case "total" -> sum.total();
+        default -> sum.avg();
+      };
+    }
+  }
+
+  // min() for sign -1 and max() for sign 1, ignoring NULLs.
+  final class Extreme implements Aggregate {
+    private final int sign;
+    private final Collation collation;
+    private Value result = new Value.NullValue();
+
+    Extreme(int sign, Collation collation) {
+      this.sign = sign;
+      this.collation = collation;
+    }
+
+    @Override
+    public void add(Value value) {
+      if (value instanceof Value.NullValue) return;
+      if (result instanceof Value.NullValue ||
+          Value.compare(value, result, collation) * sign > 0) {
+        result = value;
+      }
+    }
+
+    // Numbers are compared as primitives, and only a new extreme is boxed.
+    @Override
+    public void add(Batch.Vector column, Selection selection) {
+      for (int i = 0; i < selection.size(); i++) {
+        int row = selection.row(i);
+        byte type = column.type(row);
+        if (type == Batch.NULL) continue;
+        if (type == Batch.INTEGER && result instanceof Value.IntValue(var r)) {
+          long x = column.getLong(row);
+          if (Long.compare(x, r) * sign > 0) result = new Value.IntValue(x);
+        } else if (type == Batch.REAL &&
+                   result instanceof Value.RealValue(var r)) {
+          double x = column.getDouble(row);
+          // as in Value.compare, -0.0 == 0.0
+          if ((x < r ? -1 : x > r ? 1 : 0) * sign > 0) {
+            result = new Value.RealValue(x);
+          }
+        } else {
+          add(column.value(row));
+        }
+      }
+    }
+
+    @Override
+    public void merge(Aggregate other) {
+      add(((Extreme) other).result);
+    }
+
+    @Override
+    public Value result() {
+      return result;
+    }
+  }
+
+  // A column that isn't aggregated takes its value from the first row.
+  final class Bare implements Aggregate {
+    private Value value;
+
+    @Override
+    public void add(Value value) {
+      if (this.value == null) this.value = value;
+    }
+
+    @Override
+    public void add(Batch.Vector column, Selection selection) {
+      if (value == null && selection.size() > 0) {
+        value = column.value(selection.row(0));
+      }
+    }
+
+    @Override
+    public void merge(Aggregate other) {
+      var first = ((Bare) other).value;
+      if (first != null) add(first);
+    }
+
+    @Override
+    public Value result() {
+      return value != null ? value : new Value.NullValue();
+    }
+  }
+}
@@ -0,0 +1,59 @@
+package sqlite.query;
+
+import sqlite.sql.SQLException;
+
+// The built-in collating functions for comparing TEXT, see "Collating
+// Sequences" in the SQLite documentation.
+public enum Collation {
+  // Compares the encoded bytes, which for UTF-8 is code point order.
+  BINARY,
+  // Like BINARY, but with ASCII letters folded to lower case.
+  NOCASE,
+  // Like BINARY, but ignoring trailing spaces.
+  RTRIM;
+
+  public static Collation of(String name) {
+    for (var collation : values()) {
+      if (collation.name().equalsIgnoreCase(name)) return collation;
+    }
+    throw new SQLException("no such collation sequence: %s".formatted(name));
+  }
+
+  public int compare(String a, String b) {
+    return switch (this) {
+      case BINARY -> compare(a, a.length(), b, b.length(), false);
+      case NOCASE -> compare(a, a.length(), b, b.length(), true);
+      case RTRIM -> compare(a, trimmedLength(a), b, trimmedLength(b), false);
+    };
+  }
+
+  private static int trimmedLength(String s) {
+    int n = s.length();
+    while (n > 0 && s.charAt(n - 1) == ' ') n--;
+    return n;
+  }
+
+  private static char fold(char c) {
+    return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+  }
+
+  // Compares code points, where String.compareTo compares chars, so that the
+  // order matches the order of the UTF-8 encoded bytes.
+  private static int compare(String a, int aLength, String b, int bLength,
+                             boolean noCase) {
+    int n = Math.min(aLength, bLength);
+    for (int i = 0; i < n; i++) {
+      char x = a.charAt(i), y = b.charAt(i);
+      if (noCase) {
+        x = fold(x);
+        y = fold(y);
+      }
+      if (x == y) continue;
+      // a surrogate pair encodes a code point above every other char
+      boolean xs = Character.isSurrogate(x), ys = Character.isSurrogate(y);
+      if (xs != ys) return xs ? 1 : -1;
+      return x < y ? -1 : 1;
+    }
+    return Integer.compare(aLength, bLength);
+  }
+}
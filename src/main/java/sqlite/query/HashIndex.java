@@ -0,0 +1,150 @@
+package sqlite.query;
+
+import sqlite.storage.Batch;
+import sqlite.storage.Table;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.RandomAccess;
+
+// An in-memory index from the values of a column that has no index in the
+// file to the rowids of the rows with them, built by scanning the table.
+// Values that compare equal under the column's collation, such as 1 and 1.0
+// or 'a' and 'A' under NOCASE, share a key.
+final class HashIndex {
+  // roughly what a map entry, its key and its list cost besides the rowids
+  private static final long ENTRY_BYTES = 96;
+
+  // The rowids of the rows with one value, in rowid order.
+  static final class RowIds extends AbstractList<Long> implements RandomAccess {
+    static final RowIds EMPTY = new RowIds(0);
+
+    private long[] ids;
+    private int size = 0;
+
+    private RowIds(int capacity) {
+      this.ids = new long[capacity];
+    }
+
+    private void add(long rowId) {
+      if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+      ids[size++] = rowId;
+    }
+
+    @Override
+    public Long get(int i) {
+      return ids[i];
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    PrimitiveIterator.OfLong longs() {
+      return Arrays.stream(ids, 0, size).iterator();
+    }
+  }
+
+  // Thrown to stop the scan once the index is over its budget.
+  private static final class TooBig extends RuntimeException {
+    TooBig() {
+      super(null, null, false, false);
+    }
+  }
+
+  private final Collation collation;
+  private final Map<Object, RowIds> rows;
+  private final long sizeInBytes;
+
+  private HashIndex(Collation collation, Map<Object, RowIds> rows,
+                    long sizeInBytes) {
+    this.collation = collation;
+    this.rows = rows;
+    this.sizeInBytes = sizeInBytes;
+  }
+
+  // Indexes the column, or returns null if the index would take more than
+  // maxBytes.
+  static HashIndex build(Table table, String column, long maxBytes) {
+    var collation = table.collation(column);
+    var rows = new HashMap<Object, RowIds>();
+    long[] bytes = {0};
+    try {
+      table.scan(List.of(column), batch -> {
+        var values = batch.column(0);
+        for (int row = 0; row < batch.size(); row++) {
+          if (values.type(row) == Batch.NULL) continue;
+          var key = key(values.value(row), collation);
+          var ids = rows.get(key);
+          if (ids == null) {
+            rows.put(key, ids = new RowIds(1));
+            bytes[0] += ENTRY_BYTES + size(key) + 8;
+          } else if (ids.size == ids.ids.length) {
+            bytes[0] += 8L * ids.size;
+          }
+          ids.add(batch.rowId(row));
+          if (bytes[0] > maxBytes) throw new TooBig();
+        }
+      });
+    } catch (TooBig e) {
+      return null;
+    }
+    return new HashIndex(collation, rows, bytes[0]);
+  }
+
+  long sizeInBytes() {return sizeInBytes;}
+
+  // The rowids of the rows whose column equals value, which isn't NULL.
+  RowIds get(Value value) {
+    return rows.getOrDefault(key(value, collation), RowIds.EMPTY);
+  }
+
+  private static long size(Object key) {
+    return switch (key) {
+      case String s -> 2L * s.length();
+      case ByteBuffer b -> b.capacity();
+      default -> 0;
+    };
+  }
+
+  // An object that's equal to the key of every value equal to this one.
+  // Values of different storage classes are never equal, and map to keys
+  // of different classes.
+  private static Object key(Value value, Collation collation) {
+    return switch (value) {
+      case Value.IntValue(var x) -> x;
+      // a whole REAL equals the INTEGER with its value, and -0.0 == 0.0
+      case Value.RealValue(var x) ->
+          x == Math.rint(x) && x >= -0x1p63 && x < 0x1p63 ? (Object) (long) x
+                                                          : (Object) x;
+      case Value.StringValue(var s) -> text(s, collation);
+      case Value.BlobValue(var blob) -> ByteBuffer.wrap(blob);
+      case Value.NullValue ignored -> throw new AssertionError("NULL");
+    };
+  }
+
+  // The chars of s that the collation compares.
+  private static String text(String s, Collation collation) {
+    return switch (collation) {
+      case BINARY -> s;
+      case NOCASE -> {
+        var chars = s.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+          if (chars[i] >= 'A' && chars[i] <= 'Z') chars[i] += 'a' - 'A';
+        }
+        yield new String(chars);
+      }
+      case RTRIM -> {
+        int n = s.length();
+        while (n > 0 && s.charAt(n - 1) == ' ') n--;
+        yield s.substring(0, n);
+      }
+    };
+  }
+}
@@ -0,0 +1,111 @@
+package sqlite.query;
+
+import sqlite.storage.Metrics;
+import sqlite.storage.StorageEngine;
+import sqlite.storage.Table;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Builds hash indices, in the background, over the columns without an index
+// that equality filters keep scanning, and keeps them within a memory
+// budget until the data changes.
+final class HashIndexes {
+  // the scans of a column after which it's indexed
+  static final int BUILD_THRESHOLD = 3;
+
+  private record Column(Table table, String name) {}
+
+  private static final class State {
+    int scans = 0;
+    HashIndex index;
+    Thread builder;
+    // the index didn't fit, or failed to build
+    boolean abandoned = false;
+  }
+
+  private final StorageEngine db;
+  private final Map<Column, State> states = new HashMap<>();
+  private long budget = 0;
+  private long used = 0;
+  // the data generation that the states are for
+  private long generation;
+
+  HashIndexes(StorageEngine db) {
+    this.db = db;
+    this.generation = db.dataGeneration();
+  }
+
+  // Setting the budget drops the indices built so far. 0 turns them off.
+  synchronized void setBudget(long budget) {
+    if (budget < 0) {
+      throw new IllegalArgumentException(
+          "bad hash index budget: %d".formatted(budget));
+    }
+    this.budget = budget;
+    drop();
+  }
+
+  private void drop() {
+    states.clear();
+    used = 0;
+  }
+
+  // The column's index if one has been built for the current data, or null
+  // after counting a scan of it, which may start building one.
+  synchronized HashIndex get(Table table, String name) {
+    if (budget == 0) return null;
+    long current = db.dataGeneration();
+    if (current != generation) {
+      generation = current;
+      drop();
+    }
+    var column = new Column(table, name);
+    var state = states.computeIfAbsent(column, c -> new State());
+    if (state.index != null || state.builder != null || state.abandoned) {
+      return state.index;
+    }
+    if (++state.scans >= BUILD_THRESHOLD) {
+      long maxBytes = budget - used;
+      long built = generation;
+      state.builder = Thread.ofVirtual().name("hash-index-" + name).start(
+          () -> build(column, state, built, maxBytes));
+    }
+    return null;
+  }
+
+  private void build(Column column, State state, long built, long maxBytes) {
+    HashIndex index = null;
+    try {
+      index = HashIndex.build(column.table(), column.name(), maxBytes);
+    } catch (RuntimeException e) {
+      // the statements will keep scanning
+    }
+    synchronized (this) {
+      state.builder = null;
+      // the data changed while it was being read
+      if (built != generation || states.get(column) != state) return;
+      if (index == null || used + index.sizeInBytes() > budget) {
+        state.abandoned = true;
+        return;
+      }
+      state.index = index;
+      used += index.sizeInBytes();
+    }
+    Metrics.current().count(Metrics.Counter.HASH_INDEX_BUILDS);
+  }
+
+  // Waits for the indices being built.
+  void await() throws InterruptedException {
+    while (true) {
+      Thread builder = null;
+      synchronized (this) {
+        for (var state : states.values()) {
+          if (state.builder != null) builder = state.builder;
+        }
+      }
+      if (builder == null) return;
+      builder.join();
+    }
+  }
+}
@@ -0,0 +1,82 @@
+package sqlite.query;
+
+import sqlite.sql.AST;
+import sqlite.sql.SQLException;
+import sqlite.storage.StorageException;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+// A statement that has been parsed and planned once and can be executed
+// repeatedly with different parameter bindings. Unbound parameters are NULL.
+public class PreparedStatement {
+  private final QueryEngine engine;
+  private final QueryEngine.Plan plan;
+  private final Value[] bindings;
+
+  PreparedStatement(QueryEngine engine, QueryEngine.Plan plan) {
+    this.engine = engine;
+    this.plan = plan;
+    this.bindings = new Value[plan.parameters().size()];
+    clearBindings();
+  }
+
+  public int parameterCount() {return bindings.length;}
+
+  // The name of each result column as SQLite would report it, which is the
+  // text of its expression.
+  public List<String> columnNames() {
+    return plan.statement().results().stream()
+               .map(PreparedStatement::columnName)
+               .toList();
+  }
+
+  private static String columnName(AST.Expr expr) {
+    return switch (expr) {
+      case AST.Star() -> "*";
+      case AST.ColumnName(var name) -> name;
+      case AST.FnCall(var fn, var args) -> "%s(%s)".formatted(
+          fn, String.join(", ", args.stream().map(
+              PreparedStatement::columnName).toList()));
+      case AST.StrLiteral(var s) -> "'%s'".formatted(s.replace("'", "''"));
+      case AST.Parameter(var ignored, var name) -> name.orElse("?");
+    };
+  }
+
+  public PreparedStatement bind(int index, Value value) {
+    if (index < 1 || index > bindings.length) {
+      throw new SQLException(
+          "parameter index out of range: %d".formatted(index));
+    }
+    bindings[index - 1] = value;
+    return this;
+  }
+
+  public PreparedStatement bind(String name, Value value) {
+    var param = plan.parameters().stream()
+                    .filter(p -> p.name().filter(name::equals).isPresent())
+                    .map(AST.Parameter::index)
+                    .findFirst()
+                    .orElseThrow(() -> new SQLException(
+                        "no such parameter: %s".formatted(name)));
+    return bind(param, value);
+  }
+
+  public PreparedStatement clearBindings() {
+    Arrays.fill(bindings, new Value.NullValue());
+    return this;
+  }
+
+  public List<Row> execute()
+  throws SQLException, IOException, StorageException {
+    return engine.execute(plan, bindings.clone());
+  }
+
+  // Streams the result rows to the sink as they're produced.
+  public void execute(Consumer<Row> sink)
+  throws SQLException, IOException, StorageException {
+    engine.execute(plan, bindings.clone(), sink);
+  }
+}
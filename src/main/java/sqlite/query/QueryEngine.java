@@ -4,7 +4,9 @@ import sqlite.sql.AST;
 import sqlite.sql.Parser;
 import sqlite.sql.SQLException;
 import sqlite.sql.Scanner;
+import sqlite.storage.Batch;
 import sqlite.storage.Index;
+import sqlite.storage.Metrics;
 import sqlite.storage.StorageEngine;
 import sqlite.storage.StorageException;
 import sqlite.storage.Table;
@@ -13,119 +15,435 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 public class QueryEngine {
+  private static final int STATEMENT_CACHE_SIZE = 64;
+
+  // rowids found by an index that are waiting to be fetched
+  private static final int FETCH_QUEUE_CAPACITY = Batch.CAPACITY;
+
   private final StorageEngine db;
+  private final StatementCache statements;
+  private final HashIndexes hashIndexes;
+  private final ResultCache resultCache = new ResultCache();
+  private volatile int fetchConcurrency = 1;
 
   public QueryEngine(StorageEngine db) {
     this.db = db;
+    this.statements = new StatementCache(STATEMENT_CACHE_SIZE);
+    this.hashIndexes = new HashIndexes(db);
+  }
+
+  // Sets how many rows found by an index are read at once. Above 1, the
+  // index is searched on another thread while the rows are read on virtual
+  // threads, which hides the latency of slow storage. Rows come out in the
+  // same order either way.
+  public void setFetchConcurrency(int fetchConcurrency) {
+    if (fetchConcurrency < 1) {
+      throw new IllegalArgumentException(
+          "bad fetch concurrency: %d".formatted(fetchConcurrency));
+    }
+    this.fetchConcurrency = fetchConcurrency;
+  }
+
+  // Sets how much memory may go to hash indices over columns without an
+  // index, which are built in the background once equality filters have
+  // scanned a column a few times, and dropped when the data changes. 0, the
+  // default, turns them off.
+  public void setHashIndexBudget(long bytes) {
+    hashIndexes.setBudget(bytes);
+  }
+
+  // Sets how much memory may go to the rows of recent statements, which are
+  // returned again when a statement with the same syntax tree and bindings
+  // runs before the data changes. 0, the default, turns the cache off.
+  public void setResultCacheBytes(long bytes) {
+    resultCache.setBudget(bytes);
+  }
+
+  // Waits for the hash indices being built.
+  void awaitHashIndexes() throws InterruptedException {
+    hashIndexes.await();
   }
 
+  // A parsed and planned statement. Only the parameter bindings vary between
+  // executions of the same plan, until the schema it was planned against
+  // changes.
+  record Plan(String sql, AST.SelectStatement statement, Table table,
+              Optional<Index> index, List<String> columns,
+              List<AST.Parameter> parameters, long schemaGeneration) {}
+
   private static boolean isAggregation(AST.Expr expr) {
     return expr instanceof AST.FnCall;
   }
 
-  private Value evaluate(AST.Expr expr, List<Table.Row> rows)
+  // The results of a plan before aggregates are finished, so that the
+  // results over several databases with the same schema can be combined.
+  // Exactly one of rows and aggregates is non-null.
+  record Partial(List<Row> rows, List<Aggregate> aggregates) {
+    void merge(Partial other) {
+      if (rows != null) {
+        rows.addAll(other.rows);
+        return;
+      }
+      for (int i = 0; i < aggregates.size(); i++) {
+        aggregates.get(i).merge(other.aggregates.get(i));
+      }
+    }
+
+    List<Row> finish() throws SQLException {
+      if (rows != null) return rows;
+      var result = new ArrayList<Value>();
+      for (var aggregate : aggregates) result.add(aggregate.result());
+      return List.of(new Row(result));
+    }
+  }
+
+  private static final Value ANY_ROW = new Value.IntValue(1);
+
+  private static List<Aggregate> aggregates(List<AST.Expr> cols, Table table)
   throws SQLException {
-    return switch (expr) {
-      case AST.FnCall(var fn, var ignored) when fn.equals("count") ->
-          new Value.IntValue(rows.size());
-      case AST.Expr ignored when rows.isEmpty() -> new Value.NullValue();
-      default -> evaluate(expr, rows.getFirst());
-    };
+    var aggregates = new ArrayList<Aggregate>();
+    for (var col : cols) {
+      if (!(col instanceof AST.FnCall(var fn, var args))) {
+        aggregates.add(new Aggregate.Bare());
+        continue;
+      }
+      var arg = args.getFirst();
+      if (arg instanceof AST.Star && !fn.equals("count")) {
+        throw new SQLException(
+            "wrong arguments to function %s()".formatted(fn));
+      }
+      var collation = arg instanceof AST.ColumnName(var name)
+          ? table.collation(name)
+          : Collation.BINARY;
+      aggregates.add(Aggregate.of(fn, collation));
+    }
+    return aggregates;
   }
 
-  private Value evaluate(AST.Expr expr, Table.Row row) throws SQLException {
+  // Where a result column's values come from: one of the batch's vectors,
+  // or a constant for literals, parameters and the rows counted by count(*).
+  private record Source(int column, Value constant) {
+    Value value(Batch batch, int row) {
+      return column >= 0 ? batch.column(column).value(row) : constant;
+    }
+  }
+
+  private static Source source(AST.Expr expr, List<String> columns,
+                               Value[] params)
+  throws SQLException {
     return switch (expr) {
-      case AST.ColumnName(var name) -> row.get(name);
-      case AST.StrLiteral(var s) -> new Value.StringValue(s);
+      case AST.ColumnName(var name) -> new Source(columns.indexOf(name), null);
+      case AST.Operand operand -> new Source(-1, valueOf(operand, params));
       default -> throw new SQLException("invalid expr: %s".formatted(expr));
     };
   }
 
-  private List<Row> evaluate(List<AST.Expr> cols,
-                             List<Table.Row> rows)
+  private static List<Source> sources(List<AST.Expr> cols,
+                                      List<String> columns, Value[] params)
   throws SQLException {
-    List<Row> results = new ArrayList<>();
-    if (cols.stream().anyMatch(QueryEngine::isAggregation)) {
-      // TODO: figure out how to make streams work with exceptions
-      var result = new ArrayList<Value>();
-      for (var col : cols) result.add(evaluate(col, rows));
-      results.add(new Row(result));
-    } else {
-      for (var row : rows) {
-        var result = new ArrayList<Value>();
-        for (var col : cols) result.add(evaluate(col, row));
-        results.add(new Row(result));
+    var sources = new ArrayList<Source>();
+    for (var col : cols) {
+      sources.add(switch (col) {
+        case AST.FnCall(var ignored, var args)
+            when args.getFirst() instanceof AST.Star -> new Source(-1, ANY_ROW);
+        case AST.FnCall(var ignored, var args) ->
+            source(args.getFirst(), columns, params);
+        case AST.Expr expr -> source(expr, columns, params);
+      });
+    }
+    return sources;
+  }
+
+  // The columns a statement reads, which are decoded into a batch's vectors
+  // in this order.
+  private static List<String> columns(AST.SelectStatement select) {
+    var columns = new ArrayList<String>();
+    for (var col : select.results()) {
+      var expr = col instanceof AST.FnCall(var ignored, var args)
+          ? args.getFirst()
+          : col;
+      if (expr instanceof AST.ColumnName(var name) &&
+          !columns.contains(name)) {
+        columns.add(name);
       }
     }
-    return results;
+    select.filter().map(filter -> filter.column().name())
+          .filter(name -> !columns.contains(name))
+          .ifPresent(columns::add);
+    return List.copyOf(columns);
   }
 
-  private boolean evaluate(AST.Filter filter, Table.Row row)
-  throws SQLException {
-    return evaluate(filter.column(), row).equals(evaluate(filter.value(), row));
+  private static void accumulate(List<Aggregate> aggregates,
+                                 List<Source> sources, Batch batch,
+                                 Selection selection) {
+    for (int i = 0; i < aggregates.size(); i++) {
+      var source = sources.get(i);
+      if (source.column() >= 0) {
+        aggregates.get(i).add(batch.column(source.column()), selection);
+      } else {
+        aggregates.get(i).add(source.constant(), selection.size());
+      }
+    }
+  }
+
+  private static void project(List<Source> sources, Batch batch,
+                              Selection selection, Consumer<Row> sink) {
+    for (int i = 0; i < selection.size(); i++) {
+      int row = selection.row(i);
+      var values = new ArrayList<Value>(sources.size());
+      for (var source : sources) values.add(source.value(batch, row));
+      sink.accept(new Row(values));
+    }
   }
 
   private Optional<Index> findIndexForFilter(AST.Filter f)
-  throws SQLException, IOException, StorageException {
+  throws SQLException, StorageException {
     // TODO: for multi-column indices we would want to consider column ordering
     return db.getIndices().stream()
              .filter(idx -> idx.definition().column().equals(f.column().name()))
              .findFirst();
   }
 
-  private static Value valueOf(AST.Literal literal) {
-    if (literal instanceof AST.StrLiteral s)
-      return new Value.StringValue(s.s());
-    throw new IllegalArgumentException("unimplemented");
+  private static Value valueOf(AST.Operand operand, Value[] params) {
+    return switch (operand) {
+      case AST.StrLiteral(var s) -> new Value.StringValue(s);
+      case AST.Parameter(var index, var ignored) -> params[index - 1];
+    };
   }
 
-  private List<Table.Row> getRows(Table t, AST.Filter filter)
-  throws SQLException, IOException, StorageException {
-    Optional<Index> maybeIndex = findIndexForFilter(filter);
-    if (maybeIndex.isPresent()) {
-      var rowIds = maybeIndex.get()
-                             .findMatchingRecordIds(filter.column().name(),
-                                                    valueOf(filter.value()));
-      List<Table.Row> results = new ArrayList<>();
-      for (long rowId : rowIds) {
-        results.add(t.get(rowId).orElseThrow(() -> new AssertionError(
-            "row not found in table for indexed id %d".formatted(rowId))));
+  // Passes each batch of rows with rows matching the plan's filter to the
+  // consumer, with those rows selected.
+  private void batches(Plan plan, Value[] params,
+                       BiConsumer<Batch, Selection> consumer)
+  throws SQLException, StorageException {
+    var metrics = Metrics.current();
+    var table = plan.table();
+    var columns = plan.columns();
+    var selection = new Selection();
+    var select = plan.statement();
+    if (select.filter().isEmpty()) {
+      metrics.count(Metrics.Counter.TABLE_SCANS);
+      long start = System.nanoTime();
+      table.scan(columns, batch -> {
+        selection.selectAll(batch.size());
+        consumer.accept(batch, selection);
+      });
+      metrics.time(Metrics.Operator.SCAN, start);
+      return;
+    }
+    var filter = select.filter().get();
+    var operand = valueOf(filter.value(), params);
+    var value = table.isNumeric(filter.column().name())
+        ? Value.numeric(operand)
+        : operand;
+    // NULL is never equal to anything, including a NULL column
+    if (value instanceof Value.NullValue) return;
+    if (plan.index().isPresent()) {
+      metrics.count(Metrics.Counter.INDEX_LOOKUPS);
+      var index = plan.index().get();
+      var column = filter.column().name();
+      Consumer<Batch> all = batch -> {
+        selection.selectAll(batch.size());
+        consumer.accept(batch, selection);
+      };
+      if (fetchConcurrency > 1) {
+        // the index is searched while the rows are fetched
+        long start = System.nanoTime();
+        try (var rowIds = index.matchingRecordIds(column, value,
+                                                  FETCH_QUEUE_CAPACITY)) {
+          table.fetch(rowIds, columns, fetchConcurrency, all);
+        }
+        metrics.time(Metrics.Operator.FETCH, start);
+        return;
       }
-      return results;
+      long start = System.nanoTime();
+      var rowIds = index.findMatchingRecordIds(column, value);
+      metrics.time(Metrics.Operator.INDEX, start);
+      start = System.nanoTime();
+      table.fetch(rowIds, columns, all);
+      metrics.time(Metrics.Operator.FETCH, start);
     } else {
-      List<Table.Row> results = new ArrayList<>();
-      for (var row : t.rows()) {
-        if (evaluate(filter, row)) results.add(row);
+      var name = filter.column().name();
+      var hashIndex = hashIndexes.get(table, name);
+      if (hashIndex != null) {
+        metrics.count(Metrics.Counter.HASH_INDEX_LOOKUPS);
+        long start = System.nanoTime();
+        var rowIds = hashIndex.get(value);
+        metrics.time(Metrics.Operator.INDEX, start);
+        start = System.nanoTime();
+        Consumer<Batch> all = batch -> {
+          selection.selectAll(batch.size());
+          consumer.accept(batch, selection);
+        };
+        if (fetchConcurrency > 1) {
+          table.fetch(rowIds.longs(), columns, fetchConcurrency, all);
+        } else {
+          table.fetch(rowIds, columns, all);
+        }
+        metrics.time(Metrics.Operator.FETCH, start);
+        return;
       }
-      return results;
+      metrics.count(Metrics.Counter.TABLE_SCANS);
+      long start = System.nanoTime();
+      int column = columns.indexOf(name);
+      var collation = table.collation(name);
+      var text = value instanceof Value.StringValue(var data) &&
+                 collation == Collation.BINARY
+          ? table.encode(data)
+          : null;
+      table.scan(columns, batch -> {
+        selection.selectAll(batch.size());
+        selection.filterEqual(batch.column(column), value, text, collation);
+        if (selection.size() > 0) consumer.accept(batch, selection);
+      });
+      metrics.time(Metrics.Operator.SCAN, start);
     }
   }
 
-  private List<Row> evaluate(AST.Statement statement)
-  throws IOException, SQLException, StorageException {
+  private Plan plan(String sql, AST.Statement statement,
+                    List<AST.Parameter> parameters)
+  throws SQLException, StorageException {
+    long generation = db.schemaGeneration();
     switch (statement) {
       case AST.CreateTableStatement ignored ->
           throw new SQLException("table creation not supported");
       case AST.CreateIndexStatement ignored ->
           throw new SQLException("index creation not supported");
-      case AST.SelectStatement(var cols, var cond, var tableName) -> {
+      case AST.SelectStatement select -> {
         var table = db.getTables().stream()
-                      .filter(t -> t.name().equals(tableName))
+                      .filter(t -> t.name().equals(select.table()))
                       .findAny()
                       .orElseThrow(
                           () -> new SQLException(
-                              "no such table: %s".formatted(tableName)));
-        var rows = cond.isPresent() ? getRows(table, cond.get()) : table.rows();
-        return evaluate(cols, rows);
+                              "no such table: %s".formatted(select.table())));
+        var index = select.filter().isPresent()
+            ? findIndexForFilter(select.filter().get())
+            : Optional.<Index>empty();
+        return new Plan(sql, select, table, index, columns(select),
+                        parameters, generation);
       }
     }
   }
 
-  // TODO: stream
+  private Plan plan(String sql) throws SQLException, StorageException {
+    var metrics = Metrics.current();
+    long start = System.nanoTime();
+    var event = QueryPhaseEvent.start();
+    var parser = new Parser(new Scanner(sql));
+    var statement = parser.statement();
+    event.end("parse", sql);
+    metrics.time(Metrics.Operator.PARSE, start);
+    start = System.nanoTime();
+    event = QueryPhaseEvent.start();
+    var plan = plan(sql, statement, parser.parameters());
+    event.end("plan", sql);
+    metrics.time(Metrics.Operator.PLAN, start);
+    return plan;
+  }
+
+  // Brings the database up to date, replanning if the schema changed.
+  private Plan current(Plan plan) throws SQLException, StorageException {
+    db.refresh();
+    if (plan.schemaGeneration() == db.schemaGeneration()) return plan;
+    return statements.get(plan.sql(), db.schemaGeneration(), this::plan);
+  }
+
+  private static boolean isAggregation(Plan plan) {
+    return plan.statement().results().stream()
+               .anyMatch(QueryEngine::isAggregation);
+  }
+
+  private Partial partial(Plan plan, Value[] params)
+  throws SQLException, StorageException {
+    var cols = plan.statement().results();
+    var sources = sources(cols, plan.columns(), params);
+    if (isAggregation(plan)) {
+      var aggregates = aggregates(cols, plan.table());
+      batches(plan, params, (batch, selection) ->
+          accumulate(aggregates, sources, batch, selection));
+      return new Partial(null, aggregates);
+    }
+    var results = new ArrayList<Row>();
+    batches(plan, params, (batch, selection) ->
+        project(sources, batch, selection, results::add));
+    return new Partial(results, null);
+  }
+
+  // Runs a plan without finishing its aggregates.
+  Partial run(Plan plan, Value[] params)
+  throws IOException, SQLException, StorageException {
+    return partial(current(plan), params);
+  }
+
+  Partial run(String sql, Value[] params)
+  throws IOException, SQLException, StorageException {
+    return run(statements.get(sql, db.schemaGeneration(), this::plan), params);
+  }
+
+  // Passes each result row to the sink as soon as it's produced, so that
+  // rows can be written out while the table is still being read. Only
+  // aggregates wait for the whole table.
+  void execute(Plan plan, Value[] params, Consumer<Row> sink)
+  throws IOException, SQLException, StorageException {
+    var event = QueryPhaseEvent.start();
+    var metrics = Metrics.current();
+    metrics.count(Metrics.Counter.STATEMENTS);
+    plan = current(plan);
+    var key = resultCache.key(plan.statement(), params, db.dataGeneration());
+    var cached = key != null ? resultCache.get(key) : null;
+    if (cached != null) {
+      metrics.count(Metrics.Counter.RESULT_CACHE_HITS);
+      cached.forEach(sink);
+      metrics.count(Metrics.Counter.ROWS_EMITTED, cached.size());
+      event.end("execute", plan.sql());
+      return;
+    }
+    ResultCache.Recorder recorder = null;
+    if (key != null) {
+      metrics.count(Metrics.Counter.RESULT_CACHE_MISSES);
+      recorder = resultCache.recorder(key);
+    }
+    var out = recorder != null ? recorder.andThen(sink) : sink;
+    long[] emitted = {0};
+    if (isAggregation(plan)) {
+      var partial = partial(plan, params);
+      long start = System.nanoTime();
+      var results = partial.finish();
+      metrics.time(Metrics.Operator.PROJECT, start);
+      results.forEach(out);
+      emitted[0] = results.size();
+    } else {
+      var sources = sources(plan.statement().results(), plan.columns(),
+                            params);
+      batches(plan, params, (batch, selection) -> {
+        project(sources, batch, selection, out);
+        emitted[0] += selection.size();
+      });
+    }
+    if (recorder != null) recorder.finish();
+    metrics.count(Metrics.Counter.ROWS_EMITTED, emitted[0]);
+    event.end("execute", plan.sql());
+  }
+
+  List<Row> execute(Plan plan, Value[] params)
+  throws IOException, SQLException, StorageException {
+    var results = new ArrayList<Row>();
+    execute(plan, params, results::add);
+    return results;
+  }
+
+  public PreparedStatement prepare(String sql)
+  throws SQLException, StorageException {
+    return new PreparedStatement(
+        this, statements.get(sql, db.schemaGeneration(), this::plan));
+  }
+
   public List<Row> evaluate(String statement)
   throws SQLException, IOException, StorageException {
-    return evaluate(new Parser(new Scanner(statement)).statement());
+    return prepare(statement).execute();
   }
 }
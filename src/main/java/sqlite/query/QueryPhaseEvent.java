@@ -0,0 +1,31 @@
+package sqlite.query;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("sqlite.QueryPhase")
+@Label("Query Phase")
+@Category({"SQLite", "Query"})
+@Description("Parsing, planning or executing a statement")
+final class QueryPhaseEvent extends jdk.jfr.Event {
+  @Label("Phase")
+  String phase;
+
+  @Label("SQL")
+  String sql;
+
+  static QueryPhaseEvent start() {
+    var event = new QueryPhaseEvent();
+    event.begin();
+    return event;
+  }
+
+  void end(String phase, String sql) {
+    if (!shouldCommit()) return;
+    this.phase = phase;
+    this.sql = sql;
+    commit();
+  }
+}
@@ -0,0 +1,134 @@
+package sqlite.query;
+
+import sqlite.sql.AST;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Least-recently-used cache of the rows returned by statements, up to a
+// budget of bytes. Statements are keyed by their syntax tree, so the same
+// query written differently shares an entry, along with their bindings and
+// the data generation, so that nothing is returned once the data changes.
+final class ResultCache {
+  record Key(AST.SelectStatement statement, List<Value> params,
+             long dataGeneration) {}
+
+  private record Entry(List<Row> rows, long bytes) {}
+
+  // roughly what a row and its list cost besides the values
+  private static final long ROW_BYTES = 64;
+  private static final long VALUE_BYTES = 24;
+
+  private final LinkedHashMap<Key, Entry> entries =
+      new LinkedHashMap<>(16, 0.75f, true);
+  private long budget = 0;
+  private long used = 0;
+  // the newest data generation seen, for which the entries are
+  private long generation = 0;
+
+  synchronized void setBudget(long budget) {
+    if (budget < 0) {
+      throw new IllegalArgumentException(
+          "bad result cache size: %d".formatted(budget));
+    }
+    this.budget = budget;
+    entries.clear();
+    used = 0;
+  }
+
+  // The key for running the statement with the given bindings, or null if
+  // its results can't be cached.
+  synchronized Key key(AST.SelectStatement statement, Value[] params,
+                       long dataGeneration) {
+    if (budget == 0) return null;
+    // blobs are arrays, which records compare by identity
+    for (var param : params) {
+      if (param instanceof Value.BlobValue) return null;
+    }
+    return new Key(statement, List.of(params), dataGeneration);
+  }
+
+  synchronized List<Row> get(Key key) {
+    expire(key.dataGeneration());
+    var entry = entries.get(key);
+    return entry != null ? entry.rows() : null;
+  }
+
+  // Drops the entries for older data.
+  private void expire(long dataGeneration) {
+    if (dataGeneration <= generation) return;
+    generation = dataGeneration;
+    entries.clear();
+    used = 0;
+  }
+
+  // Collects the rows passed to it, until there are too many to cache.
+  final class Recorder implements Consumer<Row> {
+    private final Key key;
+    private final long maxBytes;
+    private List<Row> rows = new ArrayList<>();
+    private long bytes = 0;
+
+    private Recorder(Key key, long maxBytes) {
+      this.key = key;
+      this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public void accept(Row row) {
+      if (rows == null) return;
+      bytes += size(row);
+      // a copy, since the consumer may change the row it was passed
+      if (bytes <= maxBytes) rows.add(new Row(List.copyOf(row.columns())));
+      else rows = null;
+    }
+
+    // Caches the rows, which must be all of them.
+    void finish() {
+      if (rows != null) put(key, new Entry(List.copyOf(rows), bytes));
+    }
+  }
+
+  // Entries are limited to a quarter of the budget, so that one big result
+  // doesn't push out all the others.
+  synchronized Recorder recorder(Key key) {
+    return new Recorder(key, budget / 4);
+  }
+
+  private synchronized void put(Key key, Entry entry) {
+    expire(key.dataGeneration());
+    if (key.dataGeneration() < generation || entry.bytes() > budget / 4) {
+      return;
+    }
+    var previous = entries.put(key, entry);
+    if (previous != null) used -= previous.bytes();
+    used += entry.bytes();
+    var eldest = entries.values().iterator();
+    while (used > budget) {
+      used -= eldest.next().bytes();
+      eldest.remove();
+    }
+  }
+
+  private static long size(Row row) {
+    long bytes = ROW_BYTES;
+    for (var value : row.columns()) {
+      bytes += VALUE_BYTES + switch (value) {
+        case Value.StringValue(var s) -> 40 + 2L * s.length();
+        case Value.BlobValue(var blob) -> 16 + blob.length;
+        default -> 0;
+      };
+    }
+    return bytes;
+  }
+
+  synchronized long sizeInBytes() {
+    return used;
+  }
+
+  synchronized int size() {
+    return entries.size();
+  }
+}
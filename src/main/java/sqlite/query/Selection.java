@@ -0,0 +1,77 @@
+package sqlite.query;
+
+import sqlite.storage.Batch;
+
+// A selection vector: the rows of a batch that are still selected, in order.
+// Filters narrow it in a tight loop over a column instead of testing each
+// row as a whole.
+final class Selection {
+  private final int[] rows = new int[Batch.CAPACITY];
+  private int size = 0;
+
+  int size() {return size;}
+
+  int row(int i) {return rows[i];}
+
+  void selectAll(int n) {
+    for (int i = 0; i < n; i++) rows[i] = i;
+    size = n;
+  }
+
+  // Keeps the rows whose value in the column equals value, which isn't NULL.
+  // Values of different storage classes are never equal, so only the rows
+  // of the same class need to be compared.
+  void filterEqual(Batch.Vector column, Value value, byte[] text,
+                   Collation collation) {
+    int n = 0;
+    switch (value) {
+      case Value.IntValue(var x) -> {
+        for (int i = 0; i < size; i++) {
+          int row = rows[i];
+          byte type = column.type(row);
+          if (type == Batch.INTEGER ? column.getLong(row) == x
+                                    : type == Batch.REAL &&
+                                      equal(column, row, value, collation)) {
+            rows[n++] = row;
+          }
+        }
+      }
+      case Value.RealValue(var x) -> {
+        for (int i = 0; i < size; i++) {
+          int row = rows[i];
+          byte type = column.type(row);
+          if (type == Batch.REAL ? column.getDouble(row) == x
+                                 : type == Batch.INTEGER &&
+                                   equal(column, row, value, collation)) {
+            rows[n++] = row;
+          }
+        }
+      }
+      // the encoded bytes are equal exactly when the strings are
+      case Value.StringValue ignored when text != null -> {
+        for (int i = 0; i < size; i++) {
+          int row = rows[i];
+          if (column.type(row) == Batch.TEXT && column.bytesEqual(row, text)) {
+            rows[n++] = row;
+          }
+        }
+      }
+      default -> {
+        byte type = value instanceof Value.BlobValue ? Batch.BLOB : Batch.TEXT;
+        for (int i = 0; i < size; i++) {
+          int row = rows[i];
+          if (column.type(row) == type &&
+              equal(column, row, value, collation)) {
+            rows[n++] = row;
+          }
+        }
+      }
+    }
+    size = n;
+  }
+
+  private static boolean equal(Batch.Vector column, int row, Value value,
+                               Collation collation) {
+    return Value.compare(column.value(row), value, collation) == 0;
+  }
+}
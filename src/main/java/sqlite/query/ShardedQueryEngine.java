@@ -0,0 +1,118 @@
+package sqlite.query;
+
+import sqlite.sql.SQLException;
+import sqlite.storage.Metrics;
+import sqlite.storage.PageCache;
+import sqlite.storage.StorageEngine;
+import sqlite.storage.StorageException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Runs statements over several databases with the same schema, such as the
+// shards of a partitioned data set, as if they were one database.
+//
+// Each shard is queried on a pool of a fixed number of threads. Rows are
+// returned in shard order, and aggregates are combined from the partial
+// state of each shard, so that e.g. avg() is the average over all rows
+// rather than of the shards' averages. All shards read through one page
+// cache, so memory use is bounded by its budget however many shards there
+// are.
+public class ShardedQueryEngine implements AutoCloseable {
+  private final List<StorageEngine> shards;
+  private final List<QueryEngine> engines;
+  private final ExecutorService executor;
+
+  private ShardedQueryEngine(List<StorageEngine> shards, int parallelism) {
+    this.shards = shards;
+    this.engines = shards.stream().map(QueryEngine::new).toList();
+    this.executor = Executors.newFixedThreadPool(
+        parallelism, Thread.ofPlatform().name("shard-", 0).daemon().factory());
+  }
+
+  public static ShardedQueryEngine open(List<Path> paths, PageCache cache,
+                                        int parallelism)
+  throws IOException {
+    if (paths.isEmpty()) throw new IllegalArgumentException("no shards");
+    var shards = new ArrayList<StorageEngine>();
+    try {
+      for (var path : paths) shards.add(StorageEngine.open(path, cache));
+    } catch (IOException | RuntimeException e) {
+      shards.forEach(StorageEngine::close);
+      throw e;
+    }
+    return new ShardedQueryEngine(List.copyOf(shards), parallelism);
+  }
+
+  public int shardCount() {
+    return shards.size();
+  }
+
+  public List<String> columnNames(String sql)
+  throws SQLException, StorageException {
+    return engines.getFirst().prepare(sql).columnNames();
+  }
+
+  private QueryEngine.Partial run(QueryEngine engine, String sql,
+                                  Metrics statement) {
+    try (var ignored = Metrics.startFor(statement)) {
+      return engine.run(sql, new Value[0]);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // Stops the shards that haven't started. The running ones aren't
+  // interrupted, since interrupting a FileChannel read closes the channel
+  // and the shard's file with it.
+  private static void cancel(List<Future<QueryEngine.Partial>> partials) {
+    partials.forEach(partial -> partial.cancel(false));
+  }
+
+  public List<Row> evaluate(String sql)
+  throws SQLException, IOException, StorageException {
+    var event = QueryPhaseEvent.start();
+    var metrics = Metrics.current();
+    metrics.count(Metrics.Counter.STATEMENTS);
+    var partials = new ArrayList<Future<QueryEngine.Partial>>();
+    for (var engine : engines) {
+      partials.add(executor.submit(() -> run(engine, sql, metrics)));
+    }
+    QueryEngine.Partial result = null;
+    try {
+      for (var partial : partials) {
+        var next = partial.get();
+        if (result == null) result = next;
+        else result.merge(next);
+      }
+    } catch (ExecutionException e) {
+      cancel(partials);
+      switch (e.getCause()) {
+        case UncheckedIOException io -> throw io.getCause();
+        case RuntimeException cause -> throw cause;
+        default -> throw new StorageException("shard failed", e.getCause());
+      }
+    } catch (InterruptedException e) {
+      cancel(partials);
+      Thread.currentThread().interrupt();
+      throw new StorageException("interrupted", e);
+    }
+    var rows = result.finish();
+    metrics.count(Metrics.Counter.ROWS_EMITTED, rows.size());
+    event.end("execute", sql);
+    return rows;
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+    shards.forEach(StorageEngine::close);
+  }
+}
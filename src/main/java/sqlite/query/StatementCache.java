@@ -0,0 +1,33 @@
+package sqlite.query;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+// Least-recently-used cache of query plans keyed by SQL text. Plans made for
+// an older schema generation are replaced when they're next used.
+class StatementCache {
+  private final LinkedHashMap<String, QueryEngine.Plan> plans;
+
+  StatementCache(int capacity) {
+    this.plans = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(
+          Map.Entry<String, QueryEngine.Plan> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  synchronized QueryEngine.Plan get(
+      String sql, long schemaGeneration,
+      Function<String, QueryEngine.Plan> plan) {
+    var cached = plans.get(sql);
+    if (cached != null && cached.schemaGeneration() == schemaGeneration) {
+      return cached;
+    }
+    var planned = plan.apply(sql);
+    plans.put(sql, planned);
+    return planned;
+  }
+}
@@ -0,0 +1,139 @@
+package sqlite.query;
+
+import sqlite.sql.SQLException;
+
+// Accumulates sum(), total() and avg() as SQLite does. The sum is an exact
+// integer until a value that isn't an INTEGER or an overflow is seen, after
+// which it continues as a REAL with Kahan-Babuska-Neumaier compensation, so
+// long columns of doubles don't drift. Only primitives are updated per row.
+final class Sum {
+  // integers at least this large can't be converted to doubles exactly
+  private static final long EXACT = 1L << 52;
+
+  private long count = 0;
+  private long integer = 0;
+  private double real = 0, error = 0;
+  private boolean approximate = false;
+  private boolean overflow = false;
+
+  private void step(double x) {
+    double t = real + x;
+    if (Math.abs(real) > Math.abs(x)) {
+      error += (real - t) + x;
+    } else {
+      error += (x - t) + real;
+    }
+    real = t;
+  }
+
+  // Splits large integers so that the low bits aren't lost.
+  private void step(long x) {
+    if (x <= -EXACT || x >= EXACT) {
+      long low = x % 16384;
+      step((double) (x - low));
+      step((double) low);
+    } else {
+      step((double) x);
+    }
+  }
+
+  private void approximate() {
+    if (approximate) return;
+    approximate = true;
+    step(integer);
+  }
+
+  void add(long x) {
+    if (approximate) {
+      step(x);
+    } else {
+      long result = integer + x;
+      // the signs of both inputs differ from the result's on overflow
+      if (((integer ^ result) & (x ^ result)) < 0) {
+        overflow = true;
+        approximate();
+        step(x);
+      } else {
+        integer = result;
+      }
+    }
+    count++;
+  }
+
+  // As in SQLite, a REAL after an overflow means sum() returns a REAL
+  // rather than raising the overflow.
+  void add(double x) {
+    overflow = false;
+    approximate();
+    step(x);
+    count++;
+  }
+
+  void add(Value value) {
+    switch (value) {
+      case Value.NullValue() -> {}
+      case Value.IntValue(var x) -> add(x);
+      default -> add(Value.toReal(value));
+    }
+  }
+
+  // Adds the values accumulated by another sum, as if they had been added
+  // to this one after its own.
+  void merge(Sum other) {
+    if (other.count == 0) return;
+    boolean wasApproximate = approximate;
+    if (!approximate && !other.approximate) {
+      long result = integer + other.integer;
+      if (((integer ^ result) & (other.integer ^ result)) >= 0) {
+        integer = result;
+        count += other.count;
+        return;
+      }
+      overflow = true;
+    }
+    approximate();
+    if (other.approximate) {
+      step(other.real);
+      step(other.error);
+    } else {
+      step(other.integer);
+    }
+    // The other sum overflowed only if it saw no REAL, and it's approximate
+    // without an overflow only if it saw one, which clears ours. Once this
+    // sum is approximate its integers can't overflow, as in SQLite.
+    if (other.approximate) {
+      overflow = wasApproximate ? overflow && other.overflow : other.overflow;
+    }
+    count += other.count;
+  }
+
+  // Like SQLite, drops the error term once it's no longer finite, which it
+  // becomes as soon as an infinity is added: Inf - Inf is NaN.
+  private double real() {
+    if (!approximate) return integer;
+    return Double.isFinite(error) ? real + error : real;
+  }
+
+  // SQLite has no NaN, and returns NULL for one, e.g. Inf + -Inf.
+  private static Value real(double x) {
+    return Double.isNaN(x) ? new Value.NullValue() : new Value.RealValue(x);
+  }
+
+  // NULL if there were no values, and an INTEGER if all of them were.
+  Value sum() throws SQLException {
+    if (count == 0) return new Value.NullValue();
+    if (!approximate) return new Value.IntValue(integer);
+    if (overflow) throw new SQLException("integer overflow");
+    return real(real());
+  }
+
+  // A REAL, and 0.0 if there were no values.
+  Value total() {
+    return real(real());
+  }
+
+  Value avg() {
+    if (count == 0) return new Value.NullValue();
+    return real(real() / count);
+  }
+}
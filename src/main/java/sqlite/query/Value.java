@@ -1,8 +1,15 @@
 package sqlite.query;
 
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
 public sealed interface Value {
   record NullValue() implements Value {}
   record IntValue(long value) implements Value {}
+  record RealValue(double value) implements Value {}
   record BlobValue(byte[] blob) implements Value {}
   record StringValue(String data) implements Value {}
 
@@ -10,20 +17,143 @@ public sealed interface Value {
 
   default long getInt() {return ((IntValue) this).value;}
 
-  default int compareTo(Value other) {
-    return switch (this) {
-      case IntValue i -> (int) (i.value - other.getInt());
-      case StringValue s -> s.data.compareTo(other.getString());
-      case NullValue ignored -> Integer.MIN_VALUE;
-      default -> throw new IllegalArgumentException(
-          "can't compare %s against value: %s".formatted(this, other));
+  // Values of different storage classes sort in this order.
+  private static int storageClass(Value value) {
+    return switch (value) {
+      case NullValue ignored -> 0;
+      case IntValue ignored -> 1;
+      case RealValue ignored -> 1;
+      case StringValue ignored -> 2;
+      case BlobValue ignored -> 3;
+    };
+  }
+
+  // Compares an integer with a real without losing precision on either side.
+  private static int compare(long i, double r) {
+    if (Double.isNaN(r)) return 1;
+    if (r < -0x1p63) return 1;
+    if (r >= 0x1p63) return -1;
+    long truncated = (long) r;
+    if (i != truncated) return Long.compare(i, truncated);
+    double fraction = r - truncated;
+    return fraction > 0 ? -1 : fraction < 0 ? 1 : 0;
+  }
+
+  // Orders values as SQLite does: NULL < INTEGER and REAL < TEXT < BLOB, with
+  // numbers compared by value and TEXT by the given collation. NULLs are equal
+  // to each other here, which is what sorting needs; an equality test in SQL
+  // must treat NULL separately.
+  static int compare(Value a, Value b, Collation collation) {
+    return switch (a) {
+      case IntValue(var x) when b instanceof IntValue(var y) ->
+          Long.compare(x, y);
+      case StringValue(var x) when b instanceof StringValue(var y) ->
+          collation.compare(x, y);
+      // unlike Double.compare, -0.0 == 0.0
+      case RealValue(var x) when b instanceof RealValue(var y) ->
+          x < y ? -1 : x > y ? 1 : 0;
+      case IntValue(var x) when b instanceof RealValue(var y) -> compare(x, y);
+      case RealValue(var x) when b instanceof IntValue(var y) -> -compare(y, x);
+      case BlobValue(var x) when b instanceof BlobValue(var y) ->
+          Integer.signum(Arrays.compareUnsigned(x, y));
+      default -> Integer.compare(storageClass(a), storageClass(b));
+    };
+  }
+
+  // Returns the length of the longest prefix of s, after leading spaces, that
+  // is a decimal number, or 0 if there is none.
+  private static int numericPrefix(String s) {
+    int i = 0, n = s.length();
+    while (i < n && Character.isWhitespace(s.charAt(i))) i++;
+    if (i < n && (s.charAt(i) == '+' || s.charAt(i) == '-')) i++;
+    int digits = 0;
+    while (i < n && Character.isDigit(s.charAt(i))) {i++; digits++;}
+    if (i < n && s.charAt(i) == '.') {
+      i++;
+      while (i < n && Character.isDigit(s.charAt(i))) {i++; digits++;}
+    }
+    if (digits == 0) return 0;
+    int end = i;
+    if (i < n && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+      i++;
+      if (i < n && (s.charAt(i) == '+' || s.charAt(i) == '-')) i++;
+      if (i < n && Character.isDigit(s.charAt(i))) {
+        while (i < n && Character.isDigit(s.charAt(i))) i++;
+        end = i;
+      }
+    }
+    return end;
+  }
+
+  // Applies NUMERIC affinity, as SQLite does to a value with no affinity of
+  // its own, such as a literal or parameter, that is compared with a column
+  // of INTEGER, REAL or NUMERIC affinity. TEXT that is a number, give or take
+  // surrounding spaces, becomes an INTEGER if it is written as one that fits
+  // and a REAL otherwise. Anything else is returned as is.
+  static Value numeric(Value value) {
+    if (!(value instanceof StringValue(var s))) return value;
+    var number = s.strip();
+    if (number.isEmpty() || numericPrefix(number) != number.length()) {
+      return value;
+    }
+    if (number.chars().allMatch(c -> c == '+' || c == '-' ||
+                                     c >= '0' && c <= '9')) {
+      try {
+        return new IntValue(Long.parseLong(number));
+      } catch (NumberFormatException e) {
+        // too large for an INTEGER
+      }
+    }
+    return new RealValue(Double.parseDouble(number));
+  }
+
+  private static double toReal(String s) {
+    int n = numericPrefix(s);
+    return n == 0 ? 0.0 : Double.parseDouble(s.substring(0, n));
+  }
+
+  // Converts a value to a REAL as SQLite's sqlite3_value_double does: TEXT
+  // and BLOBs are read up to the end of their leading number, and anything
+  // that isn't a number is 0.0.
+  static double toReal(Value value) {
+    return switch (value) {
+      case NullValue() -> 0.0;
+      case IntValue(var x) -> x;
+      case RealValue(var x) -> x;
+      case StringValue(var x) -> toReal(x);
+      case BlobValue(var x) -> toReal(new String(x, StandardCharsets.UTF_8));
     };
   }
 
+  // Formats a REAL with 15 significant digits like SQLite's "%!.15g", which
+  // always shows a decimal point: 1.0, 0.1, 1.0e+20.
+  private static String format(double x) {
+    if (Double.isNaN(x)) return "NaN";
+    if (Double.isInfinite(x)) return x > 0 ? "Inf" : "-Inf";
+    if (x == 0) return "0.0";
+    var d = new BigDecimal(x).round(new MathContext(15, RoundingMode.HALF_UP))
+                             .stripTrailingZeros();
+    int exponent = d.precision() - d.scale() - 1;
+    if (exponent < -4 || exponent >= 15) {
+      var digits = d.unscaledValue().abs().toString();
+      return "%s%c.%se%c%02d".formatted(
+          d.signum() < 0 ? "-" : "", digits.charAt(0),
+          digits.length() > 1 ? digits.substring(1) : "0",
+          exponent < 0 ? '-' : '+', Math.abs(exponent));
+    }
+    var plain = d.toPlainString();
+    return plain.indexOf('.') < 0 ? plain + ".0" : plain;
+  }
+
+  default int compareTo(Value other) {
+    return compare(this, other, Collation.BINARY);
+  }
+
   default String display() {
     return switch (this) {
-      case IntValue(var x) -> "%d".formatted(x);
-      case StringValue(var x) -> "%s".formatted(x);
+      case IntValue(var x) -> Long.toString(x);
+      case RealValue(var x) -> format(x);
+      case StringValue(var x) -> x;
       case NullValue() -> "NULL";
       case BlobValue(var ignored) -> "[blob]";
     };
@@ -4,12 +4,17 @@ import java.util.List;
 import java.util.Optional;
 
 public class AST {
-  public sealed interface Expr permits Star, FnCall, ColumnName, Literal {}
+  public sealed interface Expr permits Star, FnCall, ColumnName, Operand {}
   public record Star() implements Expr {}
   public record FnCall(String function, List<Expr> args) implements Expr {}
   public record ColumnName(String name) implements Expr {}
-  public sealed interface Literal extends Expr permits StrLiteral {}
+  public sealed interface Operand extends Expr permits Literal, Parameter {}
+  public sealed interface Literal extends Operand permits StrLiteral {}
   public record StrLiteral(String s) implements Literal {}
+  // Parameters are numbered from 1; named parameters share the index of
+  // their first occurrence.
+  public record Parameter(int index, Optional<String> name)
+      implements Operand {}
 
   public sealed interface Statement
       permits CreateIndexStatement, CreateTableStatement, SelectStatement {}
@@ -24,5 +29,5 @@ public class AST {
   public record SelectStatement(
       List<Expr> results, Optional<Filter> filter, String table)
       implements Statement {}
-  public record Filter(ColumnName column, Literal value) {}
+  public record Filter(ColumnName column, Operand value) {}
 }
@@ -9,11 +9,17 @@ import static sqlite.sql.Token.Type.*;
 
 public class Parser {
   private final Scanner scanner;
+  private final List<Parameter> parameters = new ArrayList<>();
 
   public Parser(Scanner scanner) {
     this.scanner = scanner;
   }
 
+  // The distinct parameters seen so far, ordered by index.
+  public List<Parameter> parameters() {
+    return List.copyOf(parameters);
+  }
+
   private boolean peekIs(Token.Type type) {
     return scanner.peek().map(tok -> tok.type() == type).orElse(false);
   }
@@ -39,11 +45,23 @@ public class Parser {
     return new FnCall(name.toLowerCase(), List.of(arg));
   }
 
+  private Parameter parameter(String name) {
+    if (name != null) {
+      for (var param : parameters) {
+        if (param.name().filter(name::equals).isPresent()) return param;
+      }
+    }
+    var param = new Parameter(parameters.size() + 1, Optional.ofNullable(name));
+    parameters.add(param);
+    return param;
+  }
+
   private Expr expr() {
     var tok = scanner.next();
     var text = tok.text();
     return switch (tok.type()) {
       case STR -> new StrLiteral(text);
+      case PARAM -> parameter(text);
       case STAR -> new Star();
       case IDENT -> peekIs(LPAREN) ? fnCall(text) : new ColumnName(text);
       default -> throw new SQLException("parser: bad expr: %s".formatted(tok));
@@ -59,7 +77,7 @@ public class Parser {
     };
     eat(EQ);
     var right = switch (expr()) {
-      case Literal lit -> lit;
+      case Operand operand -> operand;
       case Expr e ->
           throw new SQLException("want Literal, got %s".formatted(e));
     };
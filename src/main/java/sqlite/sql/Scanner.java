@@ -1,10 +1,15 @@
 package sqlite.sql;
 
+import java.util.Map;
 import java.util.Optional;
 
 import static sqlite.sql.Token.Type.*;
 
 public class Scanner {
+  private static final Map<String, Token.Type> KEYWORDS = Map.of(
+      "SELECT", SELECT, "FROM", FROM, "CREATE", CREATE, "TABLE", TABLE,
+      "INDEX", INDEX, "WHERE", WHERE, "ON", ON);
+
   private final String s;
   private int pos;
   private Optional<Token> lookahead;
@@ -20,11 +25,7 @@ public class Scanner {
   }
 
   private static Optional<Token.Type> getKeyword(String name) {
-    try {
-      return Optional.of(Token.Type.valueOf(name.toUpperCase()));
-    } catch (IllegalArgumentException ignored) {
-      return Optional.empty();
-    }
+    return Optional.ofNullable(KEYWORDS.get(name.toUpperCase()));
   }
 
   private static Token.Type getType(char c) {
@@ -56,6 +57,14 @@ public class Scanner {
     return getKeyword(text).map(Token::of).orElse(Token.of(IDENT, text));
   }
 
+  private Token parameter() {
+    if (s.charAt(pos++) == '?') return Token.of(PARAM);
+    int begin = pos;
+    while (pos < s.length() && isIdentifier(s.charAt(pos))) pos++;
+    if (begin == pos) throw new SQLException("scanner: empty parameter name");
+    return Token.of(PARAM, s.substring(begin, pos));
+  }
+
   private String stringLiteral(char delim) {
     eat(delim);
     int begin = pos;
@@ -94,6 +103,9 @@ public class Scanner {
         case '"' -> {
           return Optional.of(Token.of(IDENT, stringLiteral(c)));
         }
+        case '?', ':' -> {
+          return Optional.of(parameter());
+        }
         case '=', ',', '(', ')', '*' -> {
           eat(c);
           return Optional.of(Token.of(getType(c)));
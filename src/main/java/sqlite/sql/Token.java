@@ -24,5 +24,6 @@ public record Token(Token.Type type, String text) {
     EQ,
     IDENT,
     STR,
+    PARAM,
   }
 }
@@ -0,0 +1,28 @@
+package sqlite.storage;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("sqlite.BTreeDescent")
+@Label("B-tree Descent")
+@Category({"SQLite", "Storage"})
+@Description("A search of a table or index b-tree from its root page")
+final class BTreeDescentEvent extends jdk.jfr.Event {
+  @Label("Tree")
+  @Description("The name of the table or index")
+  String tree;
+
+  @Label("Root Page")
+  int rootPage;
+
+  @Label("Key")
+  String key;
+
+  @Label("Pages Visited")
+  int pagesVisited;
+
+  @Label("Matches")
+  int matches;
+}
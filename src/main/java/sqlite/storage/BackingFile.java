@@ -2,6 +2,7 @@ package sqlite.storage;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
 
 public record BackingFile(SeekableByteChannel file) implements AutoCloseable {
@@ -13,6 +14,28 @@ public record BackingFile(SeekableByteChannel file) implements AutoCloseable {
     }
   }
 
+  // Reads at an absolute position without moving the channel's position,
+  // so it is safe to call from multiple threads.
+  public int read(ByteBuffer buf, long pos) {
+    try {
+      if (!(file instanceof FileChannel channel)) {
+        synchronized (file) {
+          return file.position(pos).read(buf);
+        }
+      }
+      int total = 0;
+      while (buf.hasRemaining()) {
+        int n = channel.read(buf, pos + total);
+        if (n < 0) break;
+        total += n;
+      }
+      return total;
+    } catch (IOException e) {
+      throw new StorageException(
+          String.format("failed to read offset %d in file", pos), e);
+    }
+  }
+
   public BackingFile seek(long pos) {
     try {
       return new BackingFile(file.position(pos));
@@ -0,0 +1,164 @@
+package sqlite.storage;
+
+import sqlite.query.Value;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+// Up to CAPACITY rows of a table, decoded straight from the page into a
+// vector of primitives per requested column, so that operators can work on
+// many rows in a tight loop without a Value or map per row. Batches are
+// reused: the vectors are only valid until the consumer returns.
+public final class Batch {
+  public static final int CAPACITY = 1024;
+
+  // The storage class of each value in a vector.
+  public static final byte NULL = 0;
+  public static final byte INTEGER = 1;
+  public static final byte REAL = 2;
+  public static final byte TEXT = 3;
+  public static final byte BLOB = 4;
+
+  public static final class Vector {
+    private final Charset charset;
+    private final byte[] types = new byte[CAPACITY];
+    private final long[] longs = new long[CAPACITY];
+    private final double[] doubles = new double[CAPACITY];
+    // TEXT and BLOBs are copied into bytes, end to end
+    private final int[] starts = new int[CAPACITY];
+    private final int[] lengths = new int[CAPACITY];
+    private byte[] bytes = new byte[CAPACITY * 16];
+    private int used = 0;
+
+    private Vector(Charset charset) {
+      this.charset = charset;
+    }
+
+    public byte type(int row) {return types[row];}
+
+    public long getLong(int row) {return longs[row];}
+
+    public double getDouble(int row) {return doubles[row];}
+
+    // Whether the value is TEXT or a BLOB with exactly these bytes.
+    public boolean bytesEqual(int row, byte[] other) {
+      int start = starts[row];
+      return Arrays.equals(bytes, start, start + lengths[row],
+                           other, 0, other.length);
+    }
+
+    public Value value(int row) {
+      return switch (types[row]) {
+        case NULL -> new Value.NullValue();
+        case INTEGER -> new Value.IntValue(longs[row]);
+        case REAL -> new Value.RealValue(doubles[row]);
+        case TEXT -> new Value.StringValue(
+            new String(bytes, starts[row], lengths[row], charset));
+        default -> new Value.BlobValue(Arrays.copyOfRange(
+            bytes, starts[row], starts[row] + lengths[row]));
+      };
+    }
+
+    private void setLong(int row, long x, boolean real) {
+      if (real) {
+        // SQLite stores whole REALs as integers to save space
+        types[row] = REAL;
+        doubles[row] = x;
+      } else {
+        types[row] = INTEGER;
+        longs[row] = x;
+      }
+    }
+
+    private void setBytes(int row, byte type, ByteBuffer buf, int offset,
+                          int length) {
+      if (used + length > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2,
+                                              used + length));
+      }
+      buf.get(offset, bytes, used, length);
+      types[row] = type;
+      starts[row] = used;
+      lengths[row] = length;
+      used += length;
+    }
+
+    // Decodes the value with the serial type at buf[offset].
+    private void set(int row, ByteBuffer buf, int offset, long serialType,
+                     boolean real) {
+      int n = (int) serialType;
+      switch (n) {
+        case 0 -> types[row] = NULL;
+        case 1, 2, 3, 4, 5, 6 ->
+            setLong(row, Record.integer(buf, offset, n), real);
+        case 7 -> {
+          double x = buf.getDouble(offset);
+          // SQLite reads a stored NaN as NULL
+          types[row] = Double.isNaN(x) ? NULL : REAL;
+          doubles[row] = x;
+        }
+        case 8 -> setLong(row, 0, real);
+        case 9 -> setLong(row, 1, real);
+        case 10, 11 -> throw new StorageException(
+            "invalid serial type: %d".formatted(n));
+        default -> setBytes(row, n % 2 == 0 ? BLOB : TEXT, buf, offset,
+                            Record.contentSize(serialType));
+      }
+    }
+  }
+
+  // the vector for each of the table's columns, or -1 if it wasn't requested
+  private final int[] slots;
+  // whether each of the table's columns has REAL affinity
+  private final boolean[] reals;
+  // the vector for the INTEGER PRIMARY KEY column, which is the rowid
+  private final int rowIdSlot;
+  private final Vector[] vectors;
+  private final long[] rowIds = new long[CAPACITY];
+  private int size = 0;
+
+  Batch(Charset charset, int columns, int[] slots, boolean[] reals,
+        int rowIdSlot) {
+    this.slots = slots;
+    this.reals = reals;
+    this.rowIdSlot = rowIdSlot;
+    this.vectors = new Vector[columns];
+    for (int i = 0; i < columns; i++) vectors[i] = new Vector(charset);
+  }
+
+  public int size() {return size;}
+
+  public long rowId(int row) {return rowIds[row];}
+
+  // The vector for the i-th requested column.
+  public Vector column(int i) {return vectors[i];}
+
+  boolean isFull() {return size == CAPACITY;}
+
+  void clear() {
+    size = 0;
+    for (var vector : vectors) vector.used = 0;
+  }
+
+  // Decodes the record at buf[offset] into the next row, reading only the
+  // requested columns. Columns missing from the end of the record, which
+  // was written before they were added to the table, are NULL.
+  void add(long rowId, ByteBuffer buf, int offset) {
+    int row = size++;
+    rowIds[row] = rowId;
+    for (var vector : vectors) vector.types[row] = NULL;
+    int header = VarInt.skip(buf, offset);
+    int end = offset + (int) VarInt.get(buf, offset);
+    int content = end;
+    for (int col = 0; header < end && col < slots.length; col++) {
+      long serialType = VarInt.get(buf, header);
+      header = VarInt.skip(buf, header);
+      if (slots[col] >= 0) {
+        vectors[slots[col]].set(row, buf, content, serialType, reals[col]);
+      }
+      content += Record.contentSize(serialType);
+    }
+    if (rowIdSlot >= 0) vectors[rowIdSlot].setLong(row, rowId, false);
+  }
+}
@@ -0,0 +1,140 @@
+package sqlite.storage;
+
+import sqlite.query.Collation;
+import sqlite.query.Value;
+
+import java.util.Arrays;
+
+// A set of an index's keys that can answer "definitely not in the index"
+// without reading any pages. Keys that compare equal, such as 1 and 1.0 or
+// 'a' and 'A ' under NOCASE and RTRIM, hash the same, so a lookup can only
+// be wrongly told a key might be present, never that it's absent.
+final class BloomFilter {
+  // about a 1% false positive rate when there's room for them
+  private static final int BITS_PER_KEY = 10;
+  private static final int MAX_HASHES = 16;
+
+  private final Collation collation;
+  private final long[] bits;
+  private final long mask;
+  private final int hashes;
+  // the data generation of the database the keys were read from
+  private final long generation;
+
+  private BloomFilter(Collation collation, long[] hashes, int count,
+                      long maxBytes, long generation) {
+    this.collation = collation;
+    this.generation = generation;
+    // a power of two, at most maxBytes, so that bits are picked with a mask
+    long wanted = Math.max(64, (long) count * BITS_PER_KEY);
+    long size = Math.min(Long.highestOneBit(wanted - 1) << 1,
+                         Long.highestOneBit(Math.max(8, maxBytes) * 8));
+    this.bits = new long[(int) Math.min(size / 64, 1 << 30)];
+    this.mask = bits.length * 64L - 1;
+    int k = (int) Math.round((double) bits.length * 64 / Math.max(1, count) *
+                             Math.log(2));
+    this.hashes = Math.clamp(k, 1, MAX_HASHES);
+    for (int i = 0; i < count; i++) add(hashes[i]);
+  }
+
+  // Accumulates the hashes of the keys until their number is known.
+  static final class Builder {
+    private final Collation collation;
+    private long[] hashes = new long[1024];
+    private int count = 0;
+
+    Builder(Collation collation) {
+      this.collation = collation;
+    }
+
+    void add(Value key) {
+      if (!isFilterable(key)) return;
+      if (count == hashes.length) hashes = Arrays.copyOf(hashes, count * 2);
+      hashes[count++] = hash(key, collation);
+    }
+
+    BloomFilter build(long maxBytes, long generation) {
+      return new BloomFilter(collation, hashes, count, maxBytes, generation);
+    }
+  }
+
+  long generation() {return generation;}
+
+  long sizeInBytes() {return bits.length * 8L;}
+
+  // Whether the index may have a key equal to value.
+  boolean mightContain(Value value) {
+    if (!isFilterable(value)) return true;
+    long h = hash(value, collation);
+    long h2 = (h >>> 32) | 1;
+    for (int i = 0; i < hashes; i++) {
+      long bit = (h + i * h2) & mask;
+      if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) return false;
+    }
+    return true;
+  }
+
+  private void add(long h) {
+    long h2 = (h >>> 32) | 1;
+    for (int i = 0; i < hashes; i++) {
+      long bit = (h + i * h2) & mask;
+      bits[(int) (bit >>> 6)] |= 1L << bit;
+    }
+  }
+
+  // NULLs and NaNs aren't equal to anything in SQL, so lookups for them are
+  // left to the index.
+  private static boolean isFilterable(Value value) {
+    return switch (value) {
+      case Value.NullValue ignored -> false;
+      case Value.RealValue(var x) -> !Double.isNaN(x);
+      default -> true;
+    };
+  }
+
+  private static final long NUMBER = 1, TEXT = 2, BLOB = 3;
+
+  private static long hash(Value value, Collation collation) {
+    return switch (value) {
+      case Value.IntValue(var x) -> mix(NUMBER, x);
+      // a whole REAL equals the INTEGER with its value
+      case Value.RealValue(var x) ->
+          x == Math.rint(x) && x >= -0x1p63 && x < 0x1p63
+              ? mix(NUMBER, (long) x)
+              : mix(NUMBER, Double.doubleToLongBits(x));
+      case Value.StringValue(var s) -> text(s, collation);
+      case Value.BlobValue(var blob) -> {
+        long h = BLOB;
+        for (byte b : blob) h = h * 31 + b;
+        yield mix(h, blob.length);
+      }
+      case Value.NullValue ignored -> throw new AssertionError("NULL");
+    };
+  }
+
+  // Hashes the chars that the collation compares.
+  private static long text(String s, Collation collation) {
+    int n = s.length();
+    if (collation == Collation.RTRIM) {
+      while (n > 0 && s.charAt(n - 1) == ' ') n--;
+    }
+    long h = TEXT;
+    for (int i = 0; i < n; i++) {
+      char c = s.charAt(i);
+      if (collation == Collation.NOCASE && c >= 'A' && c <= 'Z') {
+        c += 'a' - 'A';
+      }
+      h = h * 31 + c;
+    }
+    return mix(h, n);
+  }
+
+  // The SplitMix64 finalizer, so that every bit of the hash depends on
+  // every bit of the input.
+  private static long mix(long seed, long x) {
+    long z = seed * 0x9e3779b97f4a7c15L + x;
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+}
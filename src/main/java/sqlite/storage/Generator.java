@@ -0,0 +1,542 @@
+package sqlite.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static java.nio.file.StandardOpenOption.*;
+
+// Writes synthetic SQLite databases for benchmarks and tests. The database
+// has a single table with an index on its category column:
+//
+//   CREATE TABLE items (id integer primary key, name text, category text,
+//                       quantity integer, price real, data blob)
+//   CREATE INDEX idx_items_category on items (category)
+//
+// Rows are generated deterministically from the seed, and categories are
+// assigned round-robin so that each has rows / categories matching rows.
+// Values that don't fit in a page spill onto overflow pages, and neither the
+// rows nor the index entries are held in memory, so files can be arbitrarily
+// large.
+public class Generator {
+  public static final String TABLE_SCHEMA =
+      "CREATE TABLE items (id integer primary key, name text, " +
+      "category text, quantity integer, price real, data blob)";
+  public static final String INDEX_SCHEMA =
+      "CREATE INDEX idx_items_category on items (category)";
+
+  // rows:       number of rows in the table
+  // categories: number of distinct values in the indexed column
+  // nameLength: length of each name (TEXT) value
+  // blobLength: length of each data (BLOB) value, or 0 for NULL
+  // pageSize:   a power of two between 512 and 65536
+  // leafCells:  maximum cells per leaf page, or 0 for as many as fit
+  // fanout:     maximum children per interior page, or 0 for as many as fit
+  // depth:      number of levels in each b-tree, or 0 for as few as possible;
+  //             limited by the number of leaf pages and the fanout
+  // reserved:   bytes left unused at the end of each page, as extensions
+  //             such as checksums do; at least 480 bytes must remain
+  public record Options(long rows, int categories, int nameLength,
+                        int blobLength, int pageSize, int leafCells,
+                        int fanout, int depth, long seed, int reserved) {
+    public Options {
+      if (rows < 0 || categories < 1 || nameLength < 0 || blobLength < 0 ||
+          leafCells < 0 || fanout < 0 || fanout == 1 || depth < 0 ||
+          reserved < 0 || reserved > 255) {
+        throw new IllegalArgumentException("invalid options: " + this);
+      }
+      if (pageSize < 512 || pageSize > 65536 ||
+          Integer.bitCount(pageSize) != 1) {
+        throw new IllegalArgumentException("invalid page size: " + pageSize);
+      }
+      if (pageSize - reserved < 480) {
+        throw new IllegalArgumentException("invalid options: " + this);
+      }
+    }
+
+    public Options(long rows) {
+      this(rows, 100, 16, 0, 4096, 0, 0, 0, 0, 0);
+    }
+
+    public Options withCategories(int categories) {
+      return new Options(rows, categories, nameLength, blobLength, pageSize,
+                         leafCells, fanout, depth, seed, reserved);
+    }
+
+    public Options withNameLength(int nameLength) {
+      return new Options(rows, categories, nameLength, blobLength, pageSize,
+                         leafCells, fanout, depth, seed, reserved);
+    }
+
+    public Options withBlobLength(int blobLength) {
+      return new Options(rows, categories, nameLength, blobLength, pageSize,
+                         leafCells, fanout, depth, seed, reserved);
+    }
+
+    public Options withPageSize(int pageSize) {
+      return new Options(rows, categories, nameLength, blobLength, pageSize,
+                         leafCells, fanout, depth, seed, reserved);
+    }
+
+    public Options withLeafCells(int leafCells) {
+      return new Options(rows, categories, nameLength, blobLength, pageSize,
+                         leafCells, fanout, depth, seed, reserved);
+    }
+
+    public Options withFanout(int fanout) {
+      return new Options(rows, categories, nameLength, blobLength, pageSize,
+                         leafCells, fanout, depth, seed, reserved);
+    }
+
+    public Options withDepth(int depth) {
+      return new Options(rows, categories, nameLength, blobLength, pageSize,
+                         leafCells, fanout, depth, seed, reserved);
+    }
+
+    public Options withSeed(long seed) {
+      return new Options(rows, categories, nameLength, blobLength, pageSize,
+                         leafCells, fanout, depth, seed, reserved);
+    }
+
+    public Options withReserved(int reserved) {
+      return new Options(rows, categories, nameLength, blobLength, pageSize,
+                         leafCells, fanout, depth, seed, reserved);
+    }
+  }
+
+  public static String category(long i) {
+    return "category%d".formatted(i);
+  }
+
+  public static byte[] blob(long rowId, int length) {
+    var blob = new byte[length];
+    for (int i = 0; i < length; i++) blob[i] = (byte) (rowId * 31 + i);
+    return blob;
+  }
+
+  private final FileChannel file;
+  private final Options options;
+  private final int pageSize;
+  // the bytes of each page that hold data, before the reserved ones
+  private final int usableSize;
+  private int pageCount = 1; // page 1 is reserved for the schema
+
+  private Generator(FileChannel file, Options options) {
+    this.file = file;
+    this.options = options;
+    this.pageSize = options.pageSize();
+    this.usableSize = pageSize - options.reserved();
+  }
+
+  // ==============
+  // Record format
+  // ==============
+
+  private static int serialType(Object value) {
+    return switch (value) {
+      case null -> 0;
+      case Long l when l == 0 -> 8;
+      case Long l when l == 1 -> 9;
+      case Long l when l == (byte) (long) l -> 1;
+      case Long l when l == (short) (long) l -> 2;
+      case Long l when l == (l << 40) >> 40 -> 3;
+      case Long l when l == (int) (long) l -> 4;
+      case Long l when l == (l << 16) >> 16 -> 5;
+      case Long ignored -> 6;
+      case Double ignored -> 7;
+      case String s -> s.getBytes(StandardCharsets.UTF_8).length * 2 + 13;
+      case byte[] b -> b.length * 2 + 12;
+      default -> throw new IllegalArgumentException(value.toString());
+    };
+  }
+
+  private static int contentSize(int serialType) {
+    return switch (serialType) {
+      case 0, 8, 9 -> 0;
+      case 5 -> 6;
+      case 6, 7 -> 8;
+      default -> serialType >= 12 ? (serialType - 12) / 2 : serialType;
+    };
+  }
+
+  static byte[] record(Object... values) {
+    int typesSize = 0, bodySize = 0;
+    for (var value : values) {
+      int type = serialType(value);
+      typesSize += VarInt.sizeOf(type);
+      bodySize += contentSize(type);
+    }
+    // the header size includes the varint that encodes it
+    int headerSize = typesSize + 1;
+    while (typesSize + VarInt.sizeOf(headerSize) != headerSize) {
+      headerSize = typesSize + VarInt.sizeOf(headerSize);
+    }
+    var buf = ByteBuffer.allocate(headerSize + bodySize);
+    VarInt.writeTo(buf, headerSize);
+    for (var value : values) VarInt.writeTo(buf, serialType(value));
+    for (var value : values) {
+      switch (value) {
+        case null -> {}
+        case Long l -> {
+          switch (serialType(l)) {
+            case 1 -> buf.put((byte) (long) l);
+            case 2 -> buf.putShort((short) (long) l);
+            case 3 -> buf.put((byte) (l >> 16)).putShort((short) (long) l);
+            case 4 -> buf.putInt((int) (long) l);
+            case 5 -> buf.putShort((short) (l >> 32)).putInt((int) (long) l);
+            case 6 -> buf.putLong(l);
+          }
+        }
+        case Double d -> buf.putDouble(d);
+        case String s -> buf.put(s.getBytes(StandardCharsets.UTF_8));
+        case byte[] b -> buf.put(b);
+        default -> throw new IllegalArgumentException(value.toString());
+      }
+    }
+    return buf.array();
+  }
+
+  // =============
+  // B-tree pages
+  // =============
+
+  private record Cell(byte[] bytes) {
+    Cell withChild(int child) {
+      return new Cell(ByteBuffer.allocate(4 + bytes.length)
+                                .putInt(child).put(bytes).array());
+    }
+  }
+
+  // A page under construction: cells are added in order and written from the
+  // end of the page towards the header.
+  private class PageBuilder {
+    private final Page.Type type;
+    private final int base;
+    private final int maxCells;
+    private final List<Cell> cells = new ArrayList<>();
+    private int used;
+
+    PageBuilder(Page.Type type, int base, int maxCells) {
+      this.type = type;
+      this.base = base;
+      this.maxCells = maxCells > 0 ? maxCells : Integer.MAX_VALUE;
+      this.used = base + Page.headerSize(type);
+    }
+
+    boolean hasRoom(Cell cell) {
+      return used + cell.bytes.length + 2 <= usableSize;
+    }
+
+    boolean fits(Cell cell) {
+      return cells.size() < maxCells && hasRoom(cell);
+    }
+
+    void add(Cell cell) {
+      cells.add(cell);
+      used += cell.bytes.length + 2;
+    }
+
+    Cell removeLast() {
+      var cell = cells.removeLast();
+      used -= cell.bytes.length + 2;
+      return cell;
+    }
+
+    ByteBuffer build(int rightPage) {
+      var buf = ByteBuffer.allocate(pageSize).order(ByteOrder.BIG_ENDIAN);
+      int content = usableSize;
+      int pointer = base + Page.headerSize(type);
+      for (var cell : cells) {
+        content -= cell.bytes.length;
+        buf.position(content).put(cell.bytes);
+        buf.position(pointer).putShort((short) content);
+        pointer += 2;
+      }
+      buf.position(base).put(type.value);
+      buf.putShort((short) 0);
+      buf.putShort((short) cells.size());
+      buf.putShort((short) content);
+      buf.put((byte) 0);
+      if (Page.headerSize(type) == 12) buf.putInt(rightPage);
+      return buf.position(0);
+    }
+  }
+
+  private int write(ByteBuffer page) throws IOException {
+    int pageNumber = ++pageCount;
+    file.write(page, (long) (pageNumber - 1) * pageSize);
+    return pageNumber;
+  }
+
+  // Writes payload[offset:] to a chain of overflow pages and returns the
+  // first page number.
+  private int writeOverflow(byte[] payload, int offset) throws IOException {
+    int first = pageCount + 1;
+    while (offset < payload.length) {
+      int n = Math.min(payload.length - offset, usableSize - 4);
+      var page = ByteBuffer.allocate(pageSize);
+      // pages are numbered in write order, so the next one is known
+      page.putInt(offset + n < payload.length ? pageCount + 2 : 0);
+      page.put(payload, offset, n);
+      write(page.position(0));
+      offset += n;
+    }
+    return first;
+  }
+
+  // Returns a cell with the given prefix followed by as much of the payload
+  // as fits in the page and, if necessary, a pointer to the rest.
+  private Cell payloadCell(ByteBuffer prefix, byte[] payload,
+                           boolean tableLeaf) throws IOException {
+    int local = Page.localPayloadSize(usableSize, payload.length, tableLeaf);
+    int overflowPointer = local < payload.length ? 4 : 0;
+    var buf = ByteBuffer.allocate(prefix.flip().remaining() + local +
+                                  overflowPointer);
+    buf.put(prefix).put(payload, 0, local);
+    if (local < payload.length) buf.putInt(writeOverflow(payload, local));
+    return new Cell(buf.array());
+  }
+
+  private Cell tableLeafCell(long rowId, byte[] payload) throws IOException {
+    var prefix = ByteBuffer.allocate(18);
+    VarInt.writeTo(prefix, payload.length);
+    VarInt.writeTo(prefix, rowId);
+    return payloadCell(prefix, payload, true);
+  }
+
+  // Index leaf and interior cells hold the same payload, the interior ones
+  // preceded by a child page number.
+  private Cell indexCell(byte[] payload) throws IOException {
+    var prefix = ByteBuffer.allocate(9);
+    VarInt.writeTo(prefix, payload.length);
+    return payloadCell(prefix, payload, false);
+  }
+
+  private static Cell tableInteriorCell(int child, long rowId) {
+    var buf = ByteBuffer.allocate(4 + VarInt.sizeOf(rowId));
+    buf.putInt(child);
+    VarInt.writeTo(buf, rowId);
+    return new Cell(buf.array());
+  }
+
+  // The maximum number of children for the interior pages above the given
+  // number of leaves, honoring the fanout and depth options.
+  private int maxChildren(int leaves) {
+    int children = options.fanout() > 0 ? options.fanout() : Integer.MAX_VALUE;
+    if (options.depth() > 1) {
+      int fanout = 2;
+      while (Math.pow(fanout, options.depth() - 1) < leaves) fanout++;
+      children = Math.min(children, fanout);
+    }
+    return children;
+  }
+
+  private record TableChild(int page, long maxRowId) {}
+
+  // The largest interior cell: a page number and a 9-byte varint.
+  private static final int MAX_TABLE_INTERIOR_CELL = 4 + 9;
+
+  // Builds the interior levels of a table b-tree above the given pages and
+  // returns the root page number. Children are split evenly between the
+  // pages of each level so that every page has at least two, which with a
+  // fanout of two means one page may get three.
+  private int writeTableInterior(List<TableChild> children)
+  throws IOException {
+    int fanout = Math.min(
+        (usableSize - 12) / (MAX_TABLE_INTERIOR_CELL + 2),
+        maxChildren(children.size()));
+    while (children.size() > 1) {
+      int pages = Math.min((children.size() + fanout - 1) / fanout,
+                           children.size() / 2);
+      var parents = new ArrayList<TableChild>();
+      for (int i = 0, begin = 0; i < pages; i++) {
+        int end = begin + (children.size() - begin) / (pages - i);
+        var group = children.subList(begin, end);
+        var page = new PageBuilder(Page.Type.TABLE_INTERIOR, 0, 0);
+        for (var child : group.subList(0, group.size() - 1)) {
+          page.add(tableInteriorCell(child.page, child.maxRowId));
+        }
+        var last = group.getLast();
+        parents.add(new TableChild(write(page.build(last.page)),
+                                   last.maxRowId));
+        begin = end;
+      }
+      children = parents;
+    }
+    return children.getFirst().page;
+  }
+
+  private static String name(Random random, int length) {
+    var chars = new char[length];
+    for (int i = 0; i < length; i++) {
+      chars[i] = (char) ('a' + random.nextInt(26));
+    }
+    return new String(chars);
+  }
+
+  private int writeTable() throws IOException {
+    var random = new Random(options.seed());
+    var leaves = new ArrayList<TableChild>();
+    var page = new PageBuilder(Page.Type.TABLE_LEAF, 0, options.leafCells());
+    long lastRowId = 0;
+    for (long rowId = 1; rowId <= options.rows(); rowId++) {
+      var blob = options.blobLength() > 0
+          ? blob(rowId, options.blobLength())
+          : null;
+      var payload = record(null, name(random, options.nameLength()),
+                           category(rowId % options.categories()),
+                           (long) random.nextInt(1000),
+                           random.nextInt(100000) / 100.0, blob);
+      var cell = tableLeafCell(rowId, payload);
+      if (!page.fits(cell)) {
+        leaves.add(new TableChild(write(page.build(0)), lastRowId));
+        page = new PageBuilder(Page.Type.TABLE_LEAF, 0, options.leafCells());
+      }
+      page.add(cell);
+      lastRowId = rowId;
+    }
+    leaves.add(new TableChild(write(page.build(0)), lastRowId));
+    return writeTableInterior(leaves);
+  }
+
+  // Categories in the order of their names, which is the index order.
+  private List<Integer> sortedCategories() {
+    return IntStream.range(0, options.categories()).boxed()
+                    .sorted(Comparator.comparing(i -> category(i)))
+                    .toList();
+  }
+
+  // Writes an index b-tree bottom up. Entries that separate two pages are
+  // not stored in either page but passed up as the parent's keys. The last
+  // entry of a level can't separate anything, so the last page may exceed
+  // the cell limit by one, or borrow its separator from the page before.
+  private int writeIndex() throws IOException {
+    var children = new ArrayList<Integer>();
+    var separators = new ArrayList<Cell>();
+    var page = new PageBuilder(Page.Type.INDEX_LEAF, 0, options.leafCells());
+    long written = 0;
+    for (int category : sortedCategories()) {
+      var key = category(category);
+      long first = category == 0 ? options.categories() : category;
+      for (long rowId = first; rowId <= options.rows();
+           rowId += options.categories()) {
+        var cell = indexCell(record(key, rowId));
+        boolean last = ++written == options.rows();
+        if (page.fits(cell) || last && page.hasRoom(cell)) {
+          page.add(cell);
+        } else if (!last) {
+          children.add(write(page.build(0)));
+          separators.add(cell);
+          page = new PageBuilder(Page.Type.INDEX_LEAF, 0, options.leafCells());
+        } else {
+          separators.add(page.removeLast());
+          children.add(write(page.build(0)));
+          page = new PageBuilder(Page.Type.INDEX_LEAF, 0, options.leafCells());
+          page.add(cell);
+        }
+      }
+    }
+    children.add(write(page.build(0)));
+
+    int fanout = maxChildren(children.size());
+    while (children.size() > 1) {
+      var parents = new ArrayList<Integer>();
+      var parentSeparators = new ArrayList<Cell>();
+      page = new PageBuilder(Page.Type.INDEX_INTERIOR, 0, fanout - 1);
+      for (int i = 0; i < separators.size(); i++) {
+        var cell = separators.get(i).withChild(children.get(i));
+        boolean last = i == separators.size() - 1;
+        if (page.fits(cell) || last && page.hasRoom(cell)) {
+          page.add(cell);
+        } else if (!last) {
+          // the child left of the separator becomes the right-most pointer
+          parents.add(write(page.build(children.get(i))));
+          parentSeparators.add(separators.get(i));
+          page = new PageBuilder(Page.Type.INDEX_INTERIOR, 0, fanout - 1);
+        } else {
+          page.removeLast();
+          parents.add(write(page.build(children.get(i - 1))));
+          parentSeparators.add(separators.get(i - 1));
+          page = new PageBuilder(Page.Type.INDEX_INTERIOR, 0, fanout - 1);
+          page.add(cell);
+        }
+      }
+      parents.add(write(page.build(children.getLast())));
+      children = parents;
+      separators = parentSeparators;
+    }
+    return children.getFirst();
+  }
+
+  private void writeSchema(int tableRoot, int indexRoot) throws IOException {
+    var page = new PageBuilder(Page.Type.TABLE_LEAF, 100, 0);
+    page.add(tableLeafCell(1, record("table", "items", "items",
+                                     (long) tableRoot, TABLE_SCHEMA)));
+    page.add(tableLeafCell(2, record("index", "idx_items_category", "items",
+                                     (long) indexRoot, INDEX_SCHEMA)));
+    var buf = page.build(0);
+    buf.put("SQLite format 3\0".getBytes(StandardCharsets.US_ASCII));
+    buf.putShort((short) (pageSize == 65536 ? 1 : pageSize));
+    buf.put(new byte[]{1, 1, (byte) options.reserved(), 64, 32, 32});
+    buf.putInt(1); // file change counter
+    buf.putInt(pageCount);
+    buf.putInt(0).putInt(0); // freelist
+    buf.putInt(1); // schema cookie
+    buf.putInt(4); // schema format
+    buf.putInt(0).putInt(0); // cache size, largest root page
+    buf.putInt(1); // utf-8
+    buf.position(92).putInt(1); // version-valid-for
+    buf.putInt(3045000);
+    file.write(buf.position(0), 0);
+  }
+
+  public static void generate(Path path, Options options) throws IOException {
+    try (var file = FileChannel.open(path, CREATE, WRITE,
+                                     TRUNCATE_EXISTING)) {
+      var generator = new Generator(file, options);
+      int tableRoot = generator.writeTable();
+      int indexRoot = generator.writeIndex();
+      generator.writeSchema(tableRoot, indexRoot);
+    }
+  }
+
+  private static void usage() {
+    System.err.println(
+        "usage: generator <path> <rows> [--categories n] [--name-length n]" +
+        " [--blob-length n] [--page-size n] [--leaf-cells n] [--fanout n]" +
+        " [--depth n] [--seed n] [--reserved n]");
+    System.exit(1);
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2 || args.length % 2 != 0) usage();
+    var options = new Options(Long.parseLong(args[1]));
+    for (int i = 2; i < args.length; i += 2) {
+      int n = Integer.parseInt(args[i + 1]);
+      options = switch (args[i]) {
+        case "--categories" -> options.withCategories(n);
+        case "--name-length" -> options.withNameLength(n);
+        case "--blob-length" -> options.withBlobLength(n);
+        case "--page-size" -> options.withPageSize(n);
+        case "--leaf-cells" -> options.withLeafCells(n);
+        case "--fanout" -> options.withFanout(n);
+        case "--depth" -> options.withDepth(n);
+        case "--seed" -> options.withSeed(n);
+        case "--reserved" -> options.withReserved(n);
+        default -> {
+          usage();
+          yield options;
+        }
+      };
+    }
+    generate(Path.of(args[0]), options);
+  }
+}
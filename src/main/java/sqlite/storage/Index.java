@@ -1,64 +1,119 @@
 package sqlite.storage;
 
+import sqlite.query.Collation;
 import sqlite.query.Value;
 import sqlite.sql.AST;
 import sqlite.sql.Parser;
 import sqlite.sql.SQLException;
 import sqlite.sql.Scanner;
 
-import java.util.HashSet;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 
 public class Index {
   private final StorageEngine storage;
   private final String name;
   private final Table table;
-  private final Page.IndexPage root;
+  private final int rootPage;
   private final AST.CreateIndexStatement definition;
+  // built on the first lookup once enabled, and again after the data changes
+  private volatile BloomFilter bloomFilter;
 
-  public Index(StorageEngine storage, String name, Table table,
-               Page.IndexPage root, String schema) {
+  Index(StorageEngine storage, String name, Table table, int rootPage,
+        String schema) {
     this.storage = storage;
     this.name = name;
     this.table = table;
-    this.root = root;
+    this.rootPage = rootPage;
     this.definition = new Parser(new Scanner(schema)).createIndex();
   }
 
   public record Key(List<Value> indexKey, long rowId) {}
 
-  // TODO: move this into IndexedPage and make its generic type Comparable
-  private static boolean contains(Pointer<Key> page, Value value) {
-    // TODO: handle different collating functions
-    Optional<Value> left =
-        page.left().get().map(key -> key.indexKey.getFirst());
-    Optional<Value> right =
-        page.right().get().map(key -> key.indexKey.getFirst());
-    return (left.isEmpty() || left.get().compareTo(value) <= 0) &&
-           (right.isEmpty() || right.get().compareTo(value) >= 0);
+  // The key to search for, with its encoding if it can be compared in place.
+  private record Search(Value value, byte[] text, Collation collation) {
+    int compare(Page.IndexPage page, int index) {
+      return page.compareKey(index, value, text, collation);
+    }
+  }
+
+  // The index of the first key that is not less than the search key.
+  private static int lowerBound(Page.IndexPage page, Search search) {
+    int lo = 0, hi = page.numKeys();
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (search.compare(page, mid) < 0) lo = mid + 1;
+      else hi = mid;
+    }
+    return lo;
+  }
+
+  // Keys are compared against the search key in place, and only the
+  // matching ones are decoded.
+  private void collect(int pageNumber, LongConsumer rows, Search search,
+                       BTreeDescentEvent event) {
+    event.pagesVisited++;
+    try (var page = storage.getPage(pageNumber)) {
+      switch (page.asIndexPage()) {
+        case Page.IndexInteriorPage interior -> {
+          // the child left of key i holds the keys between keys i-1 and i
+          int n = interior.numKeys();
+          for (int i = lowerBound(interior, search); i <= n; i++) {
+            int child = i < n ? interior.child(i) : interior.rightPage();
+            collect(child, rows, search, event);
+            if (i == n || search.compare(interior, i) != 0) break;
+            rows.accept(interior.key(i).rowId);
+          }
+        }
+
+        case Page.IndexLeafPage leaf -> {
+          for (int i = lowerBound(leaf, search);
+               i < leaf.numKeys() && search.compare(leaf, i) == 0; i++) {
+            rows.accept(leaf.key(i).rowId);
+          }
+        }
+      }
+    }
+  }
+
+  // Passes the first column of every key to the consumer.
+  private void forEachKey(int pageNumber, Consumer<Value> keys) {
+    try (var page = storage.getPage(pageNumber)) {
+      switch (page.asIndexPage()) {
+        case Page.IndexInteriorPage interior -> {
+          for (int i = 0; i < interior.numKeys(); i++) {
+            forEachKey(interior.child(i), keys);
+            keys.accept(interior.key(i).indexKey().getFirst());
+          }
+          forEachKey(interior.rightPage(), keys);
+        }
+        case Page.IndexLeafPage leaf -> {
+          for (int i = 0; i < leaf.numKeys(); i++) {
+            keys.accept(leaf.key(i).indexKey().getFirst());
+          }
+        }
+      }
+    }
   }
 
-  void collect(Page.IndexPage page, HashSet<Long> rows, Value filter) {
-    switch (page) {
-      case Page.IndexInteriorPage interior -> interior
-          .records()
-          .filter(childPtr -> contains(childPtr, filter))
-          .forEach(childPtr -> {
-            childPtr.left().get()
-                    .filter(k -> k.indexKey.getFirst().equals(filter))
-                    .ifPresent(k -> rows.add(k.rowId));
-            childPtr.right().get()
-                    .filter(k -> k.indexKey.getFirst().equals(filter))
-                    .ifPresent(k -> rows.add(k.rowId));
-            var child = storage.getPage(childPtr.pageNumber()).asIndexPage();
-            collect(child, rows, filter);
-          });
-
-      case Page.IndexLeafPage leaf -> leaf
-          .records()
-          .filter(key -> key.indexKey.getFirst().equals(filter))
-          .forEach(key -> rows.add(key.rowId));
+  // The filter over the current keys, or null if they aren't filtered.
+  private BloomFilter bloomFilter() {
+    long maxBytes = storage.bloomFilterBytes();
+    if (maxBytes == 0) return null;
+    long generation = storage.dataGeneration();
+    var filter = bloomFilter;
+    if (filter != null && filter.generation() == generation) return filter;
+    synchronized (this) {
+      filter = bloomFilter;
+      if (filter == null || filter.generation() != generation) {
+        var builder = new BloomFilter.Builder(
+            table.collation(definition.column()));
+        forEachKey(rootPage, builder::add);
+        filter = bloomFilter = builder.build(maxBytes, generation);
+      }
+      return filter;
     }
   }
 
@@ -69,13 +124,71 @@ public class Index {
   // TODO: return a string
   public AST.CreateIndexStatement definition() {return definition;}
 
-  public List<Long> findMatchingRecordIds(String column, Value value) {
+  // Passes the rowids of the rows whose column equals value to the consumer
+  // as they're found, in index order: by key, then by rowid.
+  public void forEachMatchingRecordId(String column, Value value,
+                                      LongConsumer rows) {
     if (!definition.column().equals(column)) {
       throw new SQLException(
           "index %s does not cover column %s".formatted(name, column));
     }
-    var rows = new HashSet<Long>();
-    collect(root, rows, value);
-    return rows.stream().toList();
+    var filter = bloomFilter();
+    if (filter != null && !filter.mightContain(value)) {
+      Metrics.current().count(Metrics.Counter.BLOOM_FILTER_HITS);
+      return;
+    }
+    var event = new BTreeDescentEvent();
+    event.begin();
+    int[] matches = {0};
+    var collation = table.collation(column);
+    var text = value instanceof Value.StringValue(var data) &&
+               collation == Collation.BINARY
+        ? data.getBytes(storage.charset())
+        : null;
+    collect(rootPage, rowId -> {
+      matches[0]++;
+      rows.accept(rowId);
+    }, new Search(value, text, collation), event);
+    if (filter != null && matches[0] == 0) {
+      Metrics.current().count(Metrics.Counter.BLOOM_FALSE_POSITIVES);
+    }
+    if (event.shouldCommit()) {
+      event.tree = name;
+      event.rootPage = rootPage;
+      event.key = value.display();
+      event.matches = matches[0];
+      event.commit();
+    }
+  }
+
+  public List<Long> findMatchingRecordIds(String column, Value value) {
+    var rows = new ArrayList<Long>();
+    forEachMatchingRecordId(column, value, rows::add);
+    return rows;
+  }
+
+  // Like forEachMatchingRecordId, but searches on a virtual thread and hands
+  // the rowids over through a queue holding up to capacity of them, so that
+  // the rows can be fetched while the search goes on.
+  public RowIdQueue matchingRecordIds(String column, Value value,
+                                      int capacity) {
+    var queue = new RowIdQueue(capacity);
+    var statement = Metrics.current();
+    Thread.ofVirtual().name("index-" + name).start(() -> {
+      RuntimeException error = null;
+      // the counts reach the statement before the queue is finished
+      try (var metrics = Metrics.startFor(statement)) {
+        long start = System.nanoTime();
+        forEachMatchingRecordId(column, value, queue::put);
+        metrics.time(Metrics.Operator.INDEX, start);
+      } catch (RowIdQueue.Closed e) {
+        // the reader stopped early
+        return;
+      } catch (RuntimeException e) {
+        error = e;
+      }
+      queue.finish(error);
+    });
+    return queue;
   }
 }
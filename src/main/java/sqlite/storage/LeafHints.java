@@ -0,0 +1,148 @@
+package sqlite.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+// Remembers which leaf page holds each range of rowids that recent point
+// lookups landed in, so that another lookup in a hot range can go straight
+// to the leaf instead of descending from the root. A hint is only a guess:
+// the leaf is checked to still cover the rowid before it's trusted.
+//
+// Hints are dropped whenever the database changes, since a leaf that was
+// freed can still hold rows that were deleted. They can be saved to a file
+// and loaded by a later process as long as the file change counter is the
+// same, and the log has nothing committed, which the counter doesn't cover.
+final class LeafHints {
+  static final int DEFAULT_CAPACITY = 16 << 10;
+  // "SQLJHINT"
+  private static final long MAGIC = 0x53514c4a48494e54L;
+  private static final int VERSION = 1;
+
+  // The rows from first to last of the table with the given root page are
+  // on the leaf with the given page number.
+  record Hint(int rootPage, long first, long last, int pageNumber) {}
+
+  private record Key(int rootPage, long first) {}
+
+  private final int capacity;
+  // in least-recently-used order
+  private final LinkedHashMap<Key, Hint> recent =
+      new LinkedHashMap<>(16, 0.75f, true);
+  private final Map<Integer, TreeMap<Long, Hint>> ranges = new HashMap<>();
+
+  LeafHints(int capacity) {
+    this.capacity = capacity;
+  }
+
+  // The page that the row may be on, or 0 if there's no hint for it.
+  synchronized int get(int rootPage, long rowId) {
+    var tree = ranges.get(rootPage);
+    if (tree == null) return 0;
+    var entry = tree.floorEntry(rowId);
+    if (entry == null || entry.getValue().last() < rowId) return 0;
+    var hint = entry.getValue();
+    recent.get(new Key(rootPage, hint.first()));
+    return hint.pageNumber();
+  }
+
+  synchronized void put(Hint hint) {
+    var tree = ranges.computeIfAbsent(hint.rootPage(), k -> new TreeMap<>());
+    // leaves don't overlap, but a range may have grown or shrunk
+    for (var e = tree.floorEntry(hint.last());
+         e != null && e.getValue().last() >= hint.first();
+         e = tree.floorEntry(hint.last())) {
+      remove(e.getValue());
+    }
+    tree.put(hint.first(), hint);
+    recent.put(new Key(hint.rootPage(), hint.first()), hint);
+    if (recent.size() > capacity) {
+      remove(recent.values().iterator().next());
+    }
+  }
+
+  synchronized void remove(Hint hint) {
+    recent.remove(new Key(hint.rootPage(), hint.first()));
+    var tree = ranges.get(hint.rootPage());
+    tree.remove(hint.first());
+    if (tree.isEmpty()) ranges.remove(hint.rootPage());
+  }
+
+  // Drops the hint for the leaf the row was expected on.
+  synchronized void remove(int rootPage, long rowId) {
+    var tree = ranges.get(rootPage);
+    var entry = tree != null ? tree.floorEntry(rowId) : null;
+    if (entry != null) remove(entry.getValue());
+  }
+
+  synchronized void clear() {
+    recent.clear();
+    ranges.clear();
+  }
+
+  synchronized int size() {
+    return recent.size();
+  }
+
+  // Writes the hints, least recently used first, to a file that replaces
+  // the one at path once it's complete.
+  void save(Path path, int changeCounter, int pageSize) throws IOException {
+    List<Hint> hints;
+    synchronized (this) {
+      hints = new ArrayList<>(recent.values());
+    }
+    var temp = path.resolveSibling(path.getFileName() + ".tmp");
+    try (var out = new DataOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(temp)))) {
+      out.writeLong(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(changeCounter);
+      out.writeInt(pageSize);
+      out.writeInt(hints.size());
+      for (var hint : hints) {
+        out.writeInt(hint.rootPage());
+        out.writeLong(hint.first());
+        out.writeLong(hint.last());
+        out.writeInt(hint.pageNumber());
+      }
+    }
+    Files.move(temp, path, REPLACE_EXISTING, ATOMIC_MOVE);
+  }
+
+  // Adds the hints saved at path, unless they were saved for a different
+  // version of the database. Returns whether they were loaded.
+  boolean load(Path path, int changeCounter, int pageSize) throws IOException {
+    var hints = new ArrayList<Hint>();
+    try (var in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(path)))) {
+      if (in.readLong() != MAGIC || in.readInt() != VERSION ||
+          in.readInt() != changeCounter || in.readInt() != pageSize) {
+        return false;
+      }
+      int n = in.readInt();
+      for (int i = 0; i < n; i++) {
+        hints.add(new Hint(in.readInt(), in.readLong(), in.readLong(),
+                           in.readInt()));
+      }
+    } catch (NoSuchFileException | EOFException e) {
+      return false;
+    }
+    hints.forEach(this::put);
+    return true;
+  }
+}
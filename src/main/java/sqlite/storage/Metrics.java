@@ -0,0 +1,195 @@
+package sqlite.storage;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counts the work done to execute statements. While a statement runs, the
+// storage and query engines count into the metrics started for it on the
+// current thread, which are added to the process totals when it finishes.
+// Work done outside of a statement is counted into the totals directly.
+public final class Metrics implements MetricsMXBean, AutoCloseable {
+  public enum Counter {
+    STATEMENTS,
+    PAGES_READ,
+    PAGES_PREFETCHED,
+    CACHE_HITS,
+    BYTES_READ,
+    RECORDS_DECODED,
+    ROWS_EMITTED,
+    INDEX_LOOKUPS,
+    TABLE_SCANS,
+    LEAF_HINT_HITS,
+    BLOOM_FILTER_HITS,
+    BLOOM_FALSE_POSITIVES,
+    HASH_INDEX_BUILDS,
+    HASH_INDEX_LOOKUPS,
+    RESULT_CACHE_HITS,
+    RESULT_CACHE_MISSES;
+
+    public String label() {
+      return name().toLowerCase().replace('_', ' ');
+    }
+  }
+
+  public enum Operator {
+    PARSE, PLAN, INDEX, FETCH, SCAN, PROJECT;
+
+    public String label() {
+      return name().toLowerCase();
+    }
+  }
+
+  public static final Metrics TOTAL = new Metrics(null, null);
+  private static final ThreadLocal<Metrics> CURRENT = new ThreadLocal<>();
+
+  private final Metrics parent;
+  private final Metrics previous; // on this thread, or null
+  private final LongAdder[] counters = adders(Counter.values().length);
+  private final LongAdder[] nanos = adders(Operator.values().length);
+
+  private Metrics(Metrics parent, Metrics previous) {
+    this.parent = parent;
+    this.previous = previous;
+  }
+
+  private static LongAdder[] adders(int n) {
+    var adders = new LongAdder[n];
+    for (int i = 0; i < n; i++) adders[i] = new LongAdder();
+    return adders;
+  }
+
+  // Starts counting a statement on the current thread. Statements can nest,
+  // in which case the inner one is added to the outer one when it finishes.
+  public static Metrics start() {
+    return startFor(current());
+  }
+
+  // Starts counting work done on the current thread on behalf of a statement
+  // running on another, such as a worker it fans out to. The counts are added
+  // to the statement's when this finishes.
+  public static Metrics startFor(Metrics statement) {
+    var metrics = new Metrics(statement, CURRENT.get());
+    CURRENT.set(metrics);
+    return metrics;
+  }
+
+  public static Metrics current() {
+    var metrics = CURRENT.get();
+    return metrics != null ? metrics : TOTAL;
+  }
+
+  @Override
+  public void close() {
+    if (CURRENT.get() != this) {
+      throw new IllegalStateException("metrics closed out of order");
+    }
+    CURRENT.set(previous);
+    parent.add(this);
+  }
+
+  private void add(Metrics other) {
+    for (int i = 0; i < counters.length; i++) {
+      counters[i].add(other.counters[i].sum());
+    }
+    for (int i = 0; i < nanos.length; i++) nanos[i].add(other.nanos[i].sum());
+  }
+
+  public void count(Counter counter) {
+    counters[counter.ordinal()].increment();
+  }
+
+  public void count(Counter counter, long n) {
+    counters[counter.ordinal()].add(n);
+  }
+
+  // Records the time since start, as returned by System.nanoTime().
+  public void time(Operator operator, long start) {
+    nanos[operator.ordinal()].add(System.nanoTime() - start);
+  }
+
+  public long get(Counter counter) {
+    return counters[counter.ordinal()].sum();
+  }
+
+  public long nanos(Operator operator) {
+    return nanos[operator.ordinal()].sum();
+  }
+
+  // Exposes the totals as sqlite:type=Metrics, if not already registered.
+  public static synchronized void register() throws JMException {
+    var server = ManagementFactory.getPlatformMBeanServer();
+    var name = new ObjectName("sqlite:type=Metrics");
+    if (!server.isRegistered(name)) server.registerMBean(TOTAL, name);
+  }
+
+  // ============
+  // MXBean view
+  // ============
+
+  @Override
+  public long getStatements() {return get(Counter.STATEMENTS);}
+
+  @Override
+  public long getPagesRead() {return get(Counter.PAGES_READ);}
+
+  @Override
+  public long getPagesPrefetched() {return get(Counter.PAGES_PREFETCHED);}
+
+  @Override
+  public long getCacheHits() {return get(Counter.CACHE_HITS);}
+
+  @Override
+  public long getBytesRead() {return get(Counter.BYTES_READ);}
+
+  @Override
+  public long getRecordsDecoded() {return get(Counter.RECORDS_DECODED);}
+
+  @Override
+  public long getRowsEmitted() {return get(Counter.ROWS_EMITTED);}
+
+  @Override
+  public long getIndexLookups() {return get(Counter.INDEX_LOOKUPS);}
+
+  @Override
+  public long getTableScans() {return get(Counter.TABLE_SCANS);}
+
+  @Override
+  public long getLeafHintHits() {return get(Counter.LEAF_HINT_HITS);}
+
+  @Override
+  public long getBloomFilterHits() {return get(Counter.BLOOM_FILTER_HITS);}
+
+  @Override
+  public long getBloomFalsePositives() {
+    return get(Counter.BLOOM_FALSE_POSITIVES);
+  }
+
+  @Override
+  public long getHashIndexBuilds() {return get(Counter.HASH_INDEX_BUILDS);}
+
+  @Override
+  public long getHashIndexLookups() {return get(Counter.HASH_INDEX_LOOKUPS);}
+
+  @Override
+  public long getResultCacheHits() {return get(Counter.RESULT_CACHE_HITS);}
+
+  @Override
+  public long getResultCacheMisses() {return get(Counter.RESULT_CACHE_MISSES);}
+
+  @Override
+  public double getResultCacheHitRate() {
+    long hits = getResultCacheHits(), lookups = hits + getResultCacheMisses();
+    return lookups > 0 ? (double) hits / lookups : 0;
+  }
+
+  @Override
+  public Map<String, Long> getOperatorNanos() {
+    var result = new LinkedHashMap<String, Long>();
+    for (var op : Operator.values()) result.put(op.label(), nanos(op));
+    return result;
+  }
+}
@@ -0,0 +1,26 @@
+package sqlite.storage;
+
+import java.util.Map;
+
+// The cumulative metrics of all statements executed by this process, as
+// exposed through JMX.
+public interface MetricsMXBean {
+  long getStatements();
+  long getPagesRead();
+  long getPagesPrefetched();
+  long getCacheHits();
+  long getBytesRead();
+  long getRecordsDecoded();
+  long getRowsEmitted();
+  long getIndexLookups();
+  long getTableScans();
+  long getLeafHintHits();
+  long getBloomFilterHits();
+  long getBloomFalsePositives();
+  long getHashIndexBuilds();
+  long getHashIndexLookups();
+  long getResultCacheHits();
+  long getResultCacheMisses();
+  double getResultCacheHitRate();
+  Map<String, Long> getOperatorNanos();
+}
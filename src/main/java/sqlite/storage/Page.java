@@ -1,11 +1,16 @@
 package sqlite.storage;
 
+import sqlite.query.Collation;
+import sqlite.query.Value;
+
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
-public sealed abstract class Page<T> permits Page.LeafPage, Page.InteriorPage {
+public sealed abstract class Page<T>
+    implements AutoCloseable
+    permits Page.LeafPage, Page.InteriorPage {
   public enum Type {
     TABLE_LEAF(0x0d),
     TABLE_INTERIOR(0x05),
@@ -30,30 +35,130 @@ public sealed abstract class Page<T> permits Page.LeafPage, Page.InteriorPage {
   private final int base;
   private final short numCells;
   private final Charset charset;
+  private final StorageEngine storage;
+  // the page size less the bytes reserved at the end of each page
+  private final int usableSize;
+  private PageCache.Frame frame;
 
-  protected Page(ByteBuffer buf, int base, Charset charset) {
+  protected Page(ByteBuffer buf, int base, Charset charset,
+                 StorageEngine storage) {
     this.base = base;
     this.buf = buf;
     this.numCells = buf.position(base + 3).getShort();
     this.charset = charset;
+    this.storage = storage;
+    this.usableSize = storage != null ? storage.usableSize() : buf.capacity();
+  }
+
+  // Keeps the page's buffer pinned in the cache until the page is closed.
+  Page<T> pin(PageCache.Frame frame) {
+    this.frame = frame;
+    return this;
+  }
+
+  // Releases the page's buffer, which may then be reused for another page.
+  // Records that were already parsed remain valid.
+  @Override
+  public void close() {
+    if (frame == null) return;
+    frame.close();
+    frame = null;
   }
 
   protected short getNumCells() {
     return numCells;
   }
 
+  protected ByteBuffer buffer() {
+    return buf;
+  }
+
   protected Charset getCharset() {
     return charset;
   }
 
-  protected short cellOffset(int index) {
-    return buf.position(base + headerSize() + index * 2).getShort();
+  protected int usableSize() {
+    return usableSize;
+  }
+
+  // Offsets are unsigned, since they can exceed 32767 in 65536-byte pages.
+  protected int cellOffset(int index) {
+    return Short.toUnsignedInt(
+        buf.position(base + headerSize() + index * 2).getShort());
+  }
+
+  // The number of bytes of a payload that are stored in the cell itself. The
+  // rest spills onto a chain of overflow pages, see "Cell Payload Overflow
+  // Pages" in the file format documentation.
+  static int localPayloadSize(int usableSize, int size, boolean tableLeaf) {
+    int maxLocal = tableLeaf
+        ? usableSize - 35
+        : (usableSize - 12) * 64 / 255 - 23;
+    if (size <= maxLocal) return size;
+    int minLocal = (usableSize - 12) * 32 / 255 - 23;
+    int local = minLocal + (size - minLocal) % (usableSize - 4);
+    return local <= maxLocal ? local : minLocal;
+  }
+
+  protected byte[] readPayload(ByteBuffer buf, int offset, int size) {
+    var payload = new byte[size];
+    int local = localPayloadSize(usableSize, size,
+                                 this instanceof TableLeafPage);
+    buf.position(offset).get(payload, 0, local);
+    if (local < size) {
+      if (storage == null) {
+        throw new StorageException("can't read overflow pages without storage");
+      }
+      int overflowPage = buf.position(offset + local).getInt();
+      storage.readOverflow(overflowPage, payload, local);
+    }
+    return payload;
+  }
+
+  private static final int INCOMPARABLE = Integer.MIN_VALUE;
+
+  // Compares the first column of the record at buf[offset:] with TEXT
+  // encoded in the database's charset, byte by byte as the BINARY collation
+  // does, without copying or decoding the record. Returns INCOMPARABLE if the
+  // column isn't entirely within the first local bytes.
+  private static int compareText(ByteBuffer buf, int offset, int local,
+                                 byte[] text) {
+    long headerSize = VarInt.get(buf, offset);
+    long type = VarInt.get(buf, VarInt.skip(buf, offset));
+    // NULL and numbers sort before TEXT, and BLOBs after
+    if (type < 12) return -1;
+    if (type % 2 == 0) return 1;
+    int length = (int) ((type - 13) / 2);
+    int start = offset + (int) headerSize;
+    if (headerSize + length > local) return INCOMPARABLE;
+    int n = Math.min(length, text.length);
+    for (int i = 0; i < n; i++) {
+      int cmp = Byte.compareUnsigned(buf.get(start + i), text[i]);
+      if (cmp != 0) return Integer.signum(cmp);
+    }
+    return Integer.compare(length, text.length);
   }
 
+  // Compares the first column of the index key whose payload size varint is
+  // at buf[offset] with value. If value is TEXT and the collation is BINARY,
+  // its encoding can be passed as text to compare without decoding the key.
+  protected int compareKeyAt(int index, int offset, Value value, byte[] text,
+                             Collation collation) {
+    if (text != null) {
+      int size = (int) VarInt.get(buf, offset);
+      int local = localPayloadSize(usableSize, size, false);
+      int cmp = compareText(buf, VarInt.skip(buf, offset), local, text);
+      if (cmp != INCOMPARABLE) return cmp;
+    }
+    var key = ((IndexPage) this).key(index).indexKey().getFirst();
+    return Integer.signum(Value.compare(key, value, collation));
+  }
+
+  // Parses every record on the page. B-tree traversal reads cells by index
+  // instead, which parses only what it compares.
   public Stream<T> records() {
-    final var n = new AtomicInteger(0);
-    return Stream.generate(() -> parseRecord(n.getAndIncrement(), buf))
-                 .limit(numRecords());
+    return IntStream.range(0, numRecords())
+                    .mapToObj(index -> parseRecord(index, buf));
   }
 
   // All page types must implement:
@@ -62,12 +167,17 @@ public sealed abstract class Page<T> permits Page.LeafPage, Page.InteriorPage {
   protected abstract T parseRecord(int index, ByteBuffer buf);
 
   static Page<?> from(ByteBuffer buf, int base, Charset charset) {
+    return from(buf, base, charset, null);
+  }
+
+  static Page<?> from(ByteBuffer buf, int base, Charset charset,
+                      StorageEngine storage) {
     byte type = buf.position(base).get();
     return switch (type) {
-      case 0x02 -> new IndexInteriorPage(buf, base, charset);
-      case 0x05 -> new TableInteriorPage(buf, base, charset);
-      case 0x0a -> new IndexLeafPage(buf, base, charset);
-      case 0x0d -> new TableLeafPage(buf, base, charset);
+      case 0x02 -> new IndexInteriorPage(buf, base, charset, storage);
+      case 0x05 -> new TableInteriorPage(buf, base, charset, storage);
+      case 0x0a -> new IndexLeafPage(buf, base, charset, storage);
+      case 0x0d -> new TableLeafPage(buf, base, charset, storage);
       default ->
           throw new StorageException("invalid page type: %x".formatted(type));
     };
@@ -80,8 +190,9 @@ public sealed abstract class Page<T> permits Page.LeafPage, Page.InteriorPage {
   static sealed abstract class LeafPage<T>
       extends Page<T>
       permits TableLeafPage, IndexLeafPage {
-    private LeafPage(ByteBuffer buf, int base, Charset charset) {
-      super(buf, base, charset);
+    private LeafPage(ByteBuffer buf, int base, Charset charset,
+                     StorageEngine storage) {
+      super(buf, base, charset, storage);
     }
 
     @Override
@@ -96,8 +207,9 @@ public sealed abstract class Page<T> permits Page.LeafPage, Page.InteriorPage {
       permits TableInteriorPage, IndexInteriorPage {
     private final int rightPage;
 
-    private InteriorPage(ByteBuffer buf, int base, Charset charset) {
-      super(buf, base, charset);
+    private InteriorPage(ByteBuffer buf, int base, Charset charset,
+                         StorageEngine storage) {
+      super(buf, base, charset, storage);
       rightPage = buf.position(base + 8).getInt();
     }
 
@@ -107,6 +219,8 @@ public sealed abstract class Page<T> permits Page.LeafPage, Page.InteriorPage {
     @Override
     public int numRecords() {return getNumCells() + 1;}
 
+    int rightPage() {return rightPage;}
+
     protected record Cell<T>(int cellId, T payload) {}
 
     protected abstract Cell<T> parseCell(int index, ByteBuffer buf);
@@ -142,7 +256,17 @@ public sealed abstract class Page<T> permits Page.LeafPage, Page.InteriorPage {
         "wanted table page, got %s".formatted(this.getClass()));
   }
 
-  public sealed interface IndexPage permits IndexLeafPage, IndexInteriorPage {}
+  // Index pages can also be searched by key without parsing every record.
+  public sealed interface IndexPage permits IndexLeafPage, IndexInteriorPage {
+    int numKeys();
+
+    Index.Key key(int index);
+
+    // Returns the sign of the first column of key(index) minus value, where
+    // text is value encoded in the database's charset if it's TEXT and the
+    // collation is BINARY, or null.
+    int compareKey(int index, Value value, byte[] text, Collation collation);
+  }
 
   public IndexPage asIndexPage() {
     if (this instanceof IndexPage page) return page;
@@ -159,29 +283,75 @@ public sealed abstract class Page<T> permits Page.LeafPage, Page.InteriorPage {
   static final class TableLeafPage
       extends LeafPage<Row>
       implements TablePage {
-    TableLeafPage(ByteBuffer buf, int base, Charset charset) {
-      super(buf, base, charset);
+    TableLeafPage(ByteBuffer buf, int base, Charset charset,
+                  StorageEngine storage) {
+      super(buf, base, charset, storage);
     }
 
     @Override
     protected Row parseRecord(int index, ByteBuffer buf) {
       int offset = cellOffset(index);
-      var payloadSize = VarInt.parseFrom(buf.position(offset));
-      offset += payloadSize.size();
-      var rowId = VarInt.parseFrom(buf.position(offset));
-      offset += rowId.size();
-      var payload = new byte[(int) payloadSize.value()];
-      buf.position(offset).get(payload);
-      // TODO: overflow pages
-      return new Row(rowId.value(), Record.parse(payload, getCharset()));
+      int payloadSize = (int) VarInt.get(buf, offset);
+      offset = VarInt.skip(buf, offset);
+      long rowId = VarInt.get(buf, offset);
+      offset = VarInt.skip(buf, offset);
+      var payload = readPayload(buf, offset, payloadSize);
+      return new Row(rowId, Record.parse(payload, getCharset()));
+    }
+
+    Row row(int index) {return parseRecord(index, buffer());}
+
+    // The index of the cell with the rowid, or -1 if there's none. Cells are
+    // in rowid order.
+    int find(long rowId) {
+      int lo = 0, hi = numRecords();
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (rowId(mid) < rowId) lo = mid + 1;
+        else hi = mid;
+      }
+      return lo < numRecords() && rowId(lo) == rowId ? lo : -1;
+    }
+
+    long rowId(int index) {
+      var buf = buffer();
+      return VarInt.get(buf, VarInt.skip(buf, cellOffset(index)));
+    }
+
+    // A copy of the record in a cell, which stays valid after the page is
+    // released.
+    byte[] record(int index) {
+      var buf = buffer();
+      int offset = cellOffset(index);
+      int size = (int) VarInt.get(buf, offset);
+      offset = VarInt.skip(buf, VarInt.skip(buf, offset));
+      return readPayload(buf, offset, size);
+    }
+
+    // Decodes the row in a cell into the next row of the batch, in place
+    // unless it spills onto overflow pages.
+    void decode(int index, Batch batch) {
+      var buf = buffer();
+      int offset = cellOffset(index);
+      int size = (int) VarInt.get(buf, offset);
+      offset = VarInt.skip(buf, offset);
+      long rowId = VarInt.get(buf, offset);
+      offset = VarInt.skip(buf, offset);
+      if (localPayloadSize(usableSize(), size, true) < size) {
+        var payload = ByteBuffer.wrap(readPayload(buf, offset, size));
+        batch.add(rowId, payload, 0);
+      } else {
+        batch.add(rowId, buf, offset);
+      }
     }
   }
 
   static final class TableInteriorPage
       extends InteriorPage<Long>
       implements TablePage {
-    private TableInteriorPage(ByteBuffer buf, int base, Charset charset) {
-      super(buf, base, charset);
+    private TableInteriorPage(ByteBuffer buf, int base, Charset charset,
+                              StorageEngine storage) {
+      super(buf, base, charset, storage);
     }
 
     @Override
@@ -189,37 +359,75 @@ public sealed abstract class Page<T> permits Page.LeafPage, Page.InteriorPage {
       if (index >= getNumCells()) throw new AssertionError("index < numCells");
       int offset = cellOffset(index);
       int pageNumber = buf.position(offset).getInt();
-      var rowId = VarInt.parseFrom(buf.position(offset + 4));
-      return new Cell<>(pageNumber, rowId.value());
+      return new Cell<>(pageNumber, VarInt.get(buf, offset + 4));
+    }
+
+    int numKeys() {return getNumCells();}
+
+    // The largest rowid under child(index).
+    long key(int index) {
+      if (index >= getNumCells()) throw new AssertionError("index < numCells");
+      return VarInt.get(buffer(), cellOffset(index) + 4);
+    }
+
+    // The page holding the rowids after key(index - 1) up to key(index), or
+    // the right page after the last key.
+    int child(int index) {
+      if (index == getNumCells()) return rightPage();
+      return buffer().getInt(cellOffset(index));
+    }
+
+    // The index of the child that would hold the rowid.
+    int find(long rowId) {
+      int lo = 0, hi = numKeys();
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (key(mid) < rowId) lo = mid + 1;
+        else hi = mid;
+      }
+      return lo;
     }
   }
 
   static final class IndexLeafPage
       extends LeafPage<Index.Key>
       implements IndexPage {
-    IndexLeafPage(ByteBuffer buf, int base, Charset charset) {
-      super(buf, base, charset);
+    IndexLeafPage(ByteBuffer buf, int base, Charset charset,
+                  StorageEngine storage) {
+      super(buf, base, charset, storage);
     }
 
     @Override
     protected Index.Key parseRecord(int index, ByteBuffer buf) {
       if (index >= getNumCells()) throw new AssertionError("index < numCells");
       int offset = cellOffset(index);
-      var payloadSize = VarInt.parseFrom(buf.position(offset));
-      offset += payloadSize.size();
-      var payload = new byte[(int) payloadSize.value()];
-      buf.position(offset).get(payload);
+      int payloadSize = (int) VarInt.get(buf, offset);
+      offset = VarInt.skip(buf, offset);
+      var payload = readPayload(buf, offset, payloadSize);
       var record = Record.parse(payload, getCharset());
       var rowId = record.values().removeLast();
       return new Index.Key(record.values(), rowId.getInt());
     }
+
+    @Override
+    public int numKeys() {return getNumCells();}
+
+    @Override
+    public Index.Key key(int index) {return parseRecord(index, buffer());}
+
+    @Override
+    public int compareKey(int index, Value value, byte[] text,
+                          Collation collation) {
+      return compareKeyAt(index, cellOffset(index), value, text, collation);
+    }
   }
 
   static final class IndexInteriorPage
       extends InteriorPage<Index.Key>
       implements IndexPage {
-    private IndexInteriorPage(ByteBuffer buf, int base, Charset charset) {
-      super(buf, base, charset);
+    private IndexInteriorPage(ByteBuffer buf, int base, Charset charset,
+                              StorageEngine storage) {
+      super(buf, base, charset, storage);
     }
 
     @Override
@@ -228,14 +436,31 @@ public sealed abstract class Page<T> permits Page.LeafPage, Page.InteriorPage {
       int offset = cellOffset(index);
       int pageNumber = buf.position(offset).getInt();
       offset += 4;
-      var payloadSize = VarInt.parseFrom(buf.position(offset));
-      offset += payloadSize.size();
-      var payload = new byte[(int) payloadSize.value()];
-      buf.position(offset).get(payload);
+      int payloadSize = (int) VarInt.get(buf, offset);
+      offset = VarInt.skip(buf, offset);
+      var payload = readPayload(buf, offset, payloadSize);
       var record = Record.parse(payload, getCharset());
       var rowId = record.values().removeLast();
       return new Cell<>(pageNumber,
                         new Index.Key(record.values(), rowId.getInt()));
     }
+
+    @Override
+    public int numKeys() {return getNumCells();}
+
+    @Override
+    public Index.Key key(int index) {return parseCell(index, buffer()).payload;}
+
+    @Override
+    public int compareKey(int index, Value value, byte[] text,
+                          Collation collation) {
+      return compareKeyAt(index, cellOffset(index) + 4, value, text,
+                          collation);
+    }
+
+    int child(int index) {
+      if (index >= getNumCells()) throw new AssertionError("index < numCells");
+      return buffer().getInt(cellOffset(index));
+    }
   }
 }
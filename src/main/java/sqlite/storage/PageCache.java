@@ -0,0 +1,161 @@
+package sqlite.storage;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// A least-recently-used cache of raw page contents with a budget in bytes.
+// A single cache can be shared by several storage engines, in which case the
+// budget covers all of them.
+//
+// Pages live in direct buffers that are recycled when pages are evicted, so
+// reading through the cache doesn't allocate once it's full. Readers pin the
+// pages they use and must close the frame when they're done with it, after
+// which its buffer may be reused for another page. Pinned pages are never
+// evicted, so the cache can exceed its budget while they're in use.
+public class PageCache {
+  public static final long DEFAULT_CAPACITY = 2 << 20;
+  private static final long MIN_FREE_PAGES = 32;
+
+  private record Key(Object owner, int pageNumber) {}
+
+  public final class Frame implements AutoCloseable {
+    private final ByteBuffer buf;
+    private int pins = 1;
+    private boolean invalidated = false;
+    // read ahead of a scan and not used yet
+    private boolean prefetched = false;
+
+    private Frame(ByteBuffer buf) {
+      this.buf = buf;
+    }
+
+    // Returns a view of the page with its own position and limit.
+    ByteBuffer buffer() {
+      return buf.duplicate().order(ByteOrder.BIG_ENDIAN);
+    }
+
+    @Override
+    public void close() {
+      unpin(this);
+    }
+  }
+
+  private final long capacity;
+  private final LinkedHashMap<Key, Frame> pages =
+      new LinkedHashMap<>(16, 0.75f, true);
+  private final Map<Integer, ArrayDeque<ByteBuffer>> free = new HashMap<>();
+  private long size = 0;
+  private long freeSize = 0;
+
+  public PageCache(long capacity) {
+    this.capacity = capacity;
+  }
+
+  public PageCache() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  // Returns a buffer for reading a page into, reusing an evicted one if
+  // possible. It must be passed to put or release.
+  synchronized ByteBuffer allocate(int pageSize) {
+    var buffers = free.get(pageSize);
+    if (buffers == null || buffers.isEmpty()) {
+      return ByteBuffer.allocateDirect(pageSize).order(ByteOrder.BIG_ENDIAN);
+    }
+    freeSize -= pageSize;
+    return buffers.pop().clear();
+  }
+
+  synchronized void release(ByteBuffer buf) {
+    // a few free buffers are enough to replace evicted pages in steady state
+    long limit = Math.max(capacity / 4, MIN_FREE_PAGES * buf.capacity());
+    if (freeSize + buf.capacity() > limit) return;
+    free.computeIfAbsent(buf.capacity(), k -> new ArrayDeque<>()).push(buf);
+    freeSize += buf.capacity();
+  }
+
+  // Returns the cached page, pinned, or null if it isn't cached.
+  synchronized Frame get(Object owner, int pageNumber) {
+    var frame = pages.get(new Key(owner, pageNumber));
+    if (frame != null) frame.pins++;
+    return frame;
+  }
+
+  synchronized boolean contains(Object owner, int pageNumber) {
+    return pages.containsKey(new Key(owner, pageNumber));
+  }
+
+  // Caches a page read into a buffer from allocate and returns it pinned. If
+  // another reader cached the page first, that copy is returned instead.
+  synchronized Frame put(Object owner, int pageNumber, ByteBuffer page) {
+    return put(owner, pageNumber, page, false);
+  }
+
+  // Caches a page read ahead of its first use, which isn't a hit.
+  synchronized Frame putPrefetched(Object owner, int pageNumber,
+                                   ByteBuffer page) {
+    return put(owner, pageNumber, page, true);
+  }
+
+  private Frame put(Object owner, int pageNumber, ByteBuffer page,
+                    boolean prefetched) {
+    var key = new Key(owner, pageNumber);
+    var frame = pages.get(key);
+    if (frame != null) {
+      frame.pins++;
+      release(page);
+      return frame;
+    }
+    frame = new Frame(page);
+    frame.prefetched = prefetched;
+    pages.put(key, frame);
+    size += page.capacity();
+    evict();
+    return frame;
+  }
+
+  // Whether this is the first use of a prefetched page. Only the first call
+  // for the page returns true.
+  synchronized boolean firstUse(Frame frame) {
+    boolean first = frame.prefetched;
+    frame.prefetched = false;
+    return first;
+  }
+
+  // Drops all of an owner's pages. Pinned pages stay readable until they're
+  // unpinned, but can no longer be found.
+  synchronized void invalidate(Object owner) {
+    var it = pages.entrySet().iterator();
+    while (it.hasNext()) {
+      var entry = it.next();
+      if (entry.getKey().owner() != owner) continue;
+      var frame = entry.getValue();
+      it.remove();
+      size -= frame.buf.capacity();
+      if (frame.pins > 0) frame.invalidated = true;
+      else release(frame.buf);
+    }
+  }
+
+  private synchronized void unpin(Frame frame) {
+    if (frame.pins <= 0) throw new IllegalStateException("page not pinned");
+    if (--frame.pins > 0) return;
+    if (frame.invalidated) release(frame.buf);
+    else if (size > capacity) evict();
+  }
+
+  private void evict() {
+    var it = pages.values().iterator();
+    while (size > capacity && it.hasNext()) {
+      var frame = it.next();
+      if (frame.pins > 0) continue;
+      it.remove();
+      size -= frame.buf.capacity();
+      release(frame.buf);
+    }
+  }
+}
@@ -0,0 +1,26 @@
+package sqlite.storage;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("sqlite.PageRead")
+@Label("Page Read")
+@Category({"SQLite", "Storage"})
+@Description("A page fetched from the page cache or the database file")
+@StackTrace(false)
+@Enabled(false) // too frequent to record by default
+final class PageReadEvent extends jdk.jfr.Event {
+  @Label("Page Number")
+  int pageNumber;
+
+  @Label("Page Type")
+  String pageType;
+
+  @Label("Cached")
+  @Description("Whether the page was found in the page cache")
+  boolean cached;
+}
@@ -11,53 +11,75 @@ import java.util.List;
 // TODO: unit tests
 public record Record(List<Value> values) {
 
-  private record SizedValue(int size, Value value) {}
+  // The size of the content of a value with the given serial type.
+  static int contentSize(long serialType) {
+    return switch ((int) Math.min(serialType, 12)) {
+      case 0, 8, 9, 10, 11 -> 0;
+      case 5 -> 6;
+      case 6, 7 -> 8;
+      case 12 -> (int) ((serialType - 12) / 2);
+      default -> (int) serialType;
+    };
+  }
+
+  // Reads an integer with serial type 1 to 6 at buf[offset].
+  static long integer(ByteBuffer buf, int offset, int serialType) {
+    return switch (serialType) {
+      case 1 -> buf.get(offset);
+      case 2 -> buf.getShort(offset);
+      // the high byte is signed
+      case 3 -> (buf.get(offset) << 16) |
+                (Byte.toUnsignedInt(buf.get(offset + 1)) << 8) |
+                Byte.toUnsignedInt(buf.get(offset + 2));
+      case 4 -> buf.getInt(offset);
+      // the high short is signed
+      case 5 -> ((long) buf.getShort(offset) << 32) |
+                Integer.toUnsignedLong(buf.getInt(offset + 2));
+      case 6 -> buf.getLong(offset);
+      default -> throw new AssertionError(
+          "not an integer serial type: %d".formatted(serialType));
+    };
+  }
 
   public static Record parse(byte[] payload, Charset charset)
   throws StorageException {
+    Metrics.current().count(Metrics.Counter.RECORDS_DECODED);
     var values = new ArrayList<Value>();
     ByteBuffer buf = ByteBuffer.wrap(payload).order(ByteOrder.BIG_ENDIAN);
-    var headerSize = VarInt.parseFrom(buf.position(0));
-    int headerOffset = headerSize.size();
-    int contentOffset = (int) headerSize.value();
-    while (headerOffset < headerSize.value()) {
-      var serialType = VarInt.parseFrom(buf.position(headerOffset));
-      headerOffset += serialType.size();
-      int n = (int) serialType.value();
-      var sizedValue = switch (n) {
-        case 0 -> new SizedValue(0, new Value.NullValue());
-        case 1 -> new SizedValue(1, new Value.IntValue(
-            buf.position(contentOffset).get()));
-        case 2 -> new SizedValue(2, new Value.IntValue(
-            buf.position(contentOffset).getShort()));
-        case 3 -> new SizedValue(3, new Value.IntValue(
-            (Byte.toUnsignedInt(buf.position(contentOffset).get()) << 16) |
-            (Byte.toUnsignedInt(buf.position(contentOffset + 1).get()) << 8) |
-            (Byte.toUnsignedInt(buf.position(contentOffset + 2).get())))
-        );
-        case 4 -> new SizedValue(4, new Value.IntValue(
-            buf.position(contentOffset).getInt()));
-        case 8 -> new SizedValue(0, new Value.IntValue(0));
-        case 9 -> new SizedValue(0, new Value.IntValue(1));
+    int headerSize = (int) VarInt.get(buf, 0);
+    int headerOffset = VarInt.skip(buf, 0);
+    int contentOffset = headerSize;
+    while (headerOffset < headerSize) {
+      long serialType = VarInt.get(buf, headerOffset);
+      headerOffset = VarInt.skip(buf, headerOffset);
+      int n = (int) serialType;
+      var value = switch (n) {
+        case 0 -> new Value.NullValue();
+        case 1, 2, 3, 4, 5, 6 ->
+            new Value.IntValue(integer(buf, contentOffset, n));
+        case 7 -> {
+          double real = buf.getDouble(contentOffset);
+          // SQLite reads a stored NaN as NULL
+          yield Double.isNaN(real)
+              ? new Value.NullValue()
+              : new Value.RealValue(real);
+        }
+        case 8 -> new Value.IntValue(0);
+        case 9 -> new Value.IntValue(1);
         default -> {
           if (n < 12) {
             throw new StorageException(
                 "invalid serial type: %d".formatted(n));
-          } else if (n % 2 == 0) {
-            var blob = new byte[(n - 12) / 2];
-            buf.position(contentOffset).get(blob);
-            yield new SizedValue((n - 12) / 2,
-                                 new Value.BlobValue(blob));
-          } else {
-            var data = new byte[(n - 13) / 2];
-            buf.position(contentOffset).get(data);
-            yield new SizedValue((n - 13) / 2, new Value.StringValue(
-                new String(data, charset)));
           }
+          var data = new byte[contentSize(n)];
+          buf.position(contentOffset).get(data);
+          yield n % 2 == 0
+              ? new Value.BlobValue(data)
+              : new Value.StringValue(new String(data, charset));
         }
       };
-      values.add(sizedValue.value());
-      contentOffset += sizedValue.size();
+      values.add(value);
+      contentOffset += contentSize(n);
     }
     return new Record(values);
   }
@@ -0,0 +1,109 @@
+package sqlite.storage;
+
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Rowids handed from a thread that finds them to one that reads them, with
+// room for a fixed number so that the finder waits when it gets too far
+// ahead. The finder ends the queue with the error that stopped it, if any,
+// which the reader gets once it has taken every rowid before it. Closing
+// the queue stops the finder at its next rowid.
+//
+// Locks rather than monitors, so virtual threads don't pin their carriers
+// while they wait.
+public final class RowIdQueue
+    implements PrimitiveIterator.OfLong, AutoCloseable {
+  // Thrown to the finder once the queue is closed.
+  static final class Closed extends RuntimeException {
+    private Closed() {
+      super("row id queue closed", null, false, false);
+    }
+  }
+
+  private final long[] rowIds;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition changed = lock.newCondition();
+  private int head = 0;
+  private int size = 0;
+  private boolean finished = false;
+  private boolean closed = false;
+  private RuntimeException error;
+
+  RowIdQueue(int capacity) {
+    this.rowIds = new long[capacity];
+  }
+
+  private void await() {
+    try {
+      changed.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new StorageException("interrupted", e);
+    }
+  }
+
+  void put(long rowId) {
+    lock.lock();
+    try {
+      while (size == rowIds.length && !closed) await();
+      if (closed) throw new Closed();
+      rowIds[(head + size) % rowIds.length] = rowId;
+      size++;
+      changed.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  void finish(RuntimeException error) {
+    lock.lock();
+    try {
+      finished = true;
+      this.error = error;
+      changed.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean hasNext() {
+    lock.lock();
+    try {
+      while (size == 0 && !finished) await();
+      if (size > 0) return true;
+      if (error != null) throw error;
+      return false;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public long nextLong() {
+    lock.lock();
+    try {
+      if (!hasNext()) throw new NoSuchElementException();
+      long rowId = rowIds[head];
+      head = (head + 1) % rowIds.length;
+      size--;
+      changed.signalAll();
+      return rowId;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void close() {
+    lock.lock();
+    try {
+      closed = true;
+      changed.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+}
@@ -1,12 +1,18 @@
 package sqlite.storage;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
 
-public class StorageEngine {
+public class StorageEngine implements AutoCloseable {
   private static final String SCHEMA = """
           CREATE TABLE sqlite_schema(
             type text,
@@ -18,13 +24,85 @@ public class StorageEngine {
       """;
 
   private final int pageSize;
+  // the bytes of each page that hold data, before the ones reserved for
+  // extensions such as checksums
+  private final int usableSize;
   private final BackingFile file;
   private final Charset charset;
+  private final PageCache cache;
+  private final Wal wal; // null if the database isn't read in WAL mode
+  private Catalog catalog;
+
+  // The cache key for pages read from the database file, which changes when
+  // another process may have overwritten them.
+  private volatile Object fileGeneration = new Object();
+
+  // As of the last refresh. The schema generation counts schema changes,
+  // and the data generation counts changes to any page.
+  private int changeCounter;
+  private int schemaCookie;
+  private volatile long schemaGeneration = 0;
+  private volatile long dataGeneration = 0;
+
+  // Where recent point lookups found their rows, if enabled, and the file
+  // they're saved to on close.
+  private volatile LeafHints hints;
+  private Path hintsPath;
+
+  // The most memory the Bloom filter over each index's keys may take, or 0
+  // if indices aren't filtered.
+  public static final long DEFAULT_BLOOM_FILTER_BYTES = 1 << 20;
+  private volatile long bloomFilterBytes = 0;
+
+  // Reads issued ahead of a scan that haven't reached the cache yet.
+  static final int PREFETCH_WINDOW = 16;
+  private final Map<Location, CompletableFuture<Void>> prefetching =
+      new ConcurrentHashMap<>();
+  private final Semaphore prefetchPermits = new Semaphore(PREFETCH_WINDOW);
+  private volatile boolean prefetch = true;
+
+  // The tables and indices described by the schema, parsed once.
+  private record Catalog(List<Table> tables, List<Index> indices) {}
 
   public StorageEngine(BackingFile file) {
+    this(file, new PageCache());
+  }
+
+  public StorageEngine(BackingFile file, PageCache cache) {
+    this(file, cache, null);
+  }
+
+  // Reads a database along with its write-ahead log, if it has one.
+  public static StorageEngine open(Path path, PageCache cache)
+  throws IOException {
+    var file = new BackingFile(Files.newByteChannel(path));
+    try {
+      return new StorageEngine(file, cache, Wal.pathFor(path));
+    } catch (RuntimeException e) {
+      file.close();
+      throw e;
+    }
+  }
+
+  private StorageEngine(BackingFile file, PageCache cache, Path walPath) {
     this.file = file;
-    var header = Header.read(file);
+    this.cache = cache;
+    this.wal = walPath != null ? new Wal(walPath) : null;
+    // the header is on page 1, which may only have been written to the log
+    if (wal != null) wal.refresh();
+    var header = Header.read(wal != null && wal.frame(1) != 0
+        ? new Location(null, 1, wal.file(), wal.frameOffset(wal.frame(1)) +
+                                            Wal.FRAME_HEADER_SIZE)
+        : new Location(null, 1, file, 0));
     this.pageSize = header.pageSize;
+    this.usableSize = header.pageSize - header.reserved;
+    this.changeCounter = readChangeCounter();
+    this.schemaCookie = header.schemaCookie;
+    if (wal != null && wal.pageSize() != 0 && wal.pageSize() != pageSize) {
+      throw new StorageException(
+          "wal page size %d doesn't match database page size %d".formatted(
+              wal.pageSize(), pageSize));
+    }
     this.charset = switch (header.encoding) {
       case Utf16be -> StandardCharsets.UTF_16BE;
       case Utf16le -> StandardCharsets.UTF_16LE;
@@ -32,13 +110,129 @@ public class StorageEngine {
     };
   }
 
+  // The file change counter from the header in the database file itself,
+  // which every transaction that writes to the file increments. A new
+  // database in WAL mode may not have written the header yet.
+  private int readChangeCounter() {
+    var counter = ByteBuffer.allocate(4).order(ByteOrder.BIG_ENDIAN);
+    return file.read(counter, 24) == 4 ? counter.getInt(0) : 0;
+  }
+
+  private void invalidateFile() {
+    var stale = fileGeneration;
+    fileGeneration = new Object();
+    cache.invalidate(stale);
+  }
+
+  // Picks up changes made by other processes since the last refresh, and is
+  // called before each statement so that it sees the latest commit. Checking
+  // costs one small read of the header, and of the log's if there is one.
+  //
+  // Pages don't record when they were written, so a change to the database
+  // file drops all of its cached pages, as SQLite does. Pages read from the
+  // log stay cached, since a committed frame never changes, and the catalog
+  // and plans built from the schema survive unless the schema cookie changed.
+  public synchronized void refresh() {
+    var walChange = wal != null ? wal.refresh() : Wal.Change.NONE;
+    if (walChange == Wal.Change.RESET) {
+      // the log was checkpointed into the database file
+      invalidateFile();
+    }
+    int counter = readChangeCounter();
+    boolean fileChanged = counter != changeCounter;
+    if (fileChanged) {
+      changeCounter = counter;
+      invalidateFile();
+    }
+    if (fileChanged || walChange != Wal.Change.NONE) dataChanged();
+    int cookie;
+    try (var page1 = readPage(1, false)) {
+      cookie = page1.buffer().getInt(40);
+    }
+    if (cookie != schemaCookie) {
+      schemaCookie = cookie;
+      catalog = null;
+      schemaGeneration++;
+    }
+  }
+
+  // Changes whenever the schema does, so that anything derived from the
+  // tables and indices can tell when it must be rebuilt.
+  public long schemaGeneration() {
+    return schemaGeneration;
+  }
+
+  // Changes whenever a commit may have changed any page, so that anything
+  // derived from the rows can tell when it must be rebuilt.
+  public long dataGeneration() {
+    return dataGeneration;
+  }
+
+  private void dataChanged() {
+    dataGeneration++;
+    var hints = this.hints;
+    if (hints != null) hints.clear();
+  }
+
+  // Whether the change counter covers every commit, which it doesn't for
+  // commits still in the log.
+  private boolean isCheckpointed() {
+    return wal == null || wal.pageCount() == 0;
+  }
+
+  // Remembers the leaves that point lookups land in, so that lookups of
+  // nearby rowids can skip the interior pages, and keeps them in a file
+  // between processes. Hints saved when the database was different are
+  // ignored.
+  public synchronized void useLeafHints(Path path) throws IOException {
+    var hints = new LeafHints(LeafHints.DEFAULT_CAPACITY);
+    if (isCheckpointed()) hints.load(path, changeCounter, pageSize);
+    this.hintsPath = path;
+    this.hints = hints;
+  }
+
+  LeafHints leafHints() {
+    return hints;
+  }
+
+  // Keeps a Bloom filter over each index's keys, built by scanning the index
+  // the first time it's searched, so that searches for keys that aren't
+  // there don't read any pages. Passing 0 turns them off.
+  public void useBloomFilters(long maxBytes) {
+    if (maxBytes < 0) {
+      throw new IllegalArgumentException(
+          "bad Bloom filter size: %d".formatted(maxBytes));
+    }
+    this.bloomFilterBytes = maxBytes;
+  }
+
+  long bloomFilterBytes() {
+    return bloomFilterBytes;
+  }
+
+  @Override
+  public void close() {
+    try {
+      synchronized (this) {
+        if (hints != null && isCheckpointed()) {
+          hints.save(hintsPath, changeCounter, pageSize);
+        }
+      }
+    } catch (IOException e) {
+      throw new StorageException("failed to save leaf hints", e);
+    } finally {
+      if (wal != null) wal.close();
+      file.close();
+    }
+  }
+
   public Map<String, Object> getInfo() {
     return Map.of("database page size", pageSize, "number of tables",
                   getTables().size());
   }
 
   private Table schema() {
-    return new Table(this, "sqlite_schema", getPage(1).asTablePage(), SCHEMA);
+    return new Table(this, "sqlite_schema", 1, SCHEMA);
   }
 
   public List<Map<String, String>> getObjects() {
@@ -53,48 +247,68 @@ public class StorageEngine {
     return objects;
   }
 
-  public List<Index> getIndices() {
+  private synchronized Catalog catalog() {
+    if (catalog != null) return catalog;
+    var tables = new ArrayList<Table>();
+    var rows = schema().rows();
+    for (var r : rows) {
+      if (r.get("type").getString().equals("table")) {
+        tables.add(new Table(this, r.get("name").getString(),
+                             (int) r.get("rootpage").getInt(),
+                             r.get("sql").getString()));
+      }
+    }
     var indices = new ArrayList<Index>();
-    for (var r : schema().rows()) {
+    for (var r : rows) {
       if (r.get("type").getString().equals("index")) {
         var name = r.get("name").getString();
         var tableName = r.get("tbl_name").getString();
-        var table = getTable(tableName).orElseThrow(() -> new StorageException(
-            "index %s: table does not exist: %s".formatted(name, tableName)));
-        indices.add(new Index(this, name, table, getPage(
-            (int) r.get("rootpage").getInt()).asIndexPage(),
+        var table = tables.stream()
+                          .filter(t -> t.name().equals(tableName))
+                          .findFirst()
+                          .orElseThrow(() -> new StorageException(
+                              "index %s: table does not exist: %s".formatted(
+                                  name, tableName)));
+        indices.add(new Index(this, name, table,
+                              (int) r.get("rootpage").getInt(),
                               r.get("sql").getString()));
       }
     }
-    return indices;
+    catalog = new Catalog(List.copyOf(tables), List.copyOf(indices));
+    return catalog;
   }
 
-  public List<Table> getTables() {
-    var tables = new ArrayList<Table>();
-    for (var r : schema().rows()) {
-      if (r.get("type").getString().equals("table")) {
-        tables.add(new Table(this, r.get("name").getString(), getPage(
-            (int) r.get("rootpage").getInt()).asTablePage(),
-                             r.get("sql").getString()));
-      }
-    }
-    return tables;
+  Charset charset() {
+    return charset;
+  }
+
+  public List<Index> getIndices() {
+    return catalog().indices();
   }
 
-  private Optional<Table> getTable(String name) {
-    return getTables().stream().filter(t -> t.name().equals(name)).findFirst();
+  public List<Table> getTables() {
+    return catalog().tables();
   }
 
   private enum TextEncoding {Utf8, Utf16le, Utf16be}
 
-  private record Header(int pageSize, int pageCount, TextEncoding encoding) {
-    static Header read(BackingFile file) {
+  private record Header(int pageSize, int reserved, int pageCount,
+                        int schemaCookie, TextEncoding encoding) {
+    static Header read(Location page1) {
       var bytes = ByteBuffer.allocate(100).order(ByteOrder.BIG_ENDIAN);
-      if (file.seek(0).read(bytes) != 100) {
+      if (page1.file().read(bytes, page1.offset()) != 100) {
         throw new StorageException("invalid header: must contain 100 bytes");
       }
       int pageSize = Short.toUnsignedInt(bytes.position(16).getShort());
+      if (pageSize == 1) pageSize = 65536;
+      int reserved = Byte.toUnsignedInt(bytes.get(20));
+      if (pageSize - reserved < 480) {
+        throw new StorageException(
+            "bad reserved space: %d bytes of %d-byte pages".formatted(
+                reserved, pageSize));
+      }
       int pageCount = bytes.position(28).getInt();
+      int schemaCookie = bytes.position(40).getInt();
       int encoding = bytes.position(56).getInt();
       TextEncoding textEncoding = switch (encoding) {
         case 1 -> TextEncoding.Utf8;
@@ -103,18 +317,172 @@ public class StorageEngine {
         default ->
             throw new StorageException("bad encoding: %d".formatted(encoding));
       };
-      return new Header(pageSize, pageCount, textEncoding);
+      return new Header(pageSize, reserved, pageCount, schemaCookie,
+                        textEncoding);
     }
   }
 
-  Page<?> getPage(int pageNumber) {
-    var page = ByteBuffer.allocate(pageSize).order(ByteOrder.BIG_ENDIAN);
-    long offset = (long) (pageNumber - 1) * pageSize;
-    int read = file.seek(offset).read(page);
+  private static String pageType(ByteBuffer page, int pageNumber,
+                                 boolean overflow) {
+    if (overflow) return "overflow";
+    return switch (page.get(pageNumber == 1 ? 100 : 0)) {
+      case 0x02 -> "index interior";
+      case 0x05 -> "table interior";
+      case 0x0a -> "index leaf";
+      case 0x0d -> "table leaf";
+      default -> "unknown";
+    };
+  }
+
+  // Returns the page, pinned in the cache until the frame is closed.
+  private PageCache.Frame readPage(int pageNumber, boolean overflow) {
+    var event = new PageReadEvent();
+    event.begin();
+    var frame = fetchPage(pageNumber, event);
+    if (event.shouldCommit()) {
+      event.pageNumber = pageNumber;
+      event.pageType = pageType(frame.buffer(), pageNumber, overflow);
+      event.commit();
+    }
+    return frame;
+  }
+
+  // Where the current version of a page is: either a page of the database
+  // file or a frame of the write-ahead log. The owner and number identify
+  // that version in the cache.
+  private record Location(Object owner, int number, BackingFile file,
+                          long offset) {}
+
+  private Location locate(int pageNumber) {
+    if (wal != null) {
+      synchronized (wal) {
+        int frame = wal.frame(pageNumber);
+        if (frame != 0) {
+          return new Location(wal.generation(), frame, wal.file(),
+                              wal.frameOffset(frame) + Wal.FRAME_HEADER_SIZE);
+        }
+      }
+    }
+    return new Location(fileGeneration, pageNumber, file,
+                        (long) (pageNumber - 1) * pageSize);
+  }
+
+  // Reads a page into a buffer from the cache, counting the read into the
+  // current metrics. The buffer must be passed to the cache.
+  private ByteBuffer readFromFile(Location location) {
+    var page = cache.allocate(pageSize);
+    int read = location.file().read(page, location.offset());
     if (read != page.capacity()) {
+      cache.release(page);
       throw new StorageException(
           "bad page size: want %d, got %d".formatted(page.capacity(), read));
     }
-    return Page.from(page, pageNumber == 1 ? 100 : 0, charset);
+    var metrics = Metrics.current();
+    metrics.count(Metrics.Counter.PAGES_READ);
+    metrics.count(Metrics.Counter.BYTES_READ, pageSize);
+    return page.clear();
+  }
+
+  private PageCache.Frame fetchPage(int pageNumber, PageReadEvent event) {
+    var location = locate(pageNumber);
+    var frame = cache.get(location.owner(), location.number());
+    if (frame == null) {
+      var pending = prefetching.get(location);
+      // errors are reported by the synchronous read below
+      if (pending != null && pending.handle((v, e) -> e == null).join()) {
+        frame = cache.get(location.owner(), location.number());
+      }
+    }
+    if (frame != null) {
+      // the prefetch counted the read
+      if (!cache.firstUse(frame)) {
+        Metrics.current().count(Metrics.Counter.CACHE_HITS);
+      }
+      event.cached = true;
+      return frame;
+    }
+    return cache.put(location.owner(), location.number(),
+                     readFromFile(location));
+  }
+
+  // Table scans read the next few pages on virtual threads while they visit
+  // the current one. On by default; turning it off leaves each scan to read
+  // its pages one at a time.
+  public void setPrefetch(boolean prefetch) {
+    this.prefetch = prefetch;
+  }
+
+  // Starts reading a page into the cache on a virtual thread, unless
+  // prefetching is off, the page is already cached or being read, or
+  // PREFETCH_WINDOW reads are in flight. The read is counted for the
+  // statement that asked for it.
+  void prefetch(int pageNumber) {
+    if (!prefetch) return;
+    var location = locate(pageNumber);
+    if (prefetching.containsKey(location) ||
+        cache.contains(location.owner(), location.number()) ||
+        !prefetchPermits.tryAcquire()) {
+      return;
+    }
+    var pending = new CompletableFuture<Void>();
+    if (prefetching.putIfAbsent(location, pending) != null) {
+      prefetchPermits.release();
+      return;
+    }
+    var statement = Metrics.current();
+    statement.count(Metrics.Counter.PAGES_PREFETCHED);
+    Thread.ofVirtual().start(() -> {
+      try {
+        ByteBuffer page;
+        // counted before the page can be found in the cache, so that the
+        // statement has the read by the time it's done with the page
+        try (var ignored = Metrics.startFor(statement)) {
+          page = readFromFile(location);
+        }
+        cache.putPrefetched(location.owner(), location.number(), page)
+             .close();
+        pending.complete(null);
+      } catch (RuntimeException e) {
+        pending.completeExceptionally(e);
+      } finally {
+        prefetching.remove(location);
+        prefetchPermits.release();
+      }
+    });
+  }
+
+  int usableSize() {
+    return usableSize;
+  }
+
+  // Returns the page, which must be closed when it's no longer needed.
+  Page<?> getPage(int pageNumber) {
+    var frame = readPage(pageNumber, false);
+    try {
+      var page = Page.from(frame.buffer(), pageNumber == 1 ? 100 : 0, charset,
+                           this);
+      return page.pin(frame);
+    } catch (RuntimeException e) {
+      frame.close();
+      throw e;
+    }
+  }
+
+  // Copies the rest of a payload from the chain of overflow pages starting at
+  // the given page into payload[offset:].
+  void readOverflow(int pageNumber, byte[] payload, int offset) {
+    while (offset < payload.length) {
+      if (pageNumber == 0) {
+        throw new StorageException("overflow chain ended after %d of %d bytes"
+                                       .formatted(offset, payload.length));
+      }
+      try (var frame = readPage(pageNumber, true)) {
+        var page = frame.buffer();
+        int n = Math.min(payload.length - offset, usableSize - 4);
+        page.position(4).get(payload, offset, n);
+        offset += n;
+        pageNumber = page.getInt(0);
+      }
+    }
   }
 }
@@ -1,23 +1,30 @@
 package sqlite.storage;
 
+import sqlite.query.Collation;
 import sqlite.query.Value;
 import sqlite.sql.AST;
 import sqlite.sql.Parser;
+import sqlite.sql.SQLException;
 import sqlite.sql.Scanner;
 
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
 
 public class Table {
   private final StorageEngine storage;
   private final String name;
-  private final Page.TablePage root;
+  private final int rootPage;
   private final AST.CreateTableStatement definition;
 
-  Table(StorageEngine storage, String name, Page.TablePage root,
-        String schema) {
+  Table(StorageEngine storage, String name, int rootPage, String schema) {
     this.storage = storage;
     this.name = name;
-    this.root = root;
+    this.rootPage = rootPage;
     this.definition = new Parser(new Scanner(schema)).createTable();
   }
 
@@ -27,6 +34,60 @@ public class Table {
            mods.contains("key");
   }
 
+  // words that start a column constraint rather than a type name
+  private static final Set<String> CONSTRAINTS = Set.of(
+      "constraint", "primary", "not", "null", "unique", "check", "default",
+      "collate", "references", "generated", "as");
+
+  // The column's declared type name in upper case, or "" if it has none.
+  private static String type(AST.ColumnDef col) {
+    var mods = col.modifiers();
+    if (mods.isEmpty()) return "";
+    var first = mods.getFirst();
+    return CONSTRAINTS.contains(first.toLowerCase()) ? "" : first.toUpperCase();
+  }
+
+  // Whether the column's declared type gives it REAL affinity, following the
+  // rules in "Determination Of Column Affinity" in the SQLite documentation.
+  private static boolean isReal(AST.ColumnDef col) {
+    var type = type(col);
+    if (type.contains("INT") || type.contains("CHAR") ||
+        type.contains("CLOB") || type.contains("TEXT")) {
+      return false;
+    }
+    return type.contains("REAL") || type.contains("FLOA") ||
+           type.contains("DOUB");
+  }
+
+  // Whether a column has INTEGER, REAL or NUMERIC affinity, rather than TEXT
+  // or BLOB, by the same rules. SQLite compares TEXT that looks like a
+  // number with such a column as that number.
+  public boolean isNumeric(String column) {
+    for (var col : definition.columns()) {
+      if (!col.name().equals(column)) continue;
+      var type = type(col);
+      if (type.contains("INT")) return true;
+      return !(type.isEmpty() || type.contains("CHAR") ||
+               type.contains("CLOB") || type.contains("TEXT") ||
+               type.contains("BLOB"));
+    }
+    return false;
+  }
+
+  // The collation declared by a column's COLLATE clause, or BINARY.
+  public Collation collation(String column) {
+    for (var col : definition.columns()) {
+      if (!col.name().equals(column)) continue;
+      var mods = col.modifiers();
+      for (int i = 0; i + 1 < mods.size(); i++) {
+        if (mods.get(i).equalsIgnoreCase("collate")) {
+          return Collation.of(mods.get(i + 1));
+        }
+      }
+    }
+    return Collation.BINARY;
+  }
+
   private Row parseRow(Page.Row row) {
     var record = new HashMap<String, Value>();
     for (int i = 0; i < definition.columns().size(); i++) {
@@ -34,50 +95,133 @@ public class Table {
       var val = isIntegerPK(col)
           ? new Value.IntValue(row.rowId())
           : row.values().values().get(i);
+      // SQLite stores whole REALs as integers to save space
+      if (val instanceof Value.IntValue(var x) && isReal(col)) {
+        val = new Value.RealValue(x);
+      }
       record.put(col.name(), val);
     }
     return new Row(row.rowId(), record);
   }
 
-  private void collect(Page.TablePage page, List<Row> rows) {
-    switch (page) {
-      case Page.TableLeafPage leaf -> leaf
-          .records()
-          .map(this::parseRow)
-          .forEach(rows::add);
+  // Visits the leaves under a page in rowid order, each while it's pinned.
+  private void forEachLeaf(int pageNumber,
+                           Consumer<Page.TableLeafPage> visitor) {
+    int[] children;
+    try (var page = storage.getPage(pageNumber)) {
+      switch (page.asTablePage()) {
+        case Page.TableLeafPage leaf -> {
+          visitor.accept(leaf);
+          return;
+        }
+        case Page.TableInteriorPage interior -> {
+          children = new int[interior.numKeys() + 1];
+          for (int i = 0; i < children.length; i++) {
+            children[i] = interior.child(i);
+          }
+        }
+      }
+    }
+    // keep reads in flight for the next few children while we scan
+    int ahead = 1;
+    for (int i = 0; i < children.length; i++) {
+      int end = Math.min(children.length,
+                         i + 1 + StorageEngine.PREFETCH_WINDOW);
+      for (; ahead < end; ahead++) storage.prefetch(children[ahead]);
+      forEachLeaf(children[i], visitor);
+    }
+  }
 
-      case Page.TableInteriorPage interior -> interior
-          .records()
-          .forEach(child -> collect(
-              storage.getPage(child.pageNumber()).asTablePage(), rows));
+  // A batch that decodes the given columns.
+  private Batch batch(List<String> columns) {
+    var defs = definition.columns();
+    var slots = new int[defs.size()];
+    var reals = new boolean[defs.size()];
+    int rowIdSlot = -1;
+    Arrays.fill(slots, -1);
+    for (int i = 0; i < defs.size(); i++) reals[i] = isReal(defs.get(i));
+    for (int slot = 0; slot < columns.size(); slot++) {
+      var name = columns.get(slot);
+      int i = 0;
+      while (i < defs.size() && !defs.get(i).name().equals(name)) i++;
+      if (i == defs.size()) {
+        throw new SQLException("no such column: %s".formatted(name));
+      }
+      slots[i] = slot;
+      if (isIntegerPK(defs.get(i))) rowIdSlot = slot;
     }
+    return new Batch(storage.charset(), columns.size(), slots, reals,
+                     rowIdSlot);
   }
 
-  // TODO: move this into IndexedPage and make its generic type Comparable
-  private static boolean contains(Pointer<Long> page, long rowId) {
-    if (page.left() instanceof Pointer.Bounded<Long> left &&
-        rowId < left.endpoint()) {
-      return false;
+  // Descends to the leaf that would hold the row and passes it to found with
+  // the index of the row's cell, while the leaf is pinned. Returns false if
+  // there's no such row.
+  private boolean lookup(int pageNumber, long rowId, BTreeDescentEvent event,
+                         ObjIntConsumer<Page.TableLeafPage> found) {
+    while (true) {
+      event.pagesVisited++;
+      try (var page = storage.getPage(pageNumber)) {
+        switch (page.asTablePage()) {
+          case Page.TableLeafPage leaf -> {
+            var hints = storage.leafHints();
+            int n = leaf.numRecords();
+            if (hints != null && n > 0) {
+              hints.put(new LeafHints.Hint(rootPage, leaf.rowId(0),
+                                           leaf.rowId(n - 1), pageNumber));
+            }
+            int i = leaf.find(rowId);
+            if (i < 0) return false;
+            found.accept(leaf, i);
+            return true;
+          }
+          case Page.TableInteriorPage interior ->
+              pageNumber = interior.child(interior.find(rowId));
+        }
+      }
     }
-    return !(page.right() instanceof Pointer.Bounded<Long> right) ||
-           rowId <= right.endpoint();
   }
 
-  private Optional<Row> lookup(Page.TablePage page, long rowId) {
-    return switch (page) {
-      case Page.TableInteriorPage interior -> interior
-          .records()
-          .filter(child -> contains(child, rowId))
-          .findFirst()
-          .flatMap(child -> lookup(
-              storage.getPage(child.pageNumber()).asTablePage(), rowId));
+  // Looks for the row on the leaf that the hints say holds it. Returns
+  // false if the leaf no longer covers the rowid, after dropping the hint.
+  // If the leaf does cover it, found is called only if the row exists.
+  private boolean lookupHinted(LeafHints hints, int pageNumber, long rowId,
+                               ObjIntConsumer<Page.TableLeafPage> found,
+                               boolean[] exists) {
+    try (var page = storage.getPage(pageNumber)) {
+      if (page instanceof Page.TableLeafPage leaf && leaf.numRecords() > 0 &&
+          leaf.rowId(0) <= rowId &&
+          rowId <= leaf.rowId(leaf.numRecords() - 1)) {
+        int i = leaf.find(rowId);
+        if (i >= 0) found.accept(leaf, i);
+        exists[0] = i >= 0;
+        return true;
+      }
+    }
+    hints.remove(rootPage, rowId);
+    return false;
+  }
 
-      case Page.TableLeafPage leaf -> leaf
-          .records()
-          .filter(child -> child.rowId() == rowId)
-          .map(this::parseRow)
-          .findFirst();
-    };
+  private boolean lookup(long rowId,
+                         ObjIntConsumer<Page.TableLeafPage> found) {
+    var hints = storage.leafHints();
+    int hinted = hints != null ? hints.get(rootPage, rowId) : 0;
+    var hit = new boolean[1];
+    if (hinted != 0 && lookupHinted(hints, hinted, rowId, found, hit)) {
+      Metrics.current().count(Metrics.Counter.LEAF_HINT_HITS);
+      return hit[0];
+    }
+    var event = new BTreeDescentEvent();
+    event.begin();
+    boolean exists = lookup(rootPage, rowId, event, found);
+    if (event.shouldCommit()) {
+      event.tree = name;
+      event.rootPage = rootPage;
+      event.key = Long.toString(rowId);
+      event.matches = exists ? 1 : 0;
+      event.commit();
+    }
+    return exists;
   }
 
   public record Row(long rowId, Map<String, Value> values) {
@@ -86,14 +230,127 @@ public class Table {
 
   public String name() {return name;}
 
-  // TODO: stream
+  int rootPage() {return rootPage;}
+
+  // Encodes TEXT as it's stored, to compare with Batch.Vector.bytesEqual.
+  public byte[] encode(String text) {
+    return text.getBytes(storage.charset());
+  }
+
+  public List<String> columns() {
+    return definition.columns().stream().map(AST.ColumnDef::name).toList();
+  }
+
   public List<Row> rows() {
     var rows = new ArrayList<Row>();
-    collect(root, rows);
+    forEachLeaf(rootPage, leaf -> {
+      for (int i = 0; i < leaf.numRecords(); i++) {
+        rows.add(parseRow(leaf.row(i)));
+      }
+    });
     return rows;
   }
 
+  // Passes all rows to the consumer in batches in rowid order, decoding only
+  // the given columns.
+  public void scan(List<String> columns, Consumer<Batch> consumer) {
+    var batch = batch(columns);
+    var metrics = Metrics.current();
+    forEachLeaf(rootPage, leaf -> {
+      int n = leaf.numRecords();
+      metrics.count(Metrics.Counter.RECORDS_DECODED, n);
+      for (int i = 0; i < n; i++) {
+        leaf.decode(i, batch);
+        if (!batch.isFull()) continue;
+        consumer.accept(batch);
+        batch.clear();
+      }
+    });
+    if (batch.size() > 0) consumer.accept(batch);
+  }
+
+  private StorageException notFound(long rowId) {
+    return new StorageException(
+        "row %d not found in table %s".formatted(rowId, name));
+  }
+
+  // Passes the rows with the given rowids to the consumer in batches, in
+  // the order given, decoding only the given columns.
+  public void fetch(Iterable<Long> rowIds, List<String> columns,
+                    Consumer<Batch> consumer) {
+    var batch = batch(columns);
+    var metrics = Metrics.current();
+    for (long rowId : rowIds) {
+      if (!lookup(rowId, (leaf, i) -> leaf.decode(i, batch))) {
+        throw notFound(rowId);
+      }
+      metrics.count(Metrics.Counter.RECORDS_DECODED);
+      if (!batch.isFull()) continue;
+      consumer.accept(batch);
+      batch.clear();
+    }
+    if (batch.size() > 0) consumer.accept(batch);
+  }
+
+  private record Cell(long rowId, byte[] record) {}
+
+  // Looks up a row on behalf of a statement running on another thread.
+  private Cell read(long rowId, Metrics statement) {
+    try (var ignored = Metrics.startFor(statement)) {
+      var record = new byte[1][];
+      if (!lookup(rowId, (leaf, i) -> record[0] = leaf.record(i))) {
+        throw notFound(rowId);
+      }
+      return new Cell(rowId, record[0]);
+    }
+  }
+
+  private static <T> T await(Future<T> future) {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException cause) throw cause;
+      throw new StorageException("fetch failed", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new StorageException("interrupted", e);
+    }
+  }
+
+  // Like fetch, but looks up as many as concurrency rows at once on virtual
+  // threads, so that the reads of their pages overlap when storage is slow.
+  // Rows are still passed in the order given, and decoded on this thread.
+  public void fetch(PrimitiveIterator.OfLong rowIds, List<String> columns,
+                    int concurrency, Consumer<Batch> consumer) {
+    var batch = batch(columns);
+    var statement = Metrics.current();
+    var pending = new ArrayDeque<Future<Cell>>();
+    try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      try {
+        while (true) {
+          while (pending.size() < concurrency && rowIds.hasNext()) {
+            long rowId = rowIds.nextLong();
+            pending.add(executor.submit(() -> read(rowId, statement)));
+          }
+          if (pending.isEmpty()) break;
+          var cell = await(pending.poll());
+          batch.add(cell.rowId(), ByteBuffer.wrap(cell.record()), 0);
+          statement.count(Metrics.Counter.RECORDS_DECODED);
+          if (!batch.isFull()) continue;
+          consumer.accept(batch);
+          batch.clear();
+        }
+      } finally {
+        // not interrupted, since that would close the database file
+        pending.forEach(future -> future.cancel(false));
+      }
+    }
+    if (batch.size() > 0) consumer.accept(batch);
+  }
+
   public Optional<Row> get(long rowId) {
-    return lookup(root, rowId);
+    var row = new ArrayList<Row>(1);
+    lookup(rowId, (leaf, i) -> row.add(parseRow(leaf.row(i))));
+    return row.stream().findFirst();
   }
 }
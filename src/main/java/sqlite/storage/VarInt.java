@@ -3,21 +3,60 @@ package sqlite.storage;
 import java.nio.ByteBuffer;
 
 public record VarInt(long value, int size) {
+  // Reads the varint at the buffer's position and moves past it.
   public static VarInt parseFrom(ByteBuffer buf) {
-    long value = 0;
-    int size;
-    for (size = 1; size <= 8; size++) {
-      byte b = buf.get();
-      int lower = Byte.toUnsignedInt(b) & 127;
-      value <<= 7;
-      value |= lower;
-      if (b >= 0) break;
+    int offset = buf.position();
+    int end = skip(buf, offset);
+    buf.position(end);
+    return new VarInt(get(buf, offset), end - offset);
+  }
+
+  // Reads the varint at buf[offset] without allocating or moving the
+  // buffer's position. Most varints in a database, such as serial types and
+  // the sizes of small records, are one or two bytes, so those are read
+  // without a loop.
+  public static long get(ByteBuffer buf, int offset) {
+    byte b = buf.get(offset);
+    if (b >= 0) return b;
+    byte c = buf.get(offset + 1);
+    if (c >= 0) return ((b & 127L) << 7) | c;
+    long value = ((b & 127L) << 7) | (c & 127);
+    for (int i = 2; i < 8; i++) {
+      b = buf.get(offset + i);
+      value = (value << 7) | (b & 127);
+      if (b >= 0) return value;
+    }
+    // all 8 bits of the ninth byte are used
+    return (value << 8) | (buf.get(offset + 8) & 255);
+  }
+
+  // Returns the offset just past the varint at buf[offset].
+  public static int skip(ByteBuffer buf, int offset) {
+    for (int i = 0; i < 8; i++) {
+      if (buf.get(offset + i) >= 0) return offset + i + 1;
     }
+    return offset + 9;
+  }
+
+  public static int sizeOf(long value) {
+    if ((value & 0xff00000000000000L) != 0) return 9;
+    int size = 1;
+    while ((value >>>= 7) != 0) size++;
+    return size;
+  }
+
+  public static void writeTo(ByteBuffer buf, long value) {
+    int size = sizeOf(value);
     if (size == 9) {
-      byte b = buf.get();
-      value <<= 8;
-      value |= b;
+      for (int shift = 57; shift >= 8; shift -= 7) {
+        buf.put((byte) (((value >>> shift) & 127) | 128));
+      }
+      buf.put((byte) value);
+      return;
+    }
+    for (int i = size - 1; i > 0; i--) {
+      buf.put((byte) (((value >>> (7 * i)) & 127) | 128));
     }
-    return new VarInt(value, size);
+    buf.put((byte) (value & 127));
   }
 }
@@ -0,0 +1,246 @@
+package sqlite.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+
+// Reads the write-ahead log of a database in WAL mode, see "The WAL File
+// Format" in the SQLite file format documentation.
+//
+// Committed pages are found through a frame index from page number to the
+// latest committed frame for the page, which is kept between statements and
+// extended with the frames appended since the last refresh. Frames after the
+// last commit frame, and any after a frame with bad salts or checksum, are
+// ignored until a later refresh finds them committed.
+//
+// This doesn't take SQLite's shared-memory read locks, so a checkpoint that
+// restarts the log while a statement is running can't be detected until the
+// next refresh.
+class Wal implements AutoCloseable {
+  private static final int MAGIC = 0x377f0682;
+  private static final int VERSION = 3007000;
+  static final int HEADER_SIZE = 32;
+  static final int FRAME_HEADER_SIZE = 24;
+
+  enum Change {NONE, APPENDED, RESET}
+
+  private final Path path;
+  private BackingFile file;
+  private Object fileKey;
+
+  // From the header. A new salt means the log was restarted.
+  private int pageSize;
+  private ByteOrder checksumOrder;
+  private int salt1, salt2;
+
+  // Frames are numbered from 1. The cache key for a frame's page, which
+  // changes when the log is restarted and frame numbers are reused.
+  private Object generation = new Object();
+  private int[] frames = new int[0];
+  private int committedFrames = 0;
+  private int committedPages = 0;
+  private int checksum1, checksum2;
+
+  Wal(Path path) {
+    this.path = path;
+  }
+
+  static Path pathFor(Path database) {
+    return database.resolveSibling(database.getFileName() + "-wal");
+  }
+
+  // The page size from the header, or 0 if nothing is committed.
+  synchronized int pageSize() {
+    return committedFrames > 0 ? pageSize : 0;
+  }
+
+  synchronized long frameOffset(int frame) {
+    return HEADER_SIZE + (long) (frame - 1) * (FRAME_HEADER_SIZE + pageSize);
+  }
+
+  synchronized BackingFile file() {
+    return file;
+  }
+
+  synchronized Object generation() {
+    return generation;
+  }
+
+  // The latest committed frame for the page, or 0 if the page isn't in the
+  // log and should be read from the database file.
+  synchronized int frame(int pageNumber) {
+    return pageNumber < frames.length ? frames[pageNumber] : 0;
+  }
+
+  // The size of the database in pages as of the last commit, or 0 if nothing
+  // is committed to the log.
+  synchronized int pageCount() {
+    return committedPages;
+  }
+
+  private void reset() {
+    generation = new Object();
+    frames = new int[0];
+    committedFrames = 0;
+    committedPages = 0;
+  }
+
+  private static long size(BackingFile file) {
+    try {
+      return file.file().size();
+    } catch (IOException e) {
+      throw new StorageException("failed to read size of wal", e);
+    }
+  }
+
+  // Opens the log if it exists, reopening it if it was replaced since it was
+  // last opened. Returns false if there is no log.
+  private boolean open() {
+    Object key;
+    try {
+      key = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+    } catch (NoSuchFileException e) {
+      key = null;
+    } catch (IOException e) {
+      throw new StorageException("failed to stat wal: %s".formatted(path), e);
+    }
+    if (file != null && (key == null || !key.equals(fileKey))) {
+      file.close();
+      file = null;
+    }
+    if (key == null) return false;
+    if (file != null) return true;
+    try {
+      file = new BackingFile(FileChannel.open(path, StandardOpenOption.READ));
+      fileKey = key;
+      return true;
+    } catch (NoSuchFileException e) {
+      return false;
+    } catch (IOException e) {
+      throw new StorageException("failed to open wal: %s".formatted(path), e);
+    }
+  }
+
+  // Adds 32-bit words pairwise into the running checksum, as SQLite does.
+  private void checksum(ByteBuffer buf, int from, int to, int[] sums) {
+    int s1 = sums[0], s2 = sums[1];
+    for (int i = from; i < to; i += 8) {
+      s1 += buf.getInt(i) + s2;
+      s2 += buf.getInt(i + 4) + s1;
+    }
+    sums[0] = s1;
+    sums[1] = s2;
+  }
+
+  // Reads the header, returning false if there isn't a valid one.
+  private boolean readHeader(ByteBuffer header) {
+    header.clear();
+    if (file.read(header, 0) != HEADER_SIZE) return false;
+    int magic = header.getInt(0);
+    if ((magic & ~1) != MAGIC || header.getInt(4) != VERSION) return false;
+    var order = (magic & 1) == 1 ? ByteOrder.BIG_ENDIAN
+                                 : ByteOrder.LITTLE_ENDIAN;
+    var sums = new int[2];
+    checksum(header.order(order), 0, 24, sums);
+    header.order(ByteOrder.BIG_ENDIAN);
+    return sums[0] == header.getInt(24) && sums[1] == header.getInt(28);
+  }
+
+  // Brings the frame index up to date with the log's last commit, and
+  // reports whether committed pages were added or the log was restarted.
+  synchronized Change refresh() {
+    var before = generation;
+    int committedBefore = committedFrames;
+    if (!open()) {
+      if (committedFrames > 0) reset();
+      return before == generation ? Change.NONE : Change.RESET;
+    }
+    var header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+    if (!readHeader(header)) {
+      // the log is being created or was truncated by a checkpoint
+      if (committedFrames > 0) reset();
+      return before == generation ? Change.NONE : Change.RESET;
+    }
+    int newSalt1 = header.getInt(16), newSalt2 = header.getInt(20);
+    if (committedFrames > 0 &&
+        (newSalt1 != salt1 || newSalt2 != salt2 ||
+         size(file) < frameOffset(committedFrames + 1))) {
+      reset();
+    }
+    if (committedFrames == 0) {
+      pageSize = header.getInt(8);
+      salt1 = newSalt1;
+      salt2 = newSalt2;
+      checksumOrder = (header.getInt(0) & 1) == 1 ? ByteOrder.BIG_ENDIAN
+                                                  : ByteOrder.LITTLE_ENDIAN;
+      checksum1 = header.getInt(24);
+      checksum2 = header.getInt(28);
+    }
+    readFrames();
+    if (before != generation) return Change.RESET;
+    return committedFrames > committedBefore ? Change.APPENDED : Change.NONE;
+  }
+
+  // Scans the frames after the last commit, adding those up to the last
+  // valid commit frame to the index.
+  private void readFrames() {
+    long size = size(file);
+    var frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + pageSize);
+    var sums = new int[] {checksum1, checksum2};
+    var pending = new int[16];
+    int n = committedFrames;
+    while (frameOffset(n + 2) <= size) {
+      frame.clear();
+      if (file.read(frame, frameOffset(n + 1)) != frame.capacity()) break;
+      frame.order(ByteOrder.BIG_ENDIAN);
+      int pageNumber = frame.getInt(0);
+      int commitSize = frame.getInt(4);
+      if (pageNumber == 0 || frame.getInt(8) != salt1 ||
+          frame.getInt(12) != salt2) {
+        break;
+      }
+      frame.order(checksumOrder);
+      checksum(frame, 0, 8, sums);
+      checksum(frame, FRAME_HEADER_SIZE, frame.capacity(), sums);
+      frame.order(ByteOrder.BIG_ENDIAN);
+      if (sums[0] != frame.getInt(16) || sums[1] != frame.getInt(20)) break;
+      int pendingCount = n - committedFrames;
+      if (pendingCount == pending.length) {
+        pending = Arrays.copyOf(pending, pending.length * 2);
+      }
+      pending[pendingCount] = pageNumber;
+      n++;
+      if (commitSize != 0) {
+        commit(pending, n, commitSize);
+        checksum1 = sums[0];
+        checksum2 = sums[1];
+      }
+    }
+  }
+
+  private void commit(int[] pending, int lastFrame, int pageCount) {
+    for (int frame = committedFrames + 1; frame <= lastFrame; frame++) {
+      int pageNumber = pending[frame - committedFrames - 1];
+      if (pageNumber >= frames.length) {
+        frames = Arrays.copyOf(frames, Math.max(pageNumber + 1,
+                                                frames.length * 2));
+      }
+      frames[pageNumber] = frame;
+    }
+    committedFrames = lastFrame;
+    committedPages = pageCount;
+  }
+
+  @Override
+  public synchronized void close() {
+    if (file != null) file.close();
+    file = null;
+  }
+}
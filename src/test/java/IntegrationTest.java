@@ -114,4 +114,21 @@ public class IntegrationTest {
                         new Value.StringValue("its congo")))
     ));
   }
+
+  @Test
+  void testPreparedStatement()
+  throws SQLException, IOException, StorageException {
+    var storage = new StorageEngine(file);
+    var statement = new QueryEngine(storage).prepare(
+        "SELECT count(*) FROM companies WHERE country = :country");
+    statement.bind("country", new Value.StringValue("republic of the congo"));
+    assertEquals(List.of(new Row(List.of(new Value.IntValue(4)))),
+                 statement.execute());
+    statement.bind(1, new Value.StringValue("no such country"));
+    assertEquals(List.of(new Row(List.of(new Value.IntValue(0)))),
+                 statement.execute());
+    statement.clearBindings();
+    assertEquals(List.of(new Row(List.of(new Value.IntValue(0)))),
+                 statement.execute());
+  }
 }
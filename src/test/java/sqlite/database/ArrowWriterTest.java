@@ -0,0 +1,256 @@
+package sqlite.database;
+
+import org.junit.jupiter.api.Test;
+import sqlite.query.Row;
+import sqlite.query.Value;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ArrowWriterTest {
+  // Reads FlatBuffers tables by following vtables, checking that scalars are
+  // aligned as readers require.
+  private record Fb(ByteBuffer buf) {
+    int root() {return buf.getInt(0);}
+
+    // The position of a field, or 0 if it's absent.
+    int field(int table, int slot) {
+      int vtable = table - buf.getInt(table);
+      int size = buf.getShort(vtable);
+      if (4 + 2 * slot >= size) return 0;
+      int offset = buf.getShort(vtable + 4 + 2 * slot);
+      return offset == 0 ? 0 : table + offset;
+    }
+
+    int deref(int table, int slot) {
+      int at = field(table, slot);
+      assertEquals(0, at % 4);
+      return at + buf.getInt(at);
+    }
+
+    long scalar(int table, int slot, int size, long otherwise) {
+      int at = field(table, slot);
+      if (at == 0) return otherwise;
+      assertEquals(0, at % size);
+      return switch (size) {
+        case 1 -> buf.get(at);
+        case 2 -> buf.getShort(at);
+        case 4 -> buf.getInt(at);
+        default -> buf.getLong(at);
+      };
+    }
+
+    String string(int table, int slot) {
+      int at = deref(table, slot);
+      var bytes = new byte[buf.getInt(at)];
+      buf.get(at + 4, bytes);
+      assertEquals(0, buf.get(at + 4 + bytes.length));
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    List<Integer> tables(int table, int slot) {
+      int at = deref(table, slot);
+      var tables = new ArrayList<Integer>();
+      for (int i = 0; i < buf.getInt(at); i++) {
+        int element = at + 4 + 4 * i;
+        tables.add(element + buf.getInt(element));
+      }
+      return tables;
+    }
+
+    long[] longs(int table, int slot, int perStruct) {
+      int at = deref(table, slot);
+      assertEquals(0, (at + 4) % 8);
+      var longs = new long[buf.getInt(at) * perStruct];
+      for (int i = 0; i < longs.length; i++) {
+        longs[i] = buf.getLong(at + 4 + 8 * i);
+      }
+      return longs;
+    }
+  }
+
+  private record Field(String name, int type) {}
+
+  // Decodes a stream back into a schema and rows.
+  private static List<List<Object>> read(byte[] stream, List<Field> schema,
+                                         List<Integer> batchSizes) {
+    var buf = ByteBuffer.wrap(stream).order(ByteOrder.LITTLE_ENDIAN);
+    var rows = new ArrayList<List<Object>>();
+    var types = new ArrayList<Integer>();
+    int pos = 0;
+    while (true) {
+      assertEquals(0xffffffff, buf.getInt(pos));
+      int length = buf.getInt(pos + 4);
+      if (length == 0) break;
+      assertEquals(0, (8 + length) % 8);
+      var fb = new Fb(buf.slice(pos + 8, length)
+                         .order(ByteOrder.LITTLE_ENDIAN));
+      int message = fb.root();
+      assertEquals(4, fb.scalar(message, 0, 2, 0));
+      int header = fb.deref(message, 2);
+      long bodyLength = fb.scalar(message, 3, 8, 0);
+      int body = pos + 8 + length;
+      assertEquals(0, bodyLength % 8);
+      switch ((int) fb.scalar(message, 1, 1, 0)) {
+        case 1 -> {
+          assertEquals(0, fb.scalar(header, 0, 2, 0));
+          for (int field : fb.tables(header, 1)) {
+            assertEquals(1, fb.scalar(field, 1, 1, 0));
+            int type = (int) fb.scalar(field, 2, 1, 0);
+            int metadata = fb.deref(field, 3);
+            if (type == 2) {
+              assertEquals(64, fb.scalar(metadata, 0, 4, 0));
+              assertEquals(1, fb.scalar(metadata, 1, 1, 0));
+            } else if (type == 3) {
+              assertEquals(2, fb.scalar(metadata, 0, 2, 0));
+            }
+            assertEquals(List.of(), fb.tables(field, 5));
+            schema.add(new Field(fb.string(field, 0), type));
+            types.add(type);
+          }
+        }
+        case 3 -> {
+          int n = (int) fb.scalar(header, 0, 8, 0);
+          batchSizes.add(n);
+          var nodes = fb.longs(header, 1, 2);
+          var buffers = fb.longs(header, 2, 2);
+          var columns = new ArrayList<List<Object>>();
+          int b = 0;
+          for (int c = 0; c < types.size(); c++) {
+            assertEquals(n, nodes[2 * c]);
+            int validity = body + (int) buffers[2 * b];
+            boolean hasBitmap = buffers[2 * b + 1] > 0;
+            assertEquals(hasBitmap, nodes[2 * c + 1] > 0);
+            b++;
+            var values = new ArrayList<Object>();
+            for (int i = 0; i < n; i++) {
+              assertEquals(0, buffers[2 * b] % 8);
+              int data = body + (int) buffers[2 * b];
+              if (hasBitmap && (buf.get(validity + i / 8) & (1 << (i % 8))) == 0) {
+                values.add(null);
+                continue;
+              }
+              values.add(switch (types.get(c)) {
+                case 2 -> buf.getLong(data + 8 * i);
+                case 3 -> buf.getDouble(data + 8 * i);
+                default -> {
+                  int start = buf.getInt(data + 4 * i);
+                  int end = buf.getInt(data + 4 * i + 4);
+                  var bytes = new byte[end - start];
+                  buf.get(body + (int) buffers[2 * b + 2] + start, bytes);
+                  yield types.get(c) == 5
+                      ? new String(bytes, StandardCharsets.UTF_8)
+                      : List.of(bytes[0]);
+                }
+              });
+            }
+            b += types.get(c) >= 4 ? 2 : 1;
+            columns.add(values);
+          }
+          assertEquals(b * 2, buffers.length);
+          for (int i = 0; i < n; i++) {
+            var row = new ArrayList<Object>();
+            for (var column : columns) row.add(column.get(i));
+            rows.add(row);
+          }
+        }
+        default -> fail("unexpected message type");
+      }
+      pos = body + (int) bodyLength;
+    }
+    assertEquals(stream.length, pos + 8);
+    return rows;
+  }
+
+  private static byte[] write(List<String> columns, List<Row> rows)
+  throws IOException {
+    var out = new ByteArrayOutputStream();
+    var writer = new ArrowWriter(out, columns);
+    rows.forEach(writer);
+    writer.finish();
+    return out.toByteArray();
+  }
+
+  @Test
+  void testTypes() throws IOException {
+    var columns = List.of("id", "price", "name", "data", "mixed", "empty");
+    var rows = new ArrayList<Row>();
+    var expected = new ArrayList<List<Object>>();
+    int n = ArrowWriter.BATCH_ROWS + 10;
+    for (int i = 0; i < n; i++) {
+      boolean first = i < ArrowWriter.BATCH_ROWS;
+      // values after the first batch don't decide the types
+      Value id = first ? new Value.IntValue(i) : new Value.RealValue(i + 0.5);
+      Value price = i % 3 == 0 ? new Value.IntValue(i)
+                               : new Value.RealValue(i / 4.0);
+      Value name = i % 7 == 0 ? new Value.NullValue()
+                              : new Value.StringValue("név" + i);
+      Value data = new Value.BlobValue(new byte[] {(byte) i});
+      Value mixed = i % 2 == 0 ? new Value.IntValue(i)
+                               : new Value.StringValue("x");
+      rows.add(new Row(List.of(id, price, name, data, mixed,
+                               new Value.NullValue())));
+      var row = new ArrayList<Object>();
+      row.add((long) i);
+      row.add(i % 3 == 0 ? (double) i : i / 4.0);
+      row.add(i % 7 == 0 ? null : "név" + i);
+      row.add(List.of((byte) i));
+      row.add(i % 2 == 0 ? Integer.toString(i) : "x");
+      row.add(null);
+      expected.add(row);
+    }
+    var schema = new ArrayList<Field>();
+    var batches = new ArrayList<Integer>();
+    var actual = read(write(columns, rows), schema, batches);
+    assertEquals(List.of(new Field("id", 2), new Field("price", 3),
+                         new Field("name", 5), new Field("data", 4),
+                         new Field("mixed", 5), new Field("empty", 5)),
+                 schema);
+    assertEquals(List.of(ArrowWriter.BATCH_ROWS, 10), batches);
+    assertEquals(expected, actual);
+  }
+
+  @Test
+  void testWideSchema() throws IOException {
+    // enough columns that the metadata outgrows the encoder's first buffer
+    // partway through a vector of fields or buffers
+    var columns = new ArrayList<String>();
+    for (int c = 0; c < 48; c++) columns.add("column_with_a_long_name_" + c);
+    var rows = new ArrayList<Row>();
+    var expected = new ArrayList<List<Object>>();
+    for (int i = 0; i < 3; i++) {
+      var values = new ArrayList<Value>();
+      var row = new ArrayList<Object>();
+      for (int c = 0; c < columns.size(); c++) {
+        values.add(c % 2 == 0 ? new Value.IntValue(i * c)
+                              : new Value.StringValue("v" + i));
+        row.add(c % 2 == 0 ? (Object) (long) (i * c) : "v" + i);
+      }
+      rows.add(new Row(values));
+      expected.add(row);
+    }
+    var schema = new ArrayList<Field>();
+    var batches = new ArrayList<Integer>();
+    var actual = read(write(columns, rows), schema, batches);
+    assertEquals(columns, schema.stream().map(Field::name).toList());
+    assertEquals(List.of(3), batches);
+    assertEquals(expected, actual);
+  }
+
+  @Test
+  void testEmpty() throws IOException {
+    var schema = new ArrayList<Field>();
+    var batches = new ArrayList<Integer>();
+    var rows = read(write(List.of("count(*)"), List.of()), schema, batches);
+    assertEquals(List.of(new Field("count(*)", 5)), schema);
+    assertEquals(List.of(), batches);
+    assertEquals(List.of(), rows);
+  }
+}
@@ -0,0 +1,121 @@
+package sqlite.database;
+
+import org.junit.jupiter.api.Test;
+import sqlite.query.Row;
+import sqlite.query.Value;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class RowWriterTest {
+  private static final List<Row> ROWS = List.of(
+      new Row(List.of(new Value.IntValue(Long.MIN_VALUE),
+                      new Value.StringValue("a,\"b\"\nc"),
+                      new Value.RealValue(2.5))),
+      new Row(List.of(new Value.IntValue(0),
+                      new Value.StringValue("héllo 😀\t"),
+                      new Value.RealValue(-3.0))),
+      new Row(List.of(new Value.NullValue(),
+                      new Value.BlobValue(new byte[] {0x01, (byte) 0xab}),
+                      new Value.RealValue(1e20))));
+
+  private static String write(ResultWriter.Mode mode, List<Row> rows)
+  throws IOException {
+    var out = new ByteArrayOutputStream();
+    var writer = new RowWriter(out, mode, List.of("id", "n\"ame", "count(*)"));
+    rows.forEach(writer);
+    writer.finish();
+    return out.toString(UTF_8);
+  }
+
+  @Test
+  void testList() throws IOException {
+    assertEquals("""
+                 -9223372036854775808|a,"b"
+                 c|2.5
+                 0|héllo 😀\t|-3.0
+                 NULL|[blob]|1.0e+20
+                 """, write(ResultWriter.Mode.LIST, ROWS));
+  }
+
+  @Test
+  void testListMatchesDisplay() throws IOException {
+    var expected = new StringBuilder();
+    var rows = new ArrayList<Row>();
+    for (long x : new long[] {1, -1, 9, 10, 99, 1234567890123L,
+                              Long.MAX_VALUE}) {
+      var values = List.<Value>of(new Value.IntValue(x),
+                                  new Value.RealValue(x / 7.0),
+                                  new Value.RealValue(x * 1000.0));
+      rows.add(new Row(values));
+      expected.append(String.join(
+          "|", values.stream().map(Value::display).toList())).append('\n');
+    }
+    assertEquals(expected.toString(), write(ResultWriter.Mode.LIST, rows));
+  }
+
+  @Test
+  void testRealsMatchDisplay() throws IOException {
+    var random = new Random(1);
+    var expected = new StringBuilder();
+    var rows = new ArrayList<Row>();
+    double[] special = {0.0, -0.0, 0.5, -0.25, 1e-4, 1e-5, 0.1 + 0.2,
+                        123456789012.3456, 999999999999999.0, 1e15,
+                        Double.MAX_VALUE, Double.MIN_VALUE,
+                        Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                        Double.NaN};
+    for (int i = 0; i < 10000; i++) {
+      double x = i < special.length ? special[i] : switch (i % 4) {
+        case 0 -> random.nextInt(100000) / 100.0;
+        case 1 -> -random.nextLong(1L << 50) / 10000.0;
+        case 2 -> random.nextDouble() * Math.pow(10, random.nextInt(40) - 20);
+        default -> (double) random.nextLong();
+      };
+      var value = new Value.RealValue(x);
+      rows.add(new Row(List.of(value)));
+      expected.append(value.display()).append('\n');
+    }
+    assertEquals(expected.toString(), write(ResultWriter.Mode.LIST, rows));
+  }
+
+  @Test
+  void testCsv() throws IOException {
+    assertEquals(
+        "-9223372036854775808,\"a,\"\"b\"\"\nc\",2.5\r\n" +
+        "0,héllo 😀\t,-3.0\r\n" +
+        ",01ab,1.0e+20\r\n",
+        write(ResultWriter.Mode.CSV, ROWS));
+  }
+
+  @Test
+  void testJson() throws IOException {
+    assertEquals(
+        "[{\"id\":-9223372036854775808,\"n\\\"ame\":\"a,\\\"b\\\"\\nc\"," +
+        "\"count(*)\":2.5},\n" +
+        "{\"id\":0,\"n\\\"ame\":\"héllo 😀\\t\",\"count(*)\":-3.0},\n" +
+        "{\"id\":null,\"n\\\"ame\":\"01ab\",\"count(*)\":1.0e+20}]\n",
+        write(ResultWriter.Mode.JSON, ROWS));
+    assertEquals("", write(ResultWriter.Mode.JSON, List.of()));
+  }
+
+  @Test
+  void testLargeOutput() throws IOException {
+    // more than fits in the buffer, with rows split across flushes
+    var text = "x".repeat(1000) + "é";
+    var rows = new ArrayList<Row>();
+    for (int i = 0; i < 200; i++) {
+      rows.add(new Row(List.of(new Value.IntValue(i),
+                               new Value.StringValue(text))));
+    }
+    var expected = new StringBuilder();
+    for (int i = 0; i < 200; i++) expected.append(i).append('|')
+                                          .append(text).append('\n');
+    assertEquals(expected.toString(), write(ResultWriter.Mode.LIST, rows));
+  }
+}
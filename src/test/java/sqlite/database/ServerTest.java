@@ -0,0 +1,220 @@
+package sqlite.database;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import sqlite.storage.Generator;
+import sqlite.storage.PageCache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ServerTest {
+  private static final String RED =
+      "SELECT name FROM apples WHERE color = 'Red'";
+  private static final String COUNT = "SELECT count(*) FROM items";
+  // where the database header keeps them
+  private static final int CHANGE_COUNTER_OFFSET = 24;
+  private static final int SCHEMA_COOKIE_OFFSET = 40;
+
+  @TempDir
+  Path dir;
+
+  // Sends the requests as one session and returns the responses.
+  private static String serve(Server server, String... requests)
+  throws Exception {
+    var in = new ByteArrayInputStream(
+        (String.join("\n", requests) + "\n").getBytes(UTF_8));
+    var out = new ByteArrayOutputStream();
+    server.serve(in, out);
+    return out.toString(UTF_8);
+  }
+
+  private static String request(Path db, String command) {
+    return db + "\t" + command;
+  }
+
+  // Sends the commands against the database as one session.
+  private static String session(Server server, Path db, String... commands)
+  throws Exception {
+    return serve(server, Arrays.stream(commands)
+                               .map(command -> request(db, command))
+                               .toArray(String[]::new));
+  }
+
+  private Path copy(String name) throws IOException {
+    return Files.copy(Path.of("sample.db"), dir.resolve(name));
+  }
+
+  // A copy of the sample database with every occurrence of one string
+  // replaced by another of the same length.
+  private Path copy(String name, String from, String to) throws IOException {
+    var bytes = Files.readAllBytes(Path.of("sample.db"));
+    replace(bytes, from, to);
+    var path = dir.resolve(name);
+    Files.write(path, bytes);
+    return path;
+  }
+
+  static void replace(byte[] bytes, String from, String to) {
+    var target = from.getBytes(UTF_8);
+    var replacement = to.getBytes(UTF_8);
+    for (int i = 0; i + target.length <= bytes.length; i++) {
+      if (Arrays.equals(bytes, i, i + target.length, target, 0,
+                        target.length)) {
+        System.arraycopy(replacement, 0, bytes, i, replacement.length);
+      }
+    }
+  }
+
+  @Test
+  void testResponsesInRequestOrder() throws Exception {
+    var db = copy("test.db");
+    var requests = new String[200];
+    var expected = new StringBuilder();
+    for (int i = 0; i < requests.length; i++) {
+      switch (i % 4) {
+        case 0 -> {
+          requests[i] = request(db, "SELECT count(*) FROM apples");
+          expected.append("ok 1\n4\n");
+        }
+        case 1 -> {
+          requests[i] = request(db, ".tables");
+          expected.append("ok 1\napples oranges\n");
+        }
+        case 2 -> {
+          requests[i] = request(db, RED);
+          expected.append("ok 1\nFuji\n");
+        }
+        default -> {
+          requests[i] = "no tab";
+          expected.append(
+              "error malformed request: want <path>\\t<command>\n");
+        }
+      }
+    }
+    // more requests than are let in flight at once
+    try (var server = new Server(new PageCache())) {
+      assertEquals(expected.toString(), serve(server, requests));
+    }
+  }
+
+  @Test
+  void testClientStopsReading() throws Exception {
+    var requests = new String[1000];
+    Arrays.fill(requests, "no tab");
+    var in = new ByteArrayInputStream(
+        (String.join("\n", requests) + "\n").getBytes(UTF_8));
+    var closed = new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        throw new IOException("closed");
+      }
+    };
+    // far more requests than fit in flight, so they can't all be queued
+    try (var server = new Server(new PageCache())) {
+      assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+        var e = assertThrows(ExecutionException.class,
+                             () -> server.serve(in, closed));
+        assertEquals("closed", e.getCause().getMessage());
+      });
+    }
+  }
+
+  @Test
+  void testDatabasesShareCache() throws Exception {
+    var fuji = copy("fuji.db");
+    var gala = copy("gala.db", "Fuji", "Gala");
+    // room for a single page, so the databases keep evicting each other's
+    var cache = new PageCache(4096);
+    try (var server = new Server(cache)) {
+      var requests = new String[40];
+      var expected = new StringBuilder();
+      for (int i = 0; i < requests.length; i++) {
+        requests[i] = request(i % 2 == 0 ? fuji : gala, RED);
+        expected.append(i % 2 == 0 ? "ok 1\nFuji\n" : "ok 1\nGala\n");
+      }
+      assertEquals(expected.toString(), serve(server, requests));
+      // the databases stay open between sessions
+      assertEquals("ok 1\nGala\n", serve(server, request(gala, RED)));
+    }
+  }
+
+  @Test
+  void testExternalSchemaChange() throws Exception {
+    var db = copy("test.db");
+    try (var server = new Server(new PageCache())) {
+      assertEquals("ok 1\napples oranges\n",
+                   serve(server, request(db, ".tables")));
+      assertEquals("ok 1\nFuji\n", serve(server, request(db, RED)));
+
+      // another process renames the table, as a commit would
+      var bytes = Files.readAllBytes(db);
+      replace(bytes, "apples", "grapes");
+      var header = ByteBuffer.wrap(bytes);
+      header.putInt(CHANGE_COUNTER_OFFSET,
+                    header.getInt(CHANGE_COUNTER_OFFSET) + 1);
+      header.putInt(SCHEMA_COOKIE_OFFSET,
+                    header.getInt(SCHEMA_COOKIE_OFFSET) + 1);
+      try (var file = FileChannel.open(db, WRITE)) {
+        file.write(header.clear(), 0);
+      }
+
+      var responses = serve(server, request(db, ".tables"),
+                            request(db, "SELECT count(*) FROM grapes"),
+                            request(db, RED));
+      var lines = responses.split("\n");
+      assertEquals("grapes oranges", lines[1]);
+      assertEquals("4", lines[3]);
+      assertTrue(lines[4].startsWith("error"), lines[4]);
+    }
+  }
+
+  @Test
+  void testSessionOptionsArePerSession() throws Exception {
+    var db = dir.resolve("items.db");
+    Generator.generate(db, new Generator.Options(100).withCategories(10));
+    try (var server = new Server(new PageCache())) {
+      // the query runs with stats even though it's sent right behind
+      var first = session(server, db, ".stats on", COUNT, ".stats off", COUNT);
+      var responses = first.split("ok ");
+      assertEquals("", responses[0]);
+      assertEquals("0\n", responses[1]);
+      assertTrue(responses[2].contains("statements: 1\n"), responses[2]);
+      assertEquals("0\n", responses[3]);
+      assertEquals("1\n100\n", responses[4]);
+
+      // and another session doesn't see them
+      session(server, db, ".stats on");
+      assertEquals("ok 1\n100\n", session(server, db, COUNT));
+      assertFalse(session(server, db, COUNT).contains("statements"));
+
+      // the same goes for the output mode
+      var json = session(server, db, ".mode json", COUNT, ".mode arrow",
+                         ".mode nope", COUNT);
+      var lines = json.split("\n");
+      assertEquals("ok 0", lines[0]);
+      assertEquals("[{\"count(*)\":100}]", lines[2]);
+      assertTrue(lines[3].startsWith("error arrow output"), lines[3]);
+      assertTrue(lines[4].startsWith("error unknown mode"), lines[4]);
+      assertEquals("[{\"count(*)\":100}]", lines[6]);
+      assertEquals("ok 1\n100\n", session(server, db, COUNT));
+    }
+  }
+}
@@ -0,0 +1,155 @@
+package sqlite.query;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import sqlite.sql.SQLException;
+import sqlite.storage.BackingFile;
+import sqlite.storage.Generator;
+import sqlite.storage.StorageEngine;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class AggregateTest {
+  @TempDir
+  Path dir;
+
+  private static Sum sum(Value... values) {
+    var sum = new Sum();
+    for (var value : values) sum.add(value);
+    return sum;
+  }
+
+  private static Value i(long x) {return new Value.IntValue(x);}
+
+  private static Value r(double x) {return new Value.RealValue(x);}
+
+  private static final Value NULL = new Value.NullValue();
+
+  @Test
+  public void testSumIntegers() {
+    var sum = sum(i(1), NULL, i(2), i(4));
+    assertEquals(i(7), sum.sum());
+    assertEquals(r(7.0), sum.total());
+    assertEquals(r(7.0 / 3), sum.avg());
+  }
+
+  @Test
+  public void testSumEmpty() {
+    var sum = sum(NULL, NULL);
+    assertEquals(NULL, sum.sum());
+    assertEquals(r(0.0), sum.total());
+    assertEquals(NULL, sum.avg());
+  }
+
+  @Test
+  public void testSumInfinity() {
+    // SQLite stores 1e999 as Inf
+    double inf = Double.POSITIVE_INFINITY;
+    var sum = sum(r(1.5), r(inf), i(2));
+    assertEquals(r(inf), sum.sum());
+    assertEquals(r(inf), sum.total());
+    assertEquals(r(inf), sum.avg());
+    assertEquals("Inf", sum.sum().display());
+    assertEquals(r(-inf), sum(i(1), r(-inf)).total());
+    // Inf - Inf is NaN, which SQLite returns as NULL
+    assertEquals(NULL, sum(r(inf), r(-inf)).sum());
+    assertEquals("NaN", r(Double.NaN).display());
+  }
+
+  @Test
+  public void testSumReals() {
+    assertEquals(r(3.5), sum(i(1), r(2.5)).sum());
+    assertEquals(r(6.0), sum(i(1), new Value.StringValue("5x")).sum());
+    // compensated summation doesn't lose the small values
+    var values = new Value[1001];
+    values[0] = r(1e16);
+    for (int j = 1; j < values.length; j++) values[j] = r(1.0);
+    assertEquals(r(1e16 + 1000), sum(values).sum());
+    assertEquals(r(0.1 * 3), sum(r(0.1), r(0.1), r(0.1)).sum());
+  }
+
+  @Test
+  public void testSumOverflow() {
+    var sum = sum(i(Long.MAX_VALUE), i(1));
+    assertThrows(SQLException.class, sum::sum);
+    assertEquals(r(0x1p63), sum.total());
+    assertEquals(r(0x1p62), sum.avg());
+    // the overflow is exact once it's undone
+    assertEquals(r(-1.0), sum(i(Long.MAX_VALUE), i(Long.MAX_VALUE),
+                              r(-0x1p64), i(1)).total());
+    // a REAL after the overflow makes the sum a REAL, as in SQLite
+    assertEquals(r(0x1p63), sum(i(Long.MAX_VALUE), i(1), r(0.5)).sum());
+    // and integers after a REAL never overflow
+    assertEquals(r(0x1p63), sum(r(0.5), i(Long.MAX_VALUE), i(1)).sum());
+    assertEquals(r(0x1p63),
+                 sum(i(Long.MAX_VALUE), i(1), r(0.5), i(2)).sum());
+  }
+
+  @Test
+  public void testMergeSums() {
+    var sum = sum(i(1), i(2));
+    sum.merge(sum(i(3)));
+    sum.merge(sum());
+    assertEquals(i(6), sum.sum());
+    assertEquals(r(2.0), sum.avg());
+
+    sum = sum(i(1));
+    sum.merge(sum(r(0.5), r(1e16)));
+    sum.merge(sum(i(1), r(-1e16)));
+    assertEquals(r(2.5), sum.sum());
+
+    sum = sum(i(Long.MAX_VALUE));
+    sum.merge(sum(i(1)));
+    assertThrows(SQLException.class, sum::sum);
+    assertEquals(r(0x1p63), sum.total());
+    // a REAL merged in after an overflow clears it
+    sum.merge(sum(r(0.5)));
+    assertEquals(r(0x1p63), sum.sum());
+    // nor do integers merged in after one
+    sum = sum(r(0.5));
+    sum.merge(sum(i(Long.MAX_VALUE), i(1)));
+    assertEquals(r(0x1p63), sum.sum());
+    sum = sum(i(Long.MAX_VALUE), i(1));
+    sum.merge(sum(i(1)));
+    assertThrows(SQLException.class, sum::sum);
+  }
+
+  private List<Row> query(String sql) throws IOException {
+    var path = dir.resolve("test.db");
+    Generator.generate(path, new Generator.Options(100).withCategories(10));
+    var file = new BackingFile(Files.newByteChannel(path));
+    return new QueryEngine(new StorageEngine(file)).evaluate(sql);
+  }
+
+  @Test
+  public void testAggregateQuery() throws IOException {
+    var rows = query(
+        "SELECT count(*), count(data), sum(id), avg(id), min(category), " +
+        "max(id), total(quantity) FROM items WHERE category = 'category3'");
+    assertEquals(
+        List.of(i(10), i(0), i(3 + 13 + 23 + 33 + 43 + 53 + 63 + 73 + 83 + 93),
+                r(48.0), new Value.StringValue("category3"), i(93)),
+        rows.getFirst().columns().subList(0, 6));
+    assertEquals(Value.RealValue.class,
+                 rows.getFirst().columns().get(6).getClass());
+  }
+
+  @Test
+  public void testAggregateReals() throws IOException {
+    var prices = query("SELECT price FROM items");
+    double min = Double.MAX_VALUE;
+    for (var row : prices) {
+      min = Math.min(min, ((Value.RealValue) row.columns().getFirst()).value());
+    }
+    var rows = query("SELECT min(price), count(price) FROM items");
+    assertEquals(List.of(r(min), i(100)), rows.getFirst().columns());
+    assertThrows(SQLException.class,
+                 () -> query("SELECT median(price) FROM items"));
+  }
+}
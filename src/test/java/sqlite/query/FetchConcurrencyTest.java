@@ -0,0 +1,73 @@
+package sqlite.query;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import sqlite.storage.Metrics;
+import sqlite.storage.StorageEngine;
+import sqlite.storage.TestDatabases;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FetchConcurrencyTest {
+  private static final String LOOKUP =
+      "SELECT id, name FROM items WHERE category = 'category3'";
+
+  @TempDir
+  Path dir;
+
+  private StorageEngine open() throws IOException {
+    // small leaves, so the rows are spread over many pages
+    return TestDatabases.open(
+        TestDatabases.generate(dir, TestDatabases.ITEMS.withLeafCells(4)));
+  }
+
+  @Test
+  void testSameRowsInIndexOrder() throws IOException {
+    try (var storage = open()) {
+      var engine = new QueryEngine(storage);
+      var expected = engine.evaluate(LOOKUP);
+      assertEquals(714, expected.size());
+      // rows with equal keys come in rowid order, as in SQLite
+      var ids = expected.stream()
+          .map(row -> row.columns().getFirst().getInt()).toList();
+      assertEquals(ids.stream().sorted().toList(), ids);
+
+      for (int concurrency : new int[]{2, 16, 2000}) {
+        engine.setFetchConcurrency(concurrency);
+        var metrics = Metrics.start();
+        try (metrics) {
+          assertEquals(expected, engine.evaluate(LOOKUP));
+        }
+        // the index and fetch threads count toward the statement
+        assertEquals(714, metrics.get(Metrics.Counter.ROWS_EMITTED));
+        assertTrue(metrics.get(Metrics.Counter.RECORDS_DECODED) >= 2 * 714);
+        assertTrue(metrics.nanos(Metrics.Operator.INDEX) > 0);
+      }
+    }
+  }
+
+  @Test
+  void testConsumerStopsEarly() throws IOException {
+    try (var storage = open()) {
+      var engine = new QueryEngine(storage);
+      engine.setFetchConcurrency(8);
+      var seen = new ArrayList<Row>();
+      var statement = engine.prepare(LOOKUP);
+      assertThrows(IllegalStateException.class, () -> statement.execute(row -> {
+        seen.add(row);
+        if (seen.size() == 10) throw new IllegalStateException("stop");
+      }));
+      assertEquals(10, seen.size());
+      // the engine is still usable
+      assertEquals(714, engine.evaluate(LOOKUP).size());
+      assertThrows(IllegalArgumentException.class,
+                   () -> engine.setFetchConcurrency(0));
+    }
+  }
+}
@@ -0,0 +1,121 @@
+package sqlite.query;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import sqlite.storage.Metrics;
+import sqlite.storage.TestDatabases;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HashIndexTest {
+  private static final String BY_QUANTITY =
+      "SELECT id, name, price FROM items WHERE quantity = ?";
+  private static final String BY_PRICE =
+      "SELECT id, quantity FROM items WHERE price = ?";
+
+  @TempDir
+  Path dir;
+
+  private static List<Row> query(QueryEngine engine, String sql, Value value,
+                                 Metrics metrics) throws IOException {
+    try (var ignored = Metrics.startFor(metrics)) {
+      return engine.prepare(sql).bind(1, value).execute();
+    }
+  }
+
+  private static List<Row> query(QueryEngine engine, String sql, Value value)
+  throws IOException {
+    return query(engine, sql, value, Metrics.current());
+  }
+
+  @Test
+  void testRepeatedFiltersBuildIndex() throws Exception {
+    var path = TestDatabases.generate(dir, TestDatabases.ITEMS);
+    try (var storage = TestDatabases.open(path)) {
+      var scans = new QueryEngine(storage);
+      var engine = new QueryEngine(storage);
+      engine.setHashIndexBudget(16 << 20);
+
+      var quantity = new Value.IntValue(17);
+      for (int i = 0; i < HashIndexes.BUILD_THRESHOLD; i++) {
+        query(engine, BY_QUANTITY, quantity);
+      }
+      engine.awaitHashIndexes();
+
+      var expected = query(scans, BY_QUANTITY, quantity);
+      assertTrue(expected.size() > 1);
+      assertEquals(expected, scans.evaluate(
+          "SELECT id, name, price FROM items WHERE quantity = '17'"));
+      var metrics = Metrics.start();
+      assertEquals(expected, query(engine, BY_QUANTITY, quantity, metrics));
+      // a whole REAL equals the INTEGER, and so does TEXT that is the number,
+      // since the column's INTEGER affinity is applied to it
+      assertEquals(expected, query(engine, BY_QUANTITY,
+                                   new Value.RealValue(17), metrics));
+      assertEquals(expected, query(engine, BY_QUANTITY,
+                                   new Value.StringValue(" 17 "), metrics));
+      assertEquals(List.of(), query(engine, BY_QUANTITY,
+                                    new Value.StringValue("17x"), metrics));
+      metrics.close();
+      assertEquals(4, metrics.get(Metrics.Counter.HASH_INDEX_LOOKUPS));
+      assertEquals(0, metrics.get(Metrics.Counter.TABLE_SCANS));
+
+      // the same rows in the same order with concurrent fetches
+      engine.setFetchConcurrency(8);
+      assertEquals(expected, query(engine, BY_QUANTITY, quantity));
+
+      // each column gets its own index
+      var price = expected.getFirst().columns().get(2);
+      for (int i = 0; i < HashIndexes.BUILD_THRESHOLD; i++) {
+        query(engine, BY_PRICE, price);
+      }
+      engine.awaitHashIndexes();
+      var byPrice = query(scans, BY_PRICE, price);
+      metrics = Metrics.start();
+      assertEquals(byPrice, query(engine, BY_PRICE, price, metrics));
+      metrics.close();
+      assertEquals(1, metrics.get(Metrics.Counter.HASH_INDEX_LOOKUPS));
+
+      // a change to the file drops them
+      TestDatabases.setChangeCounter(path, 9);
+      metrics = Metrics.start();
+      assertEquals(expected, query(engine, BY_QUANTITY, quantity, metrics));
+      metrics.close();
+      assertEquals(0, metrics.get(Metrics.Counter.HASH_INDEX_LOOKUPS));
+      assertEquals(1, metrics.get(Metrics.Counter.TABLE_SCANS));
+    }
+  }
+
+  @Test
+  void testBudget() throws Exception {
+    var path = TestDatabases.generate(dir, TestDatabases.ITEMS);
+    try (var storage = TestDatabases.open(path)) {
+      var engine = new QueryEngine(storage);
+      var quantity = new Value.IntValue(17);
+      // off by default
+      for (int i = 0; i < 2 * HashIndexes.BUILD_THRESHOLD; i++) {
+        query(engine, BY_QUANTITY, quantity);
+      }
+      engine.awaitHashIndexes();
+      engine.setHashIndexBudget(1 << 10);
+      for (int i = 0; i < 2 * HashIndexes.BUILD_THRESHOLD; i++) {
+        query(engine, BY_QUANTITY, quantity);
+      }
+      engine.awaitHashIndexes();
+
+      var metrics = Metrics.start();
+      query(engine, BY_QUANTITY, quantity, metrics);
+      metrics.close();
+      assertEquals(0, metrics.get(Metrics.Counter.HASH_INDEX_LOOKUPS));
+      assertEquals(1, metrics.get(Metrics.Counter.TABLE_SCANS));
+      assertThrows(IllegalArgumentException.class,
+                   () -> engine.setHashIndexBudget(-1));
+    }
+  }
+}
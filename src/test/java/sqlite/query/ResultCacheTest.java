@@ -0,0 +1,144 @@
+package sqlite.query;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import sqlite.sql.AST;
+import sqlite.storage.Metrics;
+import sqlite.storage.TestDatabases;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ResultCacheTest {
+  private static final String LOOKUP =
+      "SELECT id, name FROM items WHERE category = ?";
+
+  @TempDir
+  Path dir;
+
+  // Runs the statement and returns its rows, after checking whether they
+  // came from the cache.
+  private static List<Row> query(QueryEngine engine, String sql,
+                                 String category, boolean hit)
+  throws IOException {
+    var metrics = Metrics.start();
+    List<Row> rows;
+    try (metrics) {
+      rows = engine.prepare(sql).bind(1, new Value.StringValue(category))
+                   .execute();
+    }
+    assertEquals(hit ? 1 : 0, metrics.get(Metrics.Counter.RESULT_CACHE_HITS));
+    assertEquals(hit ? 0 : 1,
+                 metrics.get(Metrics.Counter.RESULT_CACHE_MISSES));
+    if (hit) assertEquals(0, metrics.get(Metrics.Counter.RECORDS_DECODED));
+    assertEquals(rows.size(), metrics.get(Metrics.Counter.ROWS_EMITTED));
+    return rows;
+  }
+
+  @Test
+  void testRepeatedStatements() throws IOException {
+    var path = TestDatabases.generate(dir, TestDatabases.ITEMS);
+    try (var storage = TestDatabases.open(path)) {
+      var engine = new QueryEngine(storage);
+      engine.setResultCacheBytes(1 << 20);
+
+      var expected = query(engine, LOOKUP, "category3", false);
+      assertEquals(714, expected.size());
+      assertEquals(expected, query(engine, LOOKUP, "category3", true));
+      // the same statement written differently
+      assertEquals(expected, query(
+          engine, "select id,  name\n from items where category=?",
+          "category3", true));
+      // but not with other bindings
+      query(engine, LOOKUP, "category4", false);
+      var count = "SELECT count(*) FROM items WHERE category = ?";
+      query(engine, count, "category3", false);
+      query(engine, count, "category3", true);
+
+      // rows a consumer stopped reading aren't cached
+      var statement = engine.prepare(LOOKUP)
+                            .bind(1, new Value.StringValue("category5"));
+      assertThrows(IllegalStateException.class, () -> statement.execute(row -> {
+        throw new IllegalStateException("stop");
+      }));
+      query(engine, LOOKUP, "category5", false);
+
+      // a change to the file empties it
+      TestDatabases.setChangeCounter(path, 9);
+      assertEquals(expected, query(engine, LOOKUP, "category3", false));
+      assertEquals(expected, query(engine, LOOKUP, "category3", true));
+
+      // results bigger than a quarter of the budget aren't kept
+      engine.setResultCacheBytes(64 << 10);
+      query(engine, LOOKUP, "category3", false);
+      query(engine, LOOKUP, "category3", false);
+      assertThrows(IllegalArgumentException.class,
+                   () -> engine.setResultCacheBytes(-1));
+    }
+  }
+
+  @Test
+  void testCachedRowsCantBeChanged() throws IOException {
+    var path = TestDatabases.generate(dir, TestDatabases.ITEMS);
+    try (var storage = TestDatabases.open(path)) {
+      var engine = new QueryEngine(storage);
+      engine.setResultCacheBytes(1 << 20);
+
+      // the rows a miss passes on are the consumer's to change
+      var first = query(engine, LOOKUP, "category3", false);
+      var expected = new ArrayList<Row>();
+      for (var row : first) expected.add(new Row(List.copyOf(row.columns())));
+      first.getFirst().columns().set(1, new Value.NullValue());
+      var hit = query(engine, LOOKUP, "category3", true);
+      assertEquals(expected, hit);
+      // and the ones a hit passes on can't be changed
+      var columns = hit.getFirst().columns();
+      assertThrows(UnsupportedOperationException.class,
+                   () -> columns.set(1, new Value.NullValue()));
+      assertEquals(expected, query(engine, LOOKUP, "category3", true));
+    }
+  }
+
+  private static ResultCache.Key put(ResultCache cache, String table,
+                                     int rows) {
+    var statement = new AST.SelectStatement(
+        List.of(new AST.ColumnName("id")), Optional.empty(), table);
+    var key = cache.key(statement, new Value[0], 1);
+    var recorder = cache.recorder(key);
+    for (int i = 0; i < rows; i++) {
+      recorder.accept(new Row(List.of(new Value.IntValue(i))));
+    }
+    recorder.finish();
+    return key;
+  }
+
+  @Test
+  void testLeastRecentlyUsedEvicted() {
+    var cache = new ResultCache();
+    assertNull(cache.key(new AST.SelectStatement(
+        List.of(new AST.Star()), Optional.empty(), "t"), new Value[0], 1));
+    cache.setBudget(4096);
+    // about 1000 bytes each
+    var a = put(cache, "a", 10);
+    var b = put(cache, "b", 10);
+    var c = put(cache, "c", 10);
+    assertNotNull(cache.get(a));
+    put(cache, "d", 10);
+    put(cache, "e", 10);
+    assertTrue(cache.sizeInBytes() <= 4096);
+    assertNotNull(cache.get(a));
+    assertNull(cache.get(b));
+    assertTrue(cache.size() >= 3);
+    assertEquals(10, cache.get(put(cache, "f", 10)).size());
+    assertNull(cache.get(c));
+  }
+}
@@ -0,0 +1,125 @@
+package sqlite.query;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import sqlite.sql.SQLException;
+import sqlite.storage.Generator;
+import sqlite.storage.Metrics;
+import sqlite.storage.PageCache;
+import sqlite.storage.StorageException;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ShardedQueryEngineTest {
+  private static final long[] ROWS = {100, 0, 250, 40};
+
+  @TempDir
+  Path dir;
+
+  private ShardedQueryEngine open() throws IOException {
+    var paths = new ArrayList<Path>();
+    for (int i = 0; i < ROWS.length; i++) {
+      var path = dir.resolve("shard%d.db".formatted(i));
+      Generator.generate(path, new Generator.Options(ROWS[i])
+          .withCategories(10).withSeed(i));
+      paths.add(path);
+    }
+    return ShardedQueryEngine.open(paths, new PageCache(), 2);
+  }
+
+  private static Value value(List<Row> rows) {
+    assertEquals(1, rows.size());
+    return rows.getFirst().columns().getFirst();
+  }
+
+  @Test
+  void testAggregates() throws IOException {
+    try (var shards = open()) {
+      assertEquals(new Value.IntValue(390),
+                   value(shards.evaluate("SELECT count(*) FROM items")));
+      // the ids 1..n of each shard
+      long sum = 0;
+      for (long n : ROWS) sum += n * (n + 1) / 2;
+      assertEquals(new Value.IntValue(sum),
+                   value(shards.evaluate("SELECT sum(id) FROM items")));
+      assertEquals(new Value.RealValue((double) sum / 390),
+                   value(shards.evaluate("SELECT avg(id) FROM items")));
+      assertEquals(new Value.IntValue(250),
+                   value(shards.evaluate("SELECT max(id) FROM items")));
+      assertEquals(new Value.IntValue(39), value(shards.evaluate(
+          "SELECT count(*) FROM items WHERE category = 'category3'")));
+    }
+  }
+
+  @Test
+  void testRowsInShardOrder() throws IOException {
+    try (var shards = open()) {
+      var ids = shards.evaluate(
+              "SELECT id FROM items WHERE category = 'category3'")
+          .stream().map(row -> row.columns().getFirst().getInt()).toList();
+      // each shard's rows come together, in any order within the shard
+      int offset = 0;
+      for (long n : ROWS) {
+        var expected = new ArrayList<Long>();
+        for (long id = 3; id <= n; id += 10) expected.add(id);
+        var actual = ids.subList(offset, offset + expected.size());
+        assertEquals(expected, actual.stream().sorted().toList());
+        offset += expected.size();
+      }
+      assertEquals(ids.size(), offset);
+    }
+  }
+
+  @Test
+  void testFailedShardLeavesOthersUsable() throws IOException {
+    // big enough that the other shards are still reading when one fails
+    var paths = new ArrayList<Path>();
+    for (int i = 0; i < 4; i++) {
+      var path = dir.resolve("big%d.db".formatted(i));
+      Generator.generate(path, new Generator.Options(i == 0 ? 100 : 20000)
+          .withCategories(10).withSeed(i));
+      paths.add(path);
+    }
+    var broken = paths.getFirst();
+    var bytes = Files.readAllBytes(broken);
+    try (var shards = ShardedQueryEngine.open(paths, new PageCache(), 4)) {
+      var count = "SELECT count(*) FROM items";
+      assertEquals(new Value.IntValue(60100), value(shards.evaluate(count)));
+      // cut off every page but the first
+      try (var file = FileChannel.open(broken, WRITE)) {
+        file.truncate(bytes.length / 2);
+      }
+      var scan = "SELECT max(name) FROM items";
+      for (int i = 0; i < 5; i++) {
+        assertThrows(StorageException.class, () -> shards.evaluate(scan));
+      }
+      Files.write(broken, bytes);
+      assertEquals(new Value.IntValue(60100), value(shards.evaluate(count)));
+      shards.evaluate(scan);
+    }
+  }
+
+  @Test
+  void testMetricsAndErrors() throws IOException {
+    try (var shards = open()) {
+      var metrics = Metrics.start();
+      try (metrics) {
+        shards.evaluate("SELECT id FROM items WHERE category = 'category3'");
+      }
+      assertEquals(1, metrics.get(Metrics.Counter.STATEMENTS));
+      assertEquals(ROWS.length, metrics.get(Metrics.Counter.INDEX_LOOKUPS));
+      assertEquals(39, metrics.get(Metrics.Counter.ROWS_EMITTED));
+      assertThrows(SQLException.class,
+                   () -> shards.evaluate("SELECT * FROM nosuchtable"));
+    }
+  }
+}
@@ -0,0 +1,122 @@
+package sqlite.query;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ValueTest {
+  private static int compare(Value a, Value b) {
+    return Integer.signum(a.compareTo(b));
+  }
+
+  private static Value i(long x) {return new Value.IntValue(x);}
+
+  private static Value r(double x) {return new Value.RealValue(x);}
+
+  private static Value s(String x) {return new Value.StringValue(x);}
+
+  private static Value b(int... bytes) {
+    var blob = new byte[bytes.length];
+    for (int j = 0; j < bytes.length; j++) blob[j] = (byte) bytes[j];
+    return new Value.BlobValue(blob);
+  }
+
+  @Test
+  public void testIntegers() {
+    assertEquals(-1, compare(i(Long.MIN_VALUE), i(Long.MAX_VALUE)));
+    assertEquals(1, compare(i(Long.MAX_VALUE), i(-1)));
+    assertEquals(0, compare(i(42), i(42)));
+  }
+
+  @Test
+  public void testNumbers() {
+    assertEquals(0, compare(i(2), r(2.0)));
+    assertEquals(-1, compare(i(2), r(2.5)));
+    assertEquals(1, compare(r(2.5), i(2)));
+    assertEquals(1, compare(i(-2), r(-2.5)));
+    assertEquals(0, compare(r(0.0), r(-0.0)));
+    // doubles can't represent these exactly
+    assertEquals(-1, compare(i(Long.MAX_VALUE), r(0x1p63)));
+    assertEquals(1, compare(i((1L << 53) + 1), r(0x1p53)));
+  }
+
+  @Test
+  public void testStorageClasses() {
+    var sorted = List.of(new Value.NullValue(), i(Long.MIN_VALUE), r(0.5),
+                         i(Long.MAX_VALUE), s(""), s("a"), b(), b(0));
+    for (int x = 0; x < sorted.size(); x++) {
+      for (int y = 0; y < sorted.size(); y++) {
+        assertEquals(Integer.compare(x, y),
+                     compare(sorted.get(x), sorted.get(y)),
+                     "%s vs %s".formatted(sorted.get(x), sorted.get(y)));
+      }
+    }
+  }
+
+  @Test
+  public void testBlobs() {
+    assertEquals(1, compare(b(0xff), b(0x01)));
+    assertEquals(-1, compare(b(1, 2), b(1, 2, 0)));
+    assertEquals(0, compare(b(1, 2), b(1, 2)));
+  }
+
+  @Test
+  public void testCollations() {
+    // U+1F600 is stored as a surrogate pair, which String.compareTo
+    // orders before U+FFFD
+    assertEquals(1, compare(s("\uD83D\uDE00"), s("\uFFFD")));
+    assertEquals(-1, compare(s("B"), s("a")));
+    assertEquals(0, Collation.NOCASE.compare("ABC", "abc"));
+    assertEquals(1, Integer.signum(Collation.NOCASE.compare("b", "A")));
+    // only ASCII is folded
+    assertEquals(1, Integer.signum(Collation.NOCASE.compare("é", "É")));
+    assertEquals(0, Collation.RTRIM.compare("abc  ", "abc"));
+    assertEquals(-1, Integer.signum(Collation.RTRIM.compare(" abc", "abc")));
+    assertEquals(Collation.NOCASE, Collation.of("nocase"));
+  }
+
+  @Test
+  public void testDisplayReal() {
+    assertEquals("1.0", r(1.0).display());
+    assertEquals("0.1", r(0.1).display());
+    assertEquals("0.3", r(0.1 + 0.2).display());
+    assertEquals("-0.5", r(-0.5).display());
+    assertEquals("0.0", r(-0.0).display());
+    assertEquals("0.333333333333333", r(1.0 / 3).display());
+    assertEquals("123456789.125", r(123456789.125).display());
+    assertEquals("100000000000001.0", r(1e14 + 0.5).display());
+    assertEquals("1.0e+15", r(1e15).display());
+    assertEquals("-1.5e+20", r(-1.5e20).display());
+    assertEquals("2.0e-05", r(2e-5).display());
+    assertEquals("0.0001", r(1e-4).display());
+    assertEquals("Inf", r(Double.POSITIVE_INFINITY).display());
+  }
+
+  @Test
+  public void testNumericAffinity() {
+    assertEquals(i(5), Value.numeric(s("5")));
+    assertEquals(i(-5), Value.numeric(s(" -5 ")));
+    assertEquals(r(2.5), Value.numeric(s("2.5")));
+    assertEquals(r(1e3), Value.numeric(s("1e3")));
+    assertEquals(r(0x1p63), Value.numeric(s("9223372036854775808")));
+    assertEquals(s("5kg"), Value.numeric(s("5kg")));
+    assertEquals(s(""), Value.numeric(s("")));
+    assertEquals(s("."), Value.numeric(s(".")));
+    assertEquals(r(1.5), Value.numeric(r(1.5)));
+  }
+
+  @Test
+  public void testToReal() {
+    assertEquals(0.0, Value.toReal(new Value.NullValue()));
+    assertEquals(-3.0, Value.toReal(i(-3)));
+    assertEquals(2.5, Value.toReal(s(" 2.5kg")));
+    assertEquals(1e3, Value.toReal(s("1e3")));
+    assertEquals(1.0, Value.toReal(s("1e")));
+    assertEquals(-0.5, Value.toReal(s("-.5")));
+    assertEquals(0.0, Value.toReal(s("abc")));
+    assertEquals(0.0, Value.toReal(s(".")));
+    assertEquals(7.0, Value.toReal(b('7')));
+  }
+}
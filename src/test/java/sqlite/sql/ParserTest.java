@@ -172,4 +172,33 @@ public class ParserTest {
         parse("select count(name) from users where birthplace = 'nyc'").select()
     );
   }
+
+  @Test
+  public void testSelectWithParameters() {
+    var parser = parse("select name from users where email = ?");
+    assertEquals(
+        new SelectStatement(
+            List.of(new ColumnName("name")),
+            Optional.of(new Filter(new ColumnName("email"),
+                                   new Parameter(1, Optional.empty()))),
+            "users"),
+        parser.select());
+    assertEquals(List.of(new Parameter(1, Optional.empty())),
+                 parser.parameters());
+  }
+
+  @Test
+  public void testSelectWithNamedParameters() {
+    var parser = parse("select :a, ?, :a, :b from users where email = :b");
+    var a = new Parameter(1, Optional.of("a"));
+    var b = new Parameter(3, Optional.of("b"));
+    var unnamed = new Parameter(2, Optional.empty());
+    assertEquals(
+        new SelectStatement(
+            List.of(a, unnamed, a, b),
+            Optional.of(new Filter(new ColumnName("email"), b)),
+            "users"),
+        parser.select());
+    assertEquals(List.of(a, unnamed, b), parser.parameters());
+  }
 }
@@ -30,6 +30,7 @@ public class ScannerTest {
     assertThrows(SQLException.class, () -> scanAll(" ^  "));
     assertThrows(SQLException.class, () -> scanAll(" 'foo  "));
     assertThrows(SQLException.class, () -> scanAll(" \"foo   "));
+    assertThrows(SQLException.class, () -> scanAll(" : foo"));
   }
 
   @Test
@@ -66,4 +67,12 @@ public class ScannerTest {
     );
     assertEquals(expected, actual);
   }
+
+  @Test
+  public void testScanParameters() {
+    assertEquals(
+        List.of(Token.of(PARAM), Token.of(EQ), Token.of(PARAM, "foo_bar"),
+                Token.of(COMMA), Token.of(PARAM)),
+        scanAll("?= :foo_bar,?"));
+  }
 }
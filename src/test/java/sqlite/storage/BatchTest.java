@@ -0,0 +1,91 @@
+package sqlite.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import sqlite.query.Value;
+import sqlite.sql.SQLException;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BatchTest {
+  private static final List<String> COLUMNS =
+      List.of("price", "id", "data", "name");
+
+  @TempDir
+  Path dir;
+
+  private Table table(long rows) throws IOException {
+    var path = dir.resolve("test.db");
+    // blobs long enough that some records spill onto overflow pages
+    Generator.generate(path, new Generator.Options(rows).withCategories(10)
+                                                        .withBlobLength(900));
+    return StorageEngine.open(path, new PageCache()).getTables().getFirst();
+  }
+
+  // Blobs are arrays, which records compare by identity.
+  private static Value comparable(Value value) {
+    return value instanceof Value.BlobValue(var blob)
+        ? new Value.StringValue(HexFormat.of().formatHex(blob))
+        : value;
+  }
+
+  // Copies each batch's rows out, since batches are reused.
+  private static List<List<Value>> values(Batch batch) {
+    var rows = new ArrayList<List<Value>>();
+    for (int row = 0; row < batch.size(); row++) {
+      var values = new ArrayList<Value>();
+      values.add(new Value.IntValue(batch.rowId(row)));
+      for (int i = 0; i < COLUMNS.size(); i++) {
+        values.add(comparable(batch.column(i).value(row)));
+      }
+      rows.add(values);
+    }
+    return rows;
+  }
+
+  private static List<Value> expected(Table.Row row) {
+    var values = new ArrayList<Value>();
+    values.add(new Value.IntValue(row.rowId()));
+    for (var column : COLUMNS) values.add(comparable(row.get(column)));
+    return values;
+  }
+
+  @Test
+  void testScanMatchesRows() throws IOException {
+    var table = table(2500);
+    var expected = table.rows().stream().map(BatchTest::expected).toList();
+    var actual = new ArrayList<List<Value>>();
+    var sizes = new ArrayList<Integer>();
+    table.scan(COLUMNS, batch -> {
+      sizes.add(batch.size());
+      actual.addAll(values(batch));
+    });
+    assertEquals(expected, actual);
+    assertTrue(sizes.stream().allMatch(n -> n > 0 && n <= Batch.CAPACITY));
+    assertTrue(sizes.size() >= 3);
+  }
+
+  @Test
+  void testFetchInOrder() throws IOException {
+    var table = table(2500);
+    var rowIds = List.of(2500L, 1L, 1234L, 7L, 1234L);
+    var actual = new ArrayList<List<Value>>();
+    table.fetch(rowIds, COLUMNS, batch -> actual.addAll(values(batch)));
+    var expected = rowIds.stream()
+        .map(id -> expected(table.get(id).orElseThrow())).toList();
+    assertEquals(expected, actual);
+
+    assertThrows(StorageException.class,
+                 () -> table.fetch(List.of(2501L), COLUMNS, batch -> {}));
+    assertThrows(SQLException.class,
+                 () -> table.scan(List.of("nope"), batch -> {}));
+  }
+}
@@ -0,0 +1,101 @@
+package sqlite.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import sqlite.query.Collation;
+import sqlite.query.QueryEngine;
+import sqlite.query.Value;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BloomFilterTest {
+  @TempDir
+  Path dir;
+
+  private static BloomFilter filter(Collation collation, Value... keys) {
+    var builder = new BloomFilter.Builder(collation);
+    for (var key : keys) builder.add(key);
+    return builder.build(1 << 10, 0);
+  }
+
+  @Test
+  void testEqualKeysMatch() {
+    var numbers = filter(Collation.BINARY, new Value.IntValue(1),
+                         new Value.RealValue(2.0), new Value.RealValue(0.5));
+    assertTrue(numbers.mightContain(new Value.RealValue(1.0)));
+    assertTrue(numbers.mightContain(new Value.IntValue(2)));
+    assertTrue(numbers.mightContain(new Value.RealValue(0.5)));
+    assertFalse(numbers.mightContain(new Value.StringValue("1")));
+    // left to the index
+    assertTrue(numbers.mightContain(new Value.NullValue()));
+
+    var noCase = filter(Collation.NOCASE, new Value.StringValue("Hello"));
+    assertTrue(noCase.mightContain(new Value.StringValue("hELLO")));
+    var rtrim = filter(Collation.RTRIM, new Value.StringValue("a  "));
+    assertTrue(rtrim.mightContain(new Value.StringValue("a")));
+    var binary = filter(Collation.BINARY, new Value.StringValue("a"),
+                        new Value.BlobValue(new byte[]{1, 2}));
+    assertTrue(binary.mightContain(new Value.BlobValue(new byte[]{1, 2})));
+  }
+
+  @Test
+  void testFalsePositiveRate() {
+    var builder = new BloomFilter.Builder(Collation.BINARY);
+    for (int i = 0; i < 10000; i++) builder.add(new Value.IntValue(i));
+    var filter = builder.build(1 << 20, 0);
+    int positives = 0;
+    for (int i = 10000; i < 110000; i++) {
+      if (filter.mightContain(new Value.IntValue(i))) positives++;
+    }
+    assertTrue(positives < 2000, "false positives: " + positives);
+    // the budget wins over the false positive rate
+    assertEquals(64, builder.build(64, 0).sizeInBytes());
+  }
+
+  // Counts the items in the category and returns the metrics for it.
+  private static Metrics count(QueryEngine engine, String category,
+                               long expected) throws IOException {
+    var metrics = Metrics.start();
+    try (metrics) {
+      var rows = engine.prepare("SELECT count(*) FROM items WHERE category = ?")
+                       .bind(1, new Value.StringValue(category)).execute();
+      assertEquals(new Value.IntValue(expected),
+                   rows.getFirst().columns().getFirst());
+    }
+    return metrics;
+  }
+
+  @Test
+  void testMissingKeysSkipIndex() throws IOException {
+    var path = TestDatabases.generate(
+        dir, new Generator.Options(2000).withCategories(10).withLeafCells(8));
+    try (var storage = TestDatabases.open(path)) {
+      storage.useBloomFilters(StorageEngine.DEFAULT_BLOOM_FILTER_BYTES);
+      var engine = new QueryEngine(storage);
+
+      var found = count(engine, "category3", 200);
+      assertEquals(0, found.get(Metrics.Counter.BLOOM_FILTER_HITS));
+      var missing = count(engine, "category10", 0);
+      assertEquals(1, missing.get(Metrics.Counter.BLOOM_FILTER_HITS));
+      // only the header, which the statement reads to check for changes
+      assertEquals(1, missing.get(Metrics.Counter.PAGES_READ) +
+                      missing.get(Metrics.Counter.CACHE_HITS));
+
+      // a new version of the file gets a new filter
+      TestDatabases.setChangeCounter(path, 9);
+      storage.refresh();
+      var rebuilt = count(engine, "category10", 0);
+      assertTrue(rebuilt.get(Metrics.Counter.PAGES_READ) > 0);
+      assertEquals(1, rebuilt.get(Metrics.Counter.BLOOM_FILTER_HITS));
+
+      assertThrows(IllegalArgumentException.class,
+                   () -> storage.useBloomFilters(-1));
+    }
+  }
+}
@@ -0,0 +1,69 @@
+package sqlite.storage;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import sqlite.query.QueryEngine;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EventsTest {
+  @TempDir
+  Path dir;
+
+  private List<RecordedEvent> events(Recording recording, String name)
+  throws IOException {
+    var byTime = Comparator.comparing(RecordedEvent::getStartTime);
+    return RecordingFile.readAllEvents(recording.getDestination()).stream()
+                        .filter(e -> e.getEventType().getName().equals(name))
+                        .sorted(byTime)
+                        .toList();
+  }
+
+  @Test
+  void testEvents() throws IOException {
+    var path = dir.resolve("test.db");
+    Generator.generate(path, new Generator.Options(1000).withCategories(10));
+    var engine = new QueryEngine(
+        new StorageEngine(new BackingFile(Files.newByteChannel(path))));
+
+    try (var recording = new Recording()) {
+      recording.enable("sqlite.PageRead").withoutThreshold();
+      recording.enable("sqlite.BTreeDescent").withoutThreshold();
+      recording.enable("sqlite.QueryPhase").withoutThreshold();
+      recording.setDestination(dir.resolve("test.jfr"));
+      recording.start();
+      engine.evaluate("SELECT id FROM items WHERE category = 'category3'");
+      recording.stop();
+
+      var phases = events(recording, "sqlite.QueryPhase")
+          .stream().map(e -> e.getString("phase")).toList();
+      assertEquals(List.of("parse", "plan", "execute"), phases);
+
+      var descents = events(recording, "sqlite.BTreeDescent");
+      var index = descents.stream()
+                          .filter(e -> e.getString("tree")
+                                        .equals("idx_items_category"))
+                          .toList();
+      assertEquals(1, index.size());
+      assertEquals(100, index.getFirst().getInt("matches"));
+      assertEquals(101, descents.size());
+
+      var pages = events(recording, "sqlite.PageRead");
+      assertTrue(pages.stream().anyMatch(e -> e.getInt("pageNumber") == 1 &&
+                                              !e.getBoolean("cached")));
+      assertTrue(pages.stream().anyMatch(e -> e.getBoolean("cached")));
+      assertTrue(pages.stream().anyMatch(
+          e -> e.getString("pageType").equals("index leaf")));
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package sqlite.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import sqlite.query.Value;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class GeneratorTest {
+  @TempDir
+  Path dir;
+
+  private StorageEngine generate(Generator.Options options) throws IOException {
+    var path = dir.resolve("test.db");
+    Generator.generate(path, options);
+    return new StorageEngine(new BackingFile(Files.newByteChannel(path)));
+  }
+
+  private static List<Long> rowIdsInCategory(Generator.Options options,
+                                             long category) {
+    return LongStream.rangeClosed(1, options.rows())
+                     .filter(id -> id % options.categories() == category)
+                     .boxed()
+                     .toList();
+  }
+
+  private static void checkIndex(StorageEngine storage,
+                                 Generator.Options options) {
+    var index = storage.getIndices().getFirst();
+    for (long category = 0; category < options.categories(); category++) {
+      var value = new Value.StringValue(Generator.category(category));
+      var ids = index.findMatchingRecordIds("category", value);
+      assertEquals(rowIdsInCategory(options, category),
+                   ids.stream().sorted().toList());
+    }
+  }
+
+  @Test
+  void testDeepTree() throws IOException {
+    var options = new Generator.Options(1000).withCategories(7)
+                                             .withLeafCells(3)
+                                             .withFanout(2);
+    var storage = generate(options);
+    var table = storage.getTables().getFirst();
+    assertEquals(1000, table.rows().size());
+    for (long id = 1; id <= 1000; id++) {
+      var row = table.get(id).orElseThrow();
+      assertEquals(Generator.category(id % 7), row.get("category").getString());
+    }
+    checkIndex(storage, options);
+  }
+
+  @Test
+  void testDepth() throws IOException {
+    var options = new Generator.Options(5000).withLeafCells(4).withDepth(4);
+    var storage = generate(options);
+    assertEquals(5000, storage.getTables().getFirst().rows().size());
+    checkIndex(storage, options);
+  }
+
+  @Test
+  void testOverflow() throws IOException {
+    var options = new Generator.Options(50).withPageSize(512)
+                                           .withBlobLength(3000)
+                                           .withNameLength(1000)
+                                           .withCategories(3);
+    var storage = generate(options);
+    var table = storage.getTables().getFirst();
+    for (long id = 1; id <= 50; id++) {
+      var row = table.get(id).orElseThrow();
+      assertArrayEquals(Generator.blob(id, 3000),
+                        ((Value.BlobValue) row.get("data")).blob());
+      assertEquals(1000, row.get("name").getString().length());
+    }
+    checkIndex(storage, options);
+  }
+
+  @Test
+  void testLargePages() throws IOException {
+    var options = new Generator.Options(2000).withPageSize(65536)
+                                             .withBlobLength(100);
+    var storage = generate(options);
+    assertEquals(65536, storage.getInfo().get("database page size"));
+    assertEquals(2000, storage.getTables().getFirst().rows().size());
+    checkIndex(storage, options);
+  }
+
+  @Test
+  void testReservedBytes() throws IOException {
+    // payloads spill at a different size when pages end in reserved bytes
+    var options = new Generator.Options(50).withPageSize(1024)
+                                           .withReserved(32)
+                                           .withBlobLength(3000)
+                                           .withNameLength(1000)
+                                           .withCategories(3);
+    var storage = generate(options);
+    var table = storage.getTables().getFirst();
+    assertEquals(50, table.rows().size());
+    for (long id = 1; id <= 50; id++) {
+      var row = table.get(id).orElseThrow();
+      assertArrayEquals(Generator.blob(id, 3000),
+                        ((Value.BlobValue) row.get("data")).blob());
+      assertEquals(1000, row.get("name").getString().length());
+    }
+    checkIndex(storage, options);
+  }
+}
@@ -0,0 +1,89 @@
+package sqlite.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LeafHintsTest {
+  @TempDir
+  Path dir;
+
+  // Looks up the row and returns the metrics for it.
+  private static Metrics get(Table table, long rowId) {
+    var metrics = Metrics.start();
+    try (metrics) {
+      assertEquals(rowId, table.get(rowId).orElseThrow().rowId());
+    }
+    return metrics;
+  }
+
+  private static long pages(Metrics metrics) {
+    return metrics.get(Metrics.Counter.PAGES_READ) +
+           metrics.get(Metrics.Counter.CACHE_HITS);
+  }
+
+  // Opens the database with leaf hints kept in the file.
+  private static StorageEngine open(Path db, Path hintsPath)
+  throws IOException {
+    var storage = TestDatabases.open(db);
+    storage.useLeafHints(hintsPath);
+    return storage;
+  }
+
+  @Test
+  void testLookupsSkipInteriorPages() throws IOException {
+    // small leaves, so a lookup descends through several interior pages
+    var db = TestDatabases.generate(dir, TestDatabases.ITEMS.withLeafCells(4));
+    var hintsPath = dir.resolve("test.hints");
+    try (var storage = open(db, hintsPath)) {
+      var table = storage.getTables().getFirst();
+      var descent = get(table, 1234);
+      assertEquals(0, descent.get(Metrics.Counter.LEAF_HINT_HITS));
+      assertTrue(pages(descent) > 2);
+      // rows on the same leaf go straight to it
+      var hit = get(table, 1233);
+      assertEquals(1, hit.get(Metrics.Counter.LEAF_HINT_HITS));
+      assertEquals(1, pages(hit));
+      // a missing row in a hinted range is still missing
+      assertFalse(table.get(-1).isPresent());
+
+      // a wrong hint is checked and dropped
+      var leaves = storage.leafHints();
+      leaves.put(new LeafHints.Hint(table.rootPage(), 4000, 4001,
+                                    leaves.get(table.rootPage(), 1234)));
+      var stale = get(table, 4000);
+      assertEquals(0, stale.get(Metrics.Counter.LEAF_HINT_HITS));
+      assertEquals(1, get(table, 4000).get(Metrics.Counter.LEAF_HINT_HITS));
+    }
+    assertTrue(Files.exists(hintsPath));
+
+    // another process picks up the saved hints
+    try (var storage = open(db, hintsPath)) {
+      var table = storage.getTables().getFirst();
+      assertEquals(1, pages(get(table, 1234)));
+    }
+
+    // but not once the database has changed
+    TestDatabases.setChangeCounter(db, 7);
+    try (var storage = open(db, hintsPath)) {
+      assertEquals(0, storage.leafHints().size());
+      var table = storage.getTables().getFirst();
+      get(table, 1234);
+      assertEquals(1, get(table, 1234).get(Metrics.Counter.LEAF_HINT_HITS));
+
+      // and a change seen by a refresh drops them
+      long generation = storage.dataGeneration();
+      TestDatabases.setChangeCounter(db, 8);
+      storage.refresh();
+      assertEquals(generation + 1, storage.dataGeneration());
+      assertEquals(0, storage.leafHints().size());
+    }
+  }
+}
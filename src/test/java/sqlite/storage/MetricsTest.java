@@ -0,0 +1,91 @@
+package sqlite.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import sqlite.query.QueryEngine;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MetricsTest {
+  @TempDir
+  Path dir;
+
+  private QueryEngine engine() throws IOException {
+    var path = dir.resolve("test.db");
+    Generator.generate(path, new Generator.Options(1000).withCategories(10));
+    return engine(path, true);
+  }
+
+  private static QueryEngine engine(Path path, boolean prefetch)
+  throws IOException {
+    var file = new BackingFile(Files.newByteChannel(path));
+    var storage = new StorageEngine(file);
+    storage.setPrefetch(prefetch);
+    return new QueryEngine(storage);
+  }
+
+  private static Metrics scan(QueryEngine engine) throws IOException {
+    var metrics = Metrics.start();
+    try (metrics) {
+      engine.evaluate("SELECT id FROM items WHERE quantity = 'x'");
+    }
+    return metrics;
+  }
+
+  @Test
+  void testStatementMetrics() throws IOException {
+    var engine = engine();
+    long before = Metrics.TOTAL.get(Metrics.Counter.STATEMENTS);
+
+    var scan = Metrics.start();
+    try (scan) {
+      engine.evaluate("SELECT id FROM items WHERE quantity = 'x'");
+    }
+    assertEquals(1, scan.get(Metrics.Counter.STATEMENTS));
+    assertEquals(1, scan.get(Metrics.Counter.TABLE_SCANS));
+    assertEquals(0, scan.get(Metrics.Counter.ROWS_EMITTED));
+    assertTrue(scan.get(Metrics.Counter.RECORDS_DECODED) >= 1000);
+    assertTrue(scan.get(Metrics.Counter.PAGES_READ) > 1);
+    assertTrue(scan.get(Metrics.Counter.PAGES_PREFETCHED) > 1);
+    assertEquals(scan.get(Metrics.Counter.PAGES_READ) * 4096,
+                 scan.get(Metrics.Counter.BYTES_READ));
+
+    var lookup = Metrics.start();
+    try (lookup) {
+      engine.evaluate("SELECT id FROM items WHERE category = 'category3'");
+    }
+    assertEquals(1, lookup.get(Metrics.Counter.INDEX_LOOKUPS));
+    assertEquals(0, lookup.get(Metrics.Counter.TABLE_SCANS));
+    assertEquals(100, lookup.get(Metrics.Counter.ROWS_EMITTED));
+    assertTrue(lookup.get(Metrics.Counter.CACHE_HITS) > 0);
+    assertTrue(lookup.nanos(Metrics.Operator.FETCH) > 0);
+
+    assertSame(Metrics.TOTAL, Metrics.current());
+    assertTrue(Metrics.TOTAL.get(Metrics.Counter.STATEMENTS) >= before + 2);
+  }
+
+  @Test
+  void testPrefetch() throws IOException {
+    var path = dir.resolve("test.db");
+    Generator.generate(path, new Generator.Options(5000).withCategories(10));
+    var plain = scan(engine(path, false));
+    assertEquals(0, plain.get(Metrics.Counter.PAGES_PREFETCHED));
+    assertTrue(plain.get(Metrics.Counter.PAGES_READ) > 20);
+
+    // reading ahead reads the same pages, and using them isn't a hit
+    var prefetched = scan(engine(path, true));
+    assertTrue(prefetched.get(Metrics.Counter.PAGES_PREFETCHED) > 20);
+    for (var counter : new Metrics.Counter[] {Metrics.Counter.PAGES_READ,
+                                              Metrics.Counter.BYTES_READ,
+                                              Metrics.Counter.CACHE_HITS}) {
+      assertEquals(plain.get(counter), prefetched.get(counter),
+                   counter.label());
+    }
+  }
+}
@@ -0,0 +1,96 @@
+package sqlite.storage;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PageCacheTest {
+  private static final int PAGE_SIZE = 512;
+  private static final Object OWNER = new Object();
+
+  private static PageCache.Frame put(PageCache cache, int pageNumber) {
+    var buf = cache.allocate(PAGE_SIZE);
+    buf.putInt(0, pageNumber);
+    return cache.put(OWNER, pageNumber, buf);
+  }
+
+  @Test
+  void testEvictsLeastRecentlyUsed() {
+    var cache = new PageCache(2 * PAGE_SIZE);
+    put(cache, 1).close();
+    put(cache, 2).close();
+    cache.get(OWNER, 1).close();
+    put(cache, 3).close();
+    assertTrue(cache.contains(OWNER, 1));
+    assertFalse(cache.contains(OWNER, 2));
+    assertTrue(cache.contains(OWNER, 3));
+    try (var frame = cache.get(OWNER, 3)) {
+      assertEquals(3, frame.buffer().getInt(0));
+    }
+    assertNull(cache.get(OWNER, 2));
+  }
+
+  @Test
+  void testPinnedPagesAreNotEvicted() {
+    var cache = new PageCache(PAGE_SIZE);
+    var pinned = put(cache, 1);
+    put(cache, 2).close();
+    assertTrue(cache.contains(OWNER, 1));
+    assertFalse(cache.contains(OWNER, 2));
+    assertEquals(1, pinned.buffer().getInt(0));
+    pinned.close();
+    assertThrows(IllegalStateException.class, pinned::close);
+  }
+
+  @Test
+  void testReusesEvictedBuffers() {
+    var cache = new PageCache(PAGE_SIZE);
+    put(cache, 1).close();
+    var frame = cache.get(OWNER, 1);
+    var buf = frame.buffer();
+    frame.close();
+    put(cache, 2).close();
+    var reused = cache.allocate(PAGE_SIZE);
+    assertTrue(reused.isDirect());
+    buf.putInt(0, 42);
+    assertEquals(42, reused.getInt(0));
+  }
+
+  @Test
+  void testPutReturnsExistingPage() {
+    var cache = new PageCache(4 * PAGE_SIZE);
+    var first = put(cache, 1);
+    var second = put(cache, 1);
+    assertSame(first, second);
+    assertEquals(1, second.buffer().getInt(0));
+    first.close();
+    second.close();
+    assertNotNull(cache.get(OWNER, 1));
+  }
+
+  @Test
+  void testInvalidate() {
+    var cache = new PageCache(4 * PAGE_SIZE);
+    var other = new Object();
+    put(cache, 1).close();
+    var pinned = put(cache, 2);
+    cache.put(other, 1, cache.allocate(PAGE_SIZE)).close();
+    cache.invalidate(OWNER);
+    assertNull(cache.get(OWNER, 1));
+    assertNull(cache.get(OWNER, 2));
+    assertTrue(cache.contains(other, 1));
+    // the pinned page is still readable until it's released
+    assertEquals(2, pinned.buffer().getInt(0));
+    pinned.close();
+    put(cache, 2).close();
+    try (var frame = cache.get(OWNER, 2)) {
+      assertEquals(2, frame.buffer().getInt(0));
+    }
+  }
+}
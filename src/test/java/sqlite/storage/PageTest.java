@@ -1,6 +1,7 @@
 package sqlite.storage;
 
 import org.junit.jupiter.api.Test;
+import sqlite.query.Collation;
 import sqlite.query.Value;
 import sqlite.storage.Pointer.Bounded;
 import sqlite.storage.Pointer.Unbounded;
@@ -94,6 +95,15 @@ public class PageTest {
         ),
         page.records().toList()
     );
+
+    var interior = (Page.TableInteriorPage) page;
+    assertEquals(6, interior.key(2));
+    assertEquals(5, interior.child(interior.numKeys()));
+    // each key is the largest rowid in the child to its left
+    assertEquals(List.of(1, 1, 2, 2, 3, 3, 4, 4, 5),
+                 IntStream.range(1, 10)
+                          .mapToObj(id -> interior.child(interior.find(id)))
+                          .toList());
   }
 
   @Test
@@ -122,6 +132,10 @@ public class PageTest {
         ),
         page.records().toList()
     );
+
+    var leaf = (Page.TableLeafPage) page;
+    assertEquals(List.of(-1, 0, 1, 2, -1),
+                 IntStream.range(0, 5).mapToObj(leaf::find).toList());
   }
 
   @Test
@@ -157,6 +171,41 @@ public class PageTest {
     );
   }
 
+  @Test
+  public void testIndexCompareKey() {
+    int[][] cells = new int[][]{
+        concat(new int[]{0, 0, 0, 1}, new int[]{6},
+               new int[]{3, 17, 1, 'a', 'b', 2}),
+        // an integer key, which can't be compared in place
+        concat(new int[]{0, 0, 0, 2}, new int[]{5},
+               new int[]{3, 1, 1, 7, 4}),
+        // 'é' is encoded as two bytes that sort after 'z'
+        concat(new int[]{0, 0, 0, 3}, new int[]{6},
+               new int[]{3, 17, 1, 0xc3, 0xa9, 6}),
+    };
+    var buf = testPage(Page.Type.INDEX_INTERIOR, new int[]{0, 0, 0, 4}, cells);
+    var page = Page.from(buf, PAGE_OFFSET, StandardCharsets.UTF_8)
+                   .asIndexPage();
+
+    assertEquals(0, compareText(page, 0, "ab"));
+    assertEquals(1, compareText(page, 0, "a"));
+    assertEquals(-1, compareText(page, 0, "abc"));
+    assertEquals(1, compareText(page, 2, "z"));
+    // integers sort before any text
+    assertEquals(-1, compareText(page, 1, "0"));
+    var seven = new Value.IntValue(7);
+    assertEquals(0, page.compareKey(1, seven, null, Collation.BINARY));
+    var upper = new Value.StringValue("AB");
+    assertEquals(0, page.compareKey(0, upper, null, Collation.NOCASE));
+    assertEquals(indexKey("ab", 2), page.key(0));
+  }
+
+  private static int compareText(Page.IndexPage page, int index, String s) {
+    return page.compareKey(index, new Value.StringValue(s),
+                           s.getBytes(StandardCharsets.UTF_8),
+                           Collation.BINARY);
+  }
+
   private static Index.Key indexKey(String value, long rowId) {
     return new Index.Key(List.of(new Value.StringValue(value)), rowId);
   }
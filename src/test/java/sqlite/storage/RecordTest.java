@@ -0,0 +1,50 @@
+package sqlite.storage;
+
+import org.junit.jupiter.api.Test;
+import sqlite.query.Value;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class RecordTest {
+  private static List<Value> parse(byte[] payload) {
+    return Record.parse(payload, StandardCharsets.UTF_8).values();
+  }
+
+  @Test
+  public void testIntegers() {
+    long[] values = {0, 1, -1, 127, -128, 32767, -32768, 0x7fffff, -0x800000,
+                     -1234567, Integer.MAX_VALUE, Integer.MIN_VALUE,
+                     0x7fffffffffffL, -0x800000000000L, -1234567890123L,
+                     Long.MAX_VALUE, Long.MIN_VALUE};
+    for (long value : values) {
+      assertEquals(List.of(new Value.IntValue(value)),
+                   parse(Generator.record(value)));
+    }
+  }
+
+  @Test
+  public void testMixed() {
+    var values = parse(Generator.record(null, 2.5, "abc", new byte[] {1, 2},
+                                        -0x123456789aL, -0.0));
+    assertEquals(6, values.size());
+    assertEquals(new Value.NullValue(), values.get(0));
+    assertEquals(new Value.RealValue(2.5), values.get(1));
+    assertEquals(new Value.StringValue("abc"), values.get(2));
+    assertArrayEquals(new byte[] {1, 2},
+                      ((Value.BlobValue) values.get(3)).blob());
+    assertEquals(new Value.IntValue(-0x123456789aL), values.get(4));
+    assertEquals(new Value.RealValue(-0.0), values.get(5));
+  }
+
+  @Test
+  public void testNaN() {
+    var payload = ByteBuffer.allocate(10).put((byte) 2).put((byte) 7)
+                            .putDouble(Double.NaN).array();
+    assertEquals(List.of(new Value.NullValue()), parse(payload));
+  }
+}
@@ -0,0 +1,83 @@
+package sqlite.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import sqlite.query.QueryEngine;
+import sqlite.query.Value;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class RefreshTest {
+  @TempDir
+  Path dir;
+
+  private Path generate(String name, Generator.Options options)
+  throws IOException {
+    var path = dir.resolve(name);
+    Generator.generate(path, options);
+    return path;
+  }
+
+  // Overwrites the database in place, as another process would, with the
+  // given change counter and schema cookie.
+  private static void overwrite(Path db, Path source, int changeCounter,
+                                int schemaCookie) throws IOException {
+    var bytes = ByteBuffer.wrap(Files.readAllBytes(source));
+    bytes.putInt(24, changeCounter).putInt(40, schemaCookie);
+    try (var file = FileChannel.open(db, WRITE)) {
+      file.write(bytes, 0);
+      file.truncate(bytes.capacity());
+    }
+  }
+
+  private static Value firstName(QueryEngine engine) throws IOException {
+    return engine.evaluate("SELECT name FROM items WHERE category = 'category1'")
+                 .getFirst().columns().getFirst();
+  }
+
+  @Test
+  void testRefresh() throws IOException {
+    var options = new Generator.Options(100).withCategories(10)
+                                            .withLeafCells(10);
+    var db = generate("test.db", options);
+    var storage = StorageEngine.open(db, new PageCache());
+    var engine = new QueryEngine(storage);
+    var byCategory = engine.prepare(
+        "SELECT count(*) FROM items WHERE category = ?")
+                           .bind(1, new Value.StringValue("category3"));
+    assertEquals(new Value.IntValue(10),
+                 byCategory.execute().getFirst().columns().getFirst());
+    var name = firstName(engine);
+    var table = storage.getTables().getFirst();
+    long generation = storage.schemaGeneration();
+
+    // nothing changes without a new change counter
+    storage.refresh();
+    assertSame(table, storage.getTables().getFirst());
+
+    // new data with the same schema keeps the catalog
+    overwrite(db, generate("reseeded.db", options.withSeed(42)), 2, 1);
+    assertNotEquals(name, firstName(engine));
+    assertSame(table, storage.getTables().getFirst());
+    assertEquals(generation, storage.schemaGeneration());
+
+    // a new schema replaces the catalog and the cached plans
+    var bigger = new Generator.Options(300).withCategories(10)
+                                           .withLeafCells(10);
+    overwrite(db, generate("bigger.db", bigger), 3, 2);
+    assertEquals(new Value.IntValue(30),
+                 byCategory.execute().getFirst().columns().getFirst());
+    assertEquals(generation + 1, storage.schemaGeneration());
+    assertNotEquals(table, storage.getTables().getFirst());
+    storage.close();
+  }
+}
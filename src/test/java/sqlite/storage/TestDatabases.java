@@ -0,0 +1,44 @@
+package sqlite.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.WRITE;
+
+// Generated databases shared by the tests.
+public final class TestDatabases {
+  // 5000 items in 7 categories, so that an equality filter on the category
+  // matches 714 or 715 rows
+  public static final Generator.Options ITEMS =
+      new Generator.Options(5000).withCategories(7);
+
+  // where the database header keeps the file change counter
+  public static final int CHANGE_COUNTER_OFFSET = 24;
+
+  private TestDatabases() {}
+
+  // Generates test.db in the directory and returns its path.
+  public static Path generate(Path dir, Generator.Options options)
+  throws IOException {
+    var path = dir.resolve("test.db");
+    Generator.generate(path, options);
+    return path;
+  }
+
+  // Opens the database with a cache of its own.
+  public static StorageEngine open(Path db) throws IOException {
+    return StorageEngine.open(db, new PageCache());
+  }
+
+  // Overwrites the change counter, as another process writing to the file
+  // would.
+  public static void setChangeCounter(Path db, int changeCounter)
+  throws IOException {
+    try (var file = FileChannel.open(db, WRITE)) {
+      file.write(ByteBuffer.allocate(4).putInt(0, changeCounter),
+                 CHANGE_COUNTER_OFFSET);
+    }
+  }
+}
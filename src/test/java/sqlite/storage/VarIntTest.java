@@ -0,0 +1,51 @@
+package sqlite.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class VarIntTest {
+  private static final List<Long> VALUES = List.of(
+      0L, 1L, 127L, 128L, 16383L, 16384L, 1L << 35, (1L << 56) - 1,
+      1L << 56, Long.MAX_VALUE, -1L, Long.MIN_VALUE, -12345L);
+
+  @Test
+  void testRoundTrip() {
+    var buf = ByteBuffer.allocate(9 * VALUES.size() + 3);
+    buf.position(3);
+    for (long value : VALUES) VarInt.writeTo(buf, value);
+    int offset = 3;
+    for (long value : VALUES) {
+      assertEquals(value, VarInt.get(buf, offset));
+      int end = VarInt.skip(buf, offset);
+      assertEquals(VarInt.sizeOf(value), end - offset);
+      var parsed = VarInt.parseFrom(buf.position(offset));
+      assertEquals(new VarInt(value, end - offset), parsed);
+      assertEquals(end, buf.position());
+      offset = end;
+    }
+  }
+
+  @Test
+  void testNinthByteIsUnsigned() {
+    // eight continuation bytes of zeros and a ninth byte with its high bit
+    // set: the value is 0x80, not sign-extended
+    var buf = ByteBuffer.wrap(new byte[]{
+        (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80,
+        (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80});
+    assertEquals(0x80, VarInt.get(buf, 0));
+    assertEquals(9, VarInt.skip(buf, 0));
+  }
+
+  @Test
+  void testNonMinimalEncoding() {
+    // 1 written in two bytes, which SQLite accepts
+    var buf = ByteBuffer.wrap(new byte[]{(byte) 0x80, 0x01, 0x05});
+    assertEquals(1, VarInt.get(buf, 0));
+    assertEquals(2, VarInt.skip(buf, 0));
+    assertEquals(5, VarInt.get(buf, 2));
+  }
+}
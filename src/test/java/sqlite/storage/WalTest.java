@@ -0,0 +1,162 @@
+package sqlite.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import sqlite.query.Value;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class WalTest {
+  private static final int PAGE_SIZE = 4096;
+
+  @TempDir
+  Path dir;
+
+  // Appends frames to a log in the format SQLite writes, with big-endian
+  // checksums.
+  private static final class WalWriter implements AutoCloseable {
+    private final FileChannel file;
+    private final int salt;
+    private int s1, s2;
+    private long offset = Wal.HEADER_SIZE;
+
+    WalWriter(Path path, int salt) throws IOException {
+      this.file = FileChannel.open(path, CREATE, WRITE, TRUNCATE_EXISTING);
+      this.salt = salt;
+      var header = ByteBuffer.allocate(Wal.HEADER_SIZE);
+      header.putInt(0x377f0683).putInt(3007000).putInt(PAGE_SIZE).putInt(0)
+            .putInt(salt).putInt(~salt);
+      checksum(header, 0, 24);
+      header.putInt(s1).putInt(s2);
+      file.write(header.flip(), 0);
+    }
+
+    private void checksum(ByteBuffer buf, int from, int to) {
+      for (int i = from; i < to; i += 8) {
+        s1 += buf.getInt(i) + s2;
+        s2 += buf.getInt(i + 4) + s1;
+      }
+    }
+
+    void append(byte[] page, int pageNumber, int commitSize, boolean corrupt)
+    throws IOException {
+      var frame = ByteBuffer.allocate(Wal.FRAME_HEADER_SIZE + PAGE_SIZE);
+      frame.putInt(pageNumber).putInt(commitSize).putInt(salt).putInt(~salt);
+      frame.position(Wal.FRAME_HEADER_SIZE).put(page);
+      checksum(frame, 0, 8);
+      checksum(frame, Wal.FRAME_HEADER_SIZE, frame.capacity());
+      frame.putInt(16, corrupt ? s1 + 1 : s1).putInt(20, s2);
+      file.write(frame.clear(), offset);
+      offset += frame.capacity();
+    }
+
+    @Override
+    public void close() throws IOException {
+      file.close();
+    }
+  }
+
+  private Path generate(String name, long rows) throws IOException {
+    var path = dir.resolve(name);
+    Generator.generate(path, new Generator.Options(rows).withCategories(10));
+    return path;
+  }
+
+  private static byte[] page(Path db, int pageNumber) throws IOException {
+    var bytes = Files.readAllBytes(db);
+    var page = new byte[PAGE_SIZE];
+    System.arraycopy(bytes, (pageNumber - 1) * PAGE_SIZE, page, 0, PAGE_SIZE);
+    return page;
+  }
+
+  // Copies page 1 with a new schema cookie, as a writer changing the schema
+  // would.
+  private static byte[] schemaPage(Path db, int schemaCookie)
+  throws IOException {
+    var page = page(db, 1);
+    ByteBuffer.wrap(page).putInt(40, schemaCookie);
+    return page;
+  }
+
+  private static int pageCount(Path db) throws IOException {
+    return (int) (Files.size(db) / PAGE_SIZE);
+  }
+
+  private static int rows(StorageEngine storage) {
+    storage.refresh();
+    return storage.getTables().getFirst().rows().size();
+  }
+
+  private static int categoryRows(StorageEngine storage) {
+    var index = storage.getIndices().getFirst();
+    return index.findMatchingRecordIds(
+        "category", new Value.StringValue("category3")).size();
+  }
+
+  @Test
+  void testReadsCommittedFrames() throws IOException {
+    var db = generate("test.db", 100);
+    var newer = generate("newer.db", 300);
+    int pages = pageCount(newer);
+    var storage = StorageEngine.open(db, new PageCache());
+    assertEquals(100, rows(storage));
+
+    var wal = Wal.pathFor(db);
+    try (var writer = new WalWriter(wal, 1)) {
+      writer.append(schemaPage(newer, 2), 1, 0, false);
+      for (int i = 2; i < pages; i++) {
+        writer.append(page(newer, i), i, 0, false);
+      }
+      // nothing is visible until the commit frame
+      assertEquals(100, rows(storage));
+      writer.append(page(newer, pages), pages, pages, false);
+      assertEquals(300, rows(storage));
+      assertEquals(30, categoryRows(storage));
+
+      // a frame with a bad checksum ends the log
+      writer.append(page(db, 2), 2, pages, true);
+      assertEquals(300, rows(storage));
+    }
+
+    // a restarted log replaces the old frames
+    var oldest = generate("oldest.db", 50);
+    try (var writer = new WalWriter(wal, 2)) {
+      int n = pageCount(oldest);
+      writer.append(schemaPage(oldest, 3), 1, 0, false);
+      for (int i = 2; i <= n; i++) {
+        writer.append(page(oldest, i), i, i == n ? n : 0, false);
+      }
+    }
+    assertEquals(50, rows(storage));
+    assertEquals(5, categoryRows(storage));
+
+    Files.delete(wal);
+    assertEquals(100, rows(storage));
+    storage.close();
+  }
+
+  @Test
+  void testReadsHeaderFromLog() throws IOException {
+    // a new database in WAL mode may have nothing in the database file
+    var source = generate("source.db", 200);
+    var db = dir.resolve("empty.db");
+    Files.createFile(db);
+    try (var writer = new WalWriter(Wal.pathFor(db), 3)) {
+      int n = pageCount(source);
+      for (int i = n; i >= 1; i--) {
+        writer.append(page(source, i), i, i == 1 ? n : 0, false);
+      }
+    }
+    try (var storage = StorageEngine.open(db, new PageCache())) {
+      assertEquals(200, rows(storage));
+      assertEquals(20, categoryRows(storage));
+    }
+  }
+}
@@ -0,0 +1,47 @@
+#!/bin/sh
+#
+# Measures wall-clock time of short CLI commands, where JVM startup dominates.
+# Compares a plain JVM, a JVM tuned for short runs (C1 only, serial GC), the
+# same tuned JVM with the AppCDS archive from `-Pappcds`, and the native image
+# from `-Pnative` if one has been built. Only the archive differs between the
+# second and third, so their difference is what AppCDS alone saves.
+#
+# usage: ./startup_benchmark.sh [runs] [database]
+set -e
+
+RUNS=${1:-20}
+DB=${2:-sample.db}
+JAR=target/build-your-own-sqlite-1.0.jar
+JSA=target/java_sqlite.jsa
+NATIVE=target/java_sqlite
+SHORT_RUN_FLAGS="-XX:TieredStopAtLevel=1 -XX:+UseSerialGC"
+
+if [ ! -f "$JAR" ] || [ ! -f "$JSA" ]; then
+  mvn -B --quiet package -Pappcds -DskipTests -Ddir=target
+fi
+
+# prints the mean wall-clock milliseconds of running "$@" $RUNS times
+measure() {
+  start=$(date +%s%N)
+  i=0
+  while [ $i -lt "$RUNS" ]; do
+    "$@" > /dev/null
+    i=$((i + 1))
+  done
+  end=$(date +%s%N)
+  echo $(( (end - start) / RUNS / 1000000 ))
+}
+
+for command in .tables .dbinfo "SELECT count(*) FROM apples"; do
+  echo "$command"
+  echo "  jvm:                  $(measure java -jar "$JAR" "$DB" "$command") ms"
+  # shellcheck disable=SC2086
+  echo "  jvm, short-run flags: $(measure java $SHORT_RUN_FLAGS \
+      -jar "$JAR" "$DB" "$command") ms"
+  # shellcheck disable=SC2086
+  echo "  + appcds:             $(measure java $SHORT_RUN_FLAGS \
+      -XX:SharedArchiveFile="$JSA" -jar "$JAR" "$DB" "$command") ms"
+  if [ -x "$NATIVE" ]; then
+    echo "  native image:         $(measure "$NATIVE" "$DB" "$command") ms"
+  fi
+done